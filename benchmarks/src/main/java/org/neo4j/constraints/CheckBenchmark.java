@@ -0,0 +1,62 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of checking a single node against a growing number of constraints, of which only one applies to the
+ * node's labels and relationships. Runs inside one long read transaction.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CheckBenchmark {
+    @Param({"1", "10", "100"})
+    public int constraintCount;
+
+    @Param({"UNIFORM", "SKEWED"})
+    public SyntheticGraph.Distribution distribution;
+
+    private SyntheticGraph graph;
+    private Constraint.Constraints constraints;
+    private Transaction tx;
+
+    @Setup
+    public void setUp() {
+        graph = SyntheticGraph.create(SyntheticGraph.newDatabase(false), distribution, 100, 100000, 10000);
+        constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO 1..1000000:1"));
+        for (int i = 1; i < constraintCount; i++) {
+            constraints.add(ConstraintParser.parse("(:Person)-[:TYPE" + i + "]->(:Other" + i + ") TO many:0..1"));
+        }
+        tx = graph.db().beginTx();
+    }
+
+    @TearDown
+    public void tearDown() {
+        tx.close();
+        graph.db().shutdown();
+    }
+
+    @Benchmark
+    public Map<Constraint, Result> checkPerson() {
+        return constraints.check(graph.person());
+    }
+
+    @Benchmark
+    public Map<Constraint, Result> checkCompany() {
+        Node company = graph.company();
+        return constraints.check(company);
+    }
+}
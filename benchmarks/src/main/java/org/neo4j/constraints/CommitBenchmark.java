@@ -0,0 +1,64 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end commit throughput of transactions adding persons that work for a company, with and without the
+ * constraint extension. {@code constraint} selects the installed pattern, NONE installs the extension without
+ * constraints. SKEWED sends most relationships to a few supernodes, contractors add relationships that the
+ * label filtered counts have to skip.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommitBenchmark {
+    @Param({"true", "false"})
+    public boolean extension;
+
+    @Param({"(:Person)-[:WORKS_FOR]->(:Company) TO many:1", "(:Person)-[:WORKS_FOR]->(:Company) TO 1..10000000:1", "NONE"})
+    public String constraint;
+
+    @Param({"UNIFORM", "SKEWED"})
+    public SyntheticGraph.Distribution distribution;
+
+    @Param({"0", "100000"})
+    public int contractors;
+
+    @Param({"1", "100"})
+    public int personsPerTx;
+
+    private GraphDatabaseService db;
+    private SyntheticGraph graph;
+
+    @Setup
+    public void setUp() {
+        db = SyntheticGraph.newDatabase(extension);
+        graph = SyntheticGraph.create(db, distribution, 1000, 100000, contractors);
+        if (extension && !"NONE".equals(constraint)) SyntheticGraph.install(db, constraint);
+    }
+
+    @TearDown
+    public void tearDown() {
+        db.shutdown();
+    }
+
+    @Benchmark
+    public void commit() {
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < personsPerTx; i++) {
+                db.createNode(SyntheticGraph.PERSON).createRelationshipTo(graph.company(), SyntheticGraph.WORKS_FOR);
+            }
+            tx.success();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package org.neo4j.constraints;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of parsing a constraint pattern.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"(:Person)-[:WORKS_FOR]->(:Company) TO many:1", "(:Person)-[:REPORTS_TO]->(:Manager) to 1..3:0..1"})
+    public String pattern;
+
+    @Benchmark
+    public Constraint parse() {
+        return ConstraintParser.parse(pattern);
+    }
+}
@@ -0,0 +1,44 @@
+package org.neo4j.constraints;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading and writing the stored form of the constraints for varying constraint counts.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SerializationBenchmark {
+    @Param({"1", "10", "100"})
+    public int constraintCount;
+
+    private Constraint.Constraints constraints;
+    private String[] data;
+
+    @Setup
+    public void setUp() {
+        constraints = Constraint.Constraints.from(null);
+        for (int i = 0; i < constraintCount; i++) {
+            constraints.add(ConstraintParser.parse("(:Person" + i + ")-[:TYPE" + i + "]->(:Company" + i + ") TO 1..3:0..1"));
+        }
+        data = constraints.toArray();
+    }
+
+    @Benchmark
+    public Constraint.Constraints from() {
+        return Constraint.Constraints.from(data);
+    }
+
+    @Benchmark
+    public String[] toArray() {
+        return constraints.toArray();
+    }
+}
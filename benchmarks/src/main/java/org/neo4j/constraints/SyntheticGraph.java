@@ -0,0 +1,115 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.extension.KernelExtensionFactory;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Impermanent database with {@code (:Person)-[:WORKS_FOR]->(:Company)} data for the benchmarks. The companies'
+ * degrees are either uniform or skewed towards a few supernodes, and {@code (:Contractor)} nodes add
+ * WORKS_FOR relationships that label filtered counts have to skip.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class SyntheticGraph {
+    public static final Label PERSON = DynamicLabel.label("Person");
+    public static final Label COMPANY = DynamicLabel.label("Company");
+    public static final Label CONTRACTOR = DynamicLabel.label("Contractor");
+    public static final RelationshipType WORKS_FOR = DynamicRelationshipType.withName("WORKS_FOR");
+    private static final int TX_SIZE = 10000;
+
+    public enum Distribution {
+        UNIFORM, SKEWED;
+
+        /**
+         * @return index of a company, SKEWED makes the first companies supernodes
+         */
+        int pick(Random random, int companies) {
+            if (this == UNIFORM) return random.nextInt(companies);
+            double r = random.nextDouble();
+            return (int) (companies * r * r * r * r);
+        }
+    }
+
+    private final GraphDatabaseService db;
+    private final Distribution distribution;
+    private final Random random = new Random(42);
+    private final List<Node> companies = new ArrayList<>();
+    private final List<Node> persons = new ArrayList<>();
+
+    private SyntheticGraph(GraphDatabaseService db, Distribution distribution) {
+        this.db = db;
+        this.distribution = distribution;
+    }
+
+    public static GraphDatabaseService newDatabase(boolean withConstraintExtension) {
+        TestGraphDatabaseFactory factory = new TestGraphDatabaseFactory();
+        if (!withConstraintExtension) {
+            List<KernelExtensionFactory<?>> extensions = new ArrayList<>();
+            for (KernelExtensionFactory<?> extension : factory.getKernelExtension()) {
+                if (!(extension instanceof ConstraintExtensionFactory)) extensions.add(extension);
+            }
+            factory.setKernelExtensions(extensions);
+        }
+        return factory.newImpermanentDatabase();
+    }
+
+    public static SyntheticGraph create(GraphDatabaseService db, Distribution distribution, int companies, int persons, int contractors) {
+        SyntheticGraph graph = new SyntheticGraph(db, distribution);
+        graph.populate(companies, persons, contractors);
+        return graph;
+    }
+
+    private void populate(int companyCount, int personCount, int contractorCount) {
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < companyCount; i++) companies.add(db.createNode(COMPANY));
+            tx.success();
+        }
+        for (int from = 0; from < personCount + contractorCount; from += TX_SIZE) {
+            try (Transaction tx = db.beginTx()) {
+                for (int i = from; i < Math.min(personCount + contractorCount, from + TX_SIZE); i++) {
+                    Node node = db.createNode(i < personCount ? PERSON : CONTRACTOR);
+                    node.createRelationshipTo(company(), WORKS_FOR);
+                    if (i < personCount) persons.add(node);
+                }
+                tx.success();
+            }
+        }
+    }
+
+    public static void install(GraphDatabaseService db, String... patterns) {
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        for (String pattern : patterns) constraints.add(ConstraintParser.parse(pattern));
+        new ConstraintPersister(db).persist(constraints);
+    }
+
+    /**
+     * @return a company following the degree distribution
+     */
+    public Node company() {
+        return companies.get(distribution.pick(random, companies.size()));
+    }
+
+    public Node person() {
+        return persons.get(random.nextInt(persons.size()));
+    }
+
+    public Node supernode() {
+        return companies.get(0);
+    }
+
+    public GraphDatabaseService db() {
+        return db;
+    }
+}
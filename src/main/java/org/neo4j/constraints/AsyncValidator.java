@@ -0,0 +1,259 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.helpers.NamedThreadFactory;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validates the nodes of committed transactions on a background pool for {@link EnforcementMode#ASYNC_VALIDATE},
+ * so the commit path does no degree work. Property and path constraints are checked for the {@link Deferred} ids
+ * collected at commit, against the graph as it is when the check runs.
+ * <p>
+ * The queue of the pool is bounded. When it is full the committing thread waits for room, so a backlog slows down
+ * commits instead of growing without limit. Validating on the committing thread is no option, as it is still bound
+ * to its committed transaction. Batches are only dropped, and counted, if the wait is interrupted or on shutdown. Violations are recorded in the {@link ViolationLog} and passed on
+ * to the {@link ViolationListener}s.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class AsyncValidator {
+    private static final int BATCH_SIZE = 1000;
+    // how often a committing thread waiting for room checks for shutdown
+    private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+    private final GraphDatabaseService db;
+    private final ConstraintPersister persister;
+    private final DegreeCounter counter;
+    private final ViolationLog log;
+    private final Collection<ViolationListener> listeners;
+    private final ThreadPoolExecutor executor;
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object idle = new Object();
+    private int pending;
+
+    public AsyncValidator(GraphDatabaseService db, ConstraintPersister persister, DegreeCounter counter, ViolationLog log,
+                          Collection<ViolationListener> listeners, int threads, int queueSize) {
+        this.db = db;
+        this.persister = persister;
+        this.counter = counter;
+        this.log = log;
+        this.listeners = listeners;
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                new NamedThreadFactory("constraint-async-validation"), new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable validation, ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) throw new RejectedExecutionException("Async validation is shut down");
+                waits.incrementAndGet();
+                try {
+                    while (!executor.getQueue().offer(validation, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (executor.isShutdown()) throw new RejectedExecutionException("Async validation is shut down");
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException("Interrupted while waiting for the async validation queue", e);
+                }
+                // the pool may have stopped its threads before the batch got in, then nobody would take it
+                if (executor.isShutdown() && executor.remove(validation)) {
+                    throw new RejectedExecutionException("Async validation is shut down");
+                }
+            }
+        });
+    }
+
+    /**
+     * Queues the ids of committed nodes, nodes deleted meanwhile are skipped.
+     */
+    public void submit(long[] nodeIds) {
+        for (int from = 0; from < nodeIds.length; from += BATCH_SIZE) {
+            final long[] batch = Arrays.copyOfRange(nodeIds, from, Math.min(nodeIds.length, from + BATCH_SIZE));
+            execute(new Runnable() {
+                public void run() {
+                    validate(batch);
+                }
+            });
+        }
+    }
+
+    /**
+     * Queues the property and path checks of a committed transaction and reports its count violations.
+     */
+    public void submit(final Deferred deferred) {
+        if (deferred.isEmpty()) return;
+        execute(new Runnable() {
+            public void run() {
+                validate(deferred);
+            }
+        });
+    }
+
+    private void execute(final Runnable validation) {
+        synchronized (idle) {
+            pending++;
+        }
+        try {
+            executor.submit(new Runnable() {
+                public void run() {
+                    try {
+                        validation.run();
+                    } finally {
+                        done();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            dropped.incrementAndGet();
+            done();
+        }
+    }
+
+    private void done() {
+        synchronized (idle) {
+            if (--pending == 0) idle.notifyAll();
+        }
+    }
+
+    private void validate(Deferred deferred) {
+        report(deferred.counts);
+        if (deferred.propertyNodes.isEmpty() && deferred.propertyRelationships.isEmpty() && deferred.pathNodes.isEmpty()) return;
+        try (Transaction tx = db.beginTx()) {
+            if (!deferred.propertyNodes.isEmpty() || !deferred.propertyRelationships.isEmpty()) {
+                PropertyConstraint.Constraints properties = persister.currentProperties();
+                List<PropertyConstraint.Violation> violations = new ArrayList<>();
+                for (Node node : nodes(deferred.propertyNodes)) properties.check(node, violations);
+                for (long relationshipId : deferred.propertyRelationships) {
+                    try {
+                        properties.check(db.getRelationshipById(relationshipId), violations);
+                    } catch (NotFoundException e) {
+                        // deleted meanwhile
+                    }
+                }
+                report(violations);
+            }
+            if (!deferred.pathNodes.isEmpty()) report(persister.currentPaths().check(nodes(deferred.pathNodes)));
+            tx.success();
+        }
+    }
+
+    private Map<Node, Set<String>> nodes(Map<Long, Set<String>> nodeIds) {
+        Map<Node, Set<String>> nodes = new LinkedHashMap<>(nodeIds.size() * 2);
+        for (Map.Entry<Long, Set<String>> entry : nodeIds.entrySet()) {
+            try {
+                nodes.put(db.getNodeById(entry.getKey()), entry.getValue());
+            } catch (NotFoundException e) {
+                // deleted meanwhile
+            }
+        }
+        return nodes;
+    }
+
+    private List<Node> nodes(Collection<Long> nodeIds) {
+        List<Node> nodes = new ArrayList<>(nodeIds.size());
+        for (long nodeId : nodeIds) {
+            try {
+                nodes.add(db.getNodeById(nodeId));
+            } catch (NotFoundException e) {
+                // deleted meanwhile
+            }
+        }
+        return nodes;
+    }
+
+    private void report(Collection<? extends ConstraintViolation> violations) {
+        if (violations.isEmpty()) return;
+        log.log(violations);
+        for (ViolationListener listener : listeners) {
+            for (ConstraintViolation violation : violations) listener.violation(violation, false);
+        }
+    }
+
+    private void validate(long[] nodeIds) {
+        try (Transaction tx = db.beginTx()) {
+            Constraint.Constraints constraints = persister.current();
+            for (long nodeId : nodeIds) {
+                Node node;
+                try {
+                    node = db.getNodeById(nodeId);
+                } catch (NotFoundException e) {
+                    continue;
+                }
+                Map<Constraint, Result> result = constraints.check(node, counter);
+                if (result == null) continue;
+                log.log(node, result);
+                if (listeners.isEmpty()) continue;
+                for (Map.Entry<Constraint, Result> entry : result.entrySet()) {
+                    ConstraintViolation violation = CardinalityViolation.of(node, entry.getKey(), entry.getValue(), counter);
+                    for (ViolationListener listener : listeners) listener.violation(violation, false);
+                }
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * @return the number of batches waiting for a validation thread
+     */
+    public int getBacklog() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * @return the number of batches whose committing thread had to wait as the queue was full
+     */
+    public long getWaits() {
+        return waits.get();
+    }
+
+    /**
+     * @return the number of batches that were not validated as the wait was interrupted or on shutdown
+     */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return true if all queued nodes were validated within the timeout
+     */
+    public boolean awaitIdle(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idle) {
+            while (pending > 0) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) return false;
+                TimeUnit.NANOSECONDS.timedWait(idle, remaining);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The ids to check against the property and path constraints after a transaction committed, and the count
+     * violations it was committed with, which are reported after the commit too. The path nodes map to the
+     * constrained labels the transaction removed from them.
+     */
+    public static class Deferred {
+        final Set<Long> propertyNodes = new HashSet<>(), propertyRelationships = new HashSet<>();
+        final Map<Long, Set<String>> pathNodes = new HashMap<>();
+        final List<CountConstraint.Violation> counts = new ArrayList<>();
+
+        boolean isEmpty() {
+            return propertyNodes.isEmpty() && propertyRelationships.isEmpty() && pathNodes.isEmpty() && counts.isEmpty();
+        }
+    }
+
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+}
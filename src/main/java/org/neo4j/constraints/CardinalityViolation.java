@@ -0,0 +1,96 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.Node;
+
+/**
+ * A node violating one side of a constraint. The degree is counted only as far as needed to decide the
+ * violation: for {@link Result#TO_MANY} it is at most the exact degree, for {@link Result#TO_FEW} at least.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class CardinalityViolation extends ConstraintViolation {
+    public static final int UNKNOWN_DEGREE = -1;
+
+    private final long nodeId;
+    private final Constraint constraint;
+    private final int side;
+    private final Result result;
+    private final int degree;
+
+    CardinalityViolation(long nodeId, Constraint constraint, int side, Result result, int degree) {
+        this.nodeId = nodeId;
+        this.constraint = constraint;
+        this.side = side;
+        this.result = result;
+        this.degree = degree;
+    }
+
+    /**
+     * Re-counts the sides of the constraint that apply to the node to find the violated one.
+     */
+    static CardinalityViolation of(Node node, Constraint constraint, Result result, DegreeCounter counter) {
+        for (int side : new int[]{Constraint.TO_SIDE, Constraint.FROM_SIDE}) {
+            if (!appliesTo(node, constraint, side)) continue;
+            int degree = counter.count(constraint, side, node);
+            if (Result.check(degree, constraint.getMin(side), constraint.getMax(side)) == result) {
+                return new CardinalityViolation(node.getId(), constraint, side, result, degree);
+            }
+        }
+        return new CardinalityViolation(node.getId(), constraint, Constraint.TO_SIDE, result, UNKNOWN_DEGREE);
+    }
+
+    private static boolean appliesTo(Node node, Constraint constraint, int side) {
+        // the to-side degree is counted for nodes of the from-label and vice versa
+        if (side == Constraint.TO_SIDE) return constraint.getFromLabel() == null || node.hasLabel(constraint.getFromLabel());
+        return constraint.getToLabel() == null || node.hasLabel(constraint.getToLabel());
+    }
+
+    public long getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public long getId() {
+        return nodeId;
+    }
+
+    @Override
+    public Constraint getConstraint() {
+        return constraint;
+    }
+
+    @Override
+    public Result getResult() {
+        return result;
+    }
+
+    /**
+     * @return the counted degree or {@link #UNKNOWN_DEGREE} if the violation could not be reproduced
+     */
+    public int getDegree() {
+        return degree;
+    }
+
+    /**
+     * @return the min for {@link Result#TO_FEW}, the max for {@link Result#TO_MANY}
+     */
+    public int getBound() {
+        return result == Result.TO_FEW ? constraint.getMin(side) : constraint.getMax(side);
+    }
+
+    /**
+     * @return true if the relationships to the to-label are counted, false for the ones to the from-label
+     */
+    public boolean isToSide() {
+        return side == Constraint.TO_SIDE;
+    }
+
+    @Override
+    public String toString() {
+        String degree = this.degree == UNKNOWN_DEGREE ? "?" : String.valueOf(this.degree);
+        String comparison = result == Result.TO_FEW ? " < min " : " > max ";
+        return "Node " + nodeId + " " + result + ": degree " + degree + comparison + getBound() + " of " + constraint;
+    }
+}
@@ -0,0 +1,13 @@
+package org.neo4j.constraints;
+
+/**
+ * Rejects a transaction that violates cardinality constraints, its report holds {@link CardinalityViolation}s.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class CardinalityViolationException extends ViolationReportException {
+    public CardinalityViolationException(ViolationReport report) {
+        super(report);
+    }
+}
@@ -1,31 +1,149 @@
 package org.neo4j.constraints;
 
-import org.neo4j.kernel.impl.core.GraphProperties;
-import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.Node;
 import org.neo4j.shell.*;
 import org.neo4j.shell.kernel.apps.TransactionProvidingApp;
 
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * @author mh
  * @since 10.10.14
  */
 public class ConstrainApp extends TransactionProvidingApp {
-
+    public static final String REBUILD = "REBUILD";
+    public static final String VIOLATIONS = "VIOLATIONS";
+    public static final String VALIDATE = "VALIDATE";
+    public static final String PENDING = "PENDING";
+    public static final String LOAD = "LOAD";
+    public static final String REPLACE = "REPLACE";
+    private static final int MAX_REPORTED = 10;
 
     @Override
     protected Continuation exec(AppCommandParser appCommandParser, Session session, Output output) throws Exception {
-        String line = appCommandParser.getLineWithoutApp();
+        String line = appCommandParser.getLineWithoutApp().trim();
+        ConstraintExtensionFactory.ConstraintExtension extension = ConstraintExtensionFactory.extension(getServer().getDb());
+        if (REBUILD.equalsIgnoreCase(line)) {
+            boolean rebuilt = extension.rebuildDegreeCounts();
+            output.println(rebuilt ? "Rebuilt degree counters" : "Degree counters are disabled or were changed concurrently");
+            return Continuation.INPUT_COMPLETE;
+        }
+        if (VIOLATIONS.equalsIgnoreCase(line)) {
+            ViolationLog log = extension.getViolationLog();
+            for (ViolationLog.Violation violation : log.recent()) {
+                output.println(violation.toString());
+            }
+            output.println(log.total() + " violations logged");
+            return Continuation.INPUT_COMPLETE;
+        }
+        if (VALIDATE.equalsIgnoreCase(line)) {
+            ValidationOutput listener = new ValidationOutput(output, false);
+            long violations = extension.validate(new ConstraintPersister(getServer().getDb()).restore(), listener);
+            output.println(violations + " nodes violate active constraints");
+            int pending = extension.validatePending(listener);
+            output.println(pending + " constraints still pending");
+            return Continuation.INPUT_COMPLETE;
+        }
+        if (startsWithWord(line, LOAD)) {
+            String file = line.substring(LOAD.length()).trim();
+            boolean replace = startsWithWord(file, REPLACE);
+            if (replace) file = file.substring(REPLACE.length()).trim();
+            ConstraintLoader.Diff diff;
+            try (Reader reader = new InputStreamReader(new FileInputStream(file), "UTF-8")) {
+                diff = extension.load(reader, replace, new ValidationOutput(output, true));
+            }
+            if (diff.getViolations() > 0) {
+                output.println("Rejected, existing data violates the added constraints: " + diff);
+                return Continuation.INPUT_COMPLETE;
+            }
+            print(output, "Added ", diff.getAdded());
+            print(output, "Removed ", diff.getRemoved());
+            output.println((diff.isChanged() ? "Loaded " : "Unchanged ") + diff);
+            return Continuation.INPUT_COMPLETE;
+        }
+        if (ConstraintParser.isPropertyConstraint(line)) {
+            PropertyConstraint constraint = ConstraintParser.parseProperty(line);
+            long violations = extension.addPropertyConstraint(constraint);
+            output.println(violations == 0 ? "Added " + constraint : "Rejected, " + violations + " existing values violate " + constraint);
+            return Continuation.INPUT_COMPLETE;
+        }
+        if (ConstraintParser.isPathConstraint(line)) {
+            PathConstraint constraint = ConstraintParser.parsePath(line);
+            long violations = extension.addPathConstraint(constraint);
+            output.println(violations == 0 ? "Added " + constraint : "Rejected, " + violations + " existing nodes violate " + constraint);
+            return Continuation.INPUT_COMPLETE;
+        }
+        if (ConstraintParser.isCountConstraint(line)) {
+            CountConstraint constraint = ConstraintParser.parseCount(line);
+            long count = extension.addCountConstraint(constraint);
+            output.println((constraint.check(count) == Result.OK ? "Added " : "Rejected, " + count + " existing nodes violate ") + constraint);
+            return Continuation.INPUT_COMPLETE;
+        }
+        boolean pendingOnViolation = line.regionMatches(true, 0, PENDING + " ", 0, PENDING.length() + 1);
+        if (pendingOnViolation) line = line.substring(PENDING.length() + 1);
         Constraint constraint = ConstraintParser.parse(line);
-        storeConstraint(constraint);
+        if (extension.addConstraint(constraint, pendingOnViolation, new ValidationOutput(output, true))) {
+            output.println("Added " + constraint);
+        } else {
+            output.println((pendingOnViolation ? "Pending, existing data violates " : "Rejected, existing data violates ") + constraint);
+        }
         return Continuation.INPUT_COMPLETE;
     }
 
-    private void storeConstraint(Constraint constraint) {
-        GraphProperties props = getServer().getDb().getDependencyResolver().resolveDependency(NodeManager.class).getGraphProperties();
-        ConstraintPersister constraintPersister = new ConstraintPersister(props);
-        Constraint.Constraints constraints = constraintPersister.restore();
-        constraints.add(constraint);
-        constraintPersister.persist(constraints);
+    private static boolean startsWithWord(String line, String word) {
+        return line.regionMatches(true, 0, word + " ", 0, word.length() + 1);
+    }
+
+    private static void print(Output output, String prefix, List<Constraint> constraints) throws RemoteException {
+        for (int i = 0; i < constraints.size() && i < MAX_REPORTED; i++) {
+            output.println(prefix + constraints.get(i));
+        }
+        if (constraints.size() > MAX_REPORTED) output.println("... " + (constraints.size() - MAX_REPORTED) + " more");
+    }
+
+    /**
+     * Prints the first violations and the progress in 10% steps, optionally stops after the printed violations.
+     */
+    private static class ValidationOutput implements GraphValidator.Listener {
+        private final Output output;
+        private final boolean stopAfterReported;
+        private final AtomicLong reported = new AtomicLong();
+        private int percent;
+
+        private ValidationOutput(Output output, boolean stopAfterReported) {
+            this.output = output;
+            this.stopAfterReported = stopAfterReported;
+        }
+
+        @Override
+        public boolean violation(Node node, Map<Constraint, Result> results) {
+            long count = reported.incrementAndGet();
+            if (count <= MAX_REPORTED) println("Node " + node.getId() + " violates " + results);
+            return !stopAfterReported || count < MAX_REPORTED;
+        }
+
+        @Override
+        public synchronized void progress(long checkedIds, long totalIds) {
+            int current = (int) (checkedIds * 10 / totalIds) * 10;
+            if (current <= percent) return;
+            percent = current;
+            println("Validated " + percent + "%");
+        }
+
+        private synchronized void println(String message) {
+            try {
+                output.println(message);
+            } catch (RemoteException e) {
+                throw new IllegalStateException(e);
+            }
+        }
     }
 
     @Override
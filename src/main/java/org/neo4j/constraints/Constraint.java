@@ -2,6 +2,7 @@ package org.neo4j.constraints;
 
 import org.neo4j.graphdb.*;
 import org.neo4j.helpers.Strings;
+import org.neo4j.kernel.api.ReadOperations;
 
 import java.util.*;
 
@@ -14,6 +15,12 @@ public class Constraint {
     public static final int ONE_VALUE = 1;
     public static final int SIZE = 8;
     public static final String NO_TYPE = "";
+    static final int TO_SIDE = 0, FROM_SIDE = 1;
+    // token id for a missing label or type, which matches any
+    static final int ANY_TOKEN = -1;
+    private static final int[] TO_FIRST = {TO_SIDE, FROM_SIDE}, FROM_FIRST = {FROM_SIDE, TO_SIDE};
+    private static final int MAX_RECORDED_CHECKS = 1 << 16;
+    private static final int ORDER_INTERVAL = 1 << 12;
     private final String from;
     private final String to;
     private final String typeName;
@@ -21,19 +28,64 @@ public class Constraint {
     private int minFrom, maxFrom, minTo, maxTo;
     private final DynamicRelationshipType type;
     private final Label toLabel, fromLabel;
+    // kernel token ids, only valid once resolved
+    private int fromLabelId = ANY_TOKEN, toLabelId = ANY_TOKEN, typeId = ANY_TOKEN;
+    private volatile boolean resolved;
+    private final Cost toCost, fromCost;
+    // property values the counted relationships must have, null for all relationships
+    private final SortedMap<String, Object> qualifier;
+    // outcomes of checks for the evaluation order, racy updates only lose a few counts
+    private int checks, failures;
 
     public Constraint(String from, String to, String typeName, Direction direction, int minFrom, int maxFrom, int minTo, int maxTo) {
+        this(from, to, typeName, direction, minFrom, maxFrom, minTo, maxTo, null);
+    }
+
+    /**
+     * @param qualifier property values the counted relationships must have, e.g. {@code current=true}, or null.
+     *                  Integral numbers are stored as Long and floating point numbers as Double, as they are encoded.
+     */
+    public Constraint(String from, String to, String typeName, Direction direction, int minFrom, int maxFrom, int minTo, int maxTo,
+                      Map<String, Object> qualifier) {
+        this.qualifier = qualifier == null || qualifier.isEmpty() ? null : normalize(qualifier);
         this.from = Strings.isBlank(from) ? NO_TYPE : from;
         this.fromLabel = Strings.isBlank(from) ? null : DynamicLabel.label(from);
         this.to = Strings.isBlank(to) ? NO_TYPE : to;
         this.toLabel = Strings.isBlank(to) ? null : DynamicLabel.label(to);
         this.typeName = typeName == null ? NO_TYPE : typeName;
-        this.type = typeName == null ? null : DynamicRelationshipType.withName(typeName);
+        this.type = Strings.isBlank(typeName) ? null : DynamicRelationshipType.withName(typeName);
         this.direction = direction == null ? Direction.BOTH : direction;
         this.minFrom = minFrom;
         this.maxFrom = maxFrom;
         this.minTo = minTo;
         this.maxTo = maxTo;
+        this.toCost = Cost.of(type, toLabel, this.qualifier != null);
+        this.fromCost = Cost.of(type, fromLabel, this.qualifier != null);
+    }
+
+    /**
+     * @return a copy of this constraint that only counts relationships with the qualifier's property values
+     */
+    Constraint qualify(Map<String, Object> qualifier) {
+        return new Constraint(from, to, typeName, direction, minFrom, maxFrom, minTo, maxTo, qualifier);
+    }
+
+    /**
+     * Cost class of counting the degree of one side, with a relative weight.
+     */
+    enum Cost {
+        DEGREE(1), TYPED_DEGREE(2), LABEL_SCAN(16); // also for scans reading relationship properties
+
+        final int weight;
+
+        Cost(int weight) {
+            this.weight = weight;
+        }
+
+        static Cost of(RelationshipType type, Label otherLabel, boolean qualified) {
+            if (otherLabel != null || qualified) return LABEL_SCAN;
+            return type == null ? DEGREE : TYPED_DEGREE;
+        }
     }
 
     public static int parseValue(String str, int defaultValue) {
@@ -54,29 +106,231 @@ public class Constraint {
     }
 
     public Result check(Node node) {
-        if (fromLabel == null || node.hasLabel(fromLabel)) {
-            int degree = toLabel == null ? getDegree(node, direction) : getDegreeWithOtherLabel(node, direction, toLabel);
-            Result result = Result.check(degree, minTo, maxTo);
+        return check(node, DegreeCounter.DEFAULT);
+    }
+
+    public Result check(Node node, DegreeCounter counter) {
+        return check(node, fromLabel == null || node.hasLabel(fromLabel), toLabel == null || node.hasLabel(toLabel), counter);
+    }
+
+    Result check(Node node, boolean isFrom, boolean isTo, DegreeCounter counter) {
+        boolean toFirst = toCost.weight <= fromCost.weight; // the cheaper side first
+        if (toFirst ? isFrom : isTo) {
+            Result result = checkSide(node, toFirst ? TO_SIDE : FROM_SIDE, counter);
             if (result != Result.OK) return result;
         }
-        if (toLabel == null || node.hasLabel(toLabel)) {
-            int degree = fromLabel == null ? getDegree(node, direction.reverse()) : getDegreeWithOtherLabel(node, direction.reverse(), fromLabel);
-            return Result.check(degree, minFrom, maxFrom);
+        if (toFirst ? isTo : isFrom) {
+            return checkSide(node, toFirst ? FROM_SIDE : TO_SIDE, counter);
         }
         return Result.OK;
     }
 
-    private int getDegree(Node node, Direction direction) {
-        return type == null ? node.getDegree(direction) : node.getDegree(type, direction);
+    private Result checkSide(Node node, int side, DegreeCounter counter) {
+        return Result.check(counter.count(this, side, node), getMin(side), getMax(side));
+    }
+
+    Result check(Node node, int[] delta) {
+        return check(node, delta, DegreeCounter.DEFAULT);
+    }
+
+    /**
+     * Checks only the sides whose degree change {@code delta} ({@link #TO_SIDE}, {@link #FROM_SIDE}) can cross a bound,
+     * assuming the node satisfied the constraint before the change.
+     */
+    Result check(Node node, int[] delta, DegreeCounter counter) {
+        int first = toCost.weight <= fromCost.weight ? TO_SIDE : FROM_SIDE;
+        for (int side : first == TO_SIDE ? TO_FIRST : FROM_FIRST) {
+            if (!mayCross(delta[side], getMin(side), getMax(side))) continue;
+            Result result = checkSide(node, side, counter);
+            if (result != Result.OK) return result;
+        }
+        return Result.OK;
+    }
+
+    /**
+     * Records the outcome of a check for the {@link #score() evaluation order}. The counts are halved once they
+     * grow large, so that the order adapts when the failure rate changes.
+     */
+    void recordCheck(boolean failed) {
+        if (++checks > MAX_RECORDED_CHECKS) {
+            checks >>= 1;
+            failures >>= 1;
+        }
+        if (failed) failures++;
+    }
+
+    /**
+     * @return the cost class of the more expensive side
+     */
+    Cost getCost() {
+        return toCost.weight >= fromCost.weight ? toCost : fromCost;
+    }
+
+    /**
+     * @return the estimated failure probability per cost, constraints with a higher score are checked first
+     */
+    double score() {
+        int checks = this.checks, failures = Math.min(this.failures, checks);
+        return (failures + 1d) / (checks + 2d) / getCost().weight;
+    }
+
+    private static boolean mayCross(int delta, int min, int max) {
+        if (delta > 0) return max != MANY_VALUE;
+        if (delta < 0) return min != MANY_VALUE && min > 0;
+        return false;
+    }
+
+    /**
+     * Adds the change of a single relationship, seen from a node with {@code labels} in {@code direction},
+     * to the per-side degree {@code delta}.
+     * @param otherLabels labels of the other node or null if they are not known
+     * @return false if the change can't be attributed because the other node's labels are unknown
+     */
+    boolean addDelta(int[] delta, Set<String> labels, Direction direction, Set<String> otherLabels, int change) {
+        if (isFrom(labels) && (this.direction == Direction.BOTH || this.direction == direction)) {
+            if (toLabel != null && otherLabels == null) return false;
+            if (toLabel == null || otherLabels.contains(to)) delta[TO_SIDE] += change;
+        }
+        if (isTo(labels) && (this.direction == Direction.BOTH || this.direction.reverse() == direction)) {
+            if (fromLabel != null && otherLabels == null) return false;
+            if (fromLabel == null || otherLabels.contains(from)) delta[FROM_SIDE] += change;
+        }
+        return true;
+    }
+
+    public boolean isQualified() {
+        return qualifier != null;
+    }
+
+    /**
+     * @return the property values the counted relationships must have, null if all are counted
+     */
+    public Map<String, Object> getQualifier() {
+        return qualifier;
     }
 
-    private int getDegreeWithOtherLabel(Node node, Direction direction, Label toLabel) {
-        int degree = 0;
-        Iterable<Relationship> relationships = type == null ? node.getRelationships(direction) : node.getRelationships(type, direction);
-        for (Relationship relationship : relationships) {
-            if (relationship.getOtherNode(node).hasLabel(toLabel)) degree++;
+    /**
+     * @return true if the relationship is counted, reads its properties only for qualified constraints
+     */
+    boolean accepts(Relationship relationship) {
+        if (qualifier == null) return true;
+        for (Map.Entry<String, Object> entry : qualifier.entrySet()) {
+            if (!valueEquals(entry.getValue(), relationship.getProperty(entry.getKey(), null))) return false;
         }
-        return degree;
+        return true;
+    }
+
+    /**
+     * @param properties all properties of a relationship
+     */
+    boolean accepts(Map<String, Object> properties) {
+        if (qualifier == null) return true;
+        for (Map.Entry<String, Object> entry : qualifier.entrySet()) {
+            if (properties == null || !valueEquals(entry.getValue(), properties.get(entry.getKey()))) return false;
+        }
+        return true;
+    }
+
+    private static SortedMap<String, Object> normalize(Map<String, Object> qualifier) {
+        SortedMap<String, Object> result = new TreeMap<>();
+        for (Map.Entry<String, Object> entry : qualifier.entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Integer || value instanceof Short || value instanceof Byte) value = ((Number) value).longValue();
+            else if (value instanceof Float) value = ((Float) value).doubleValue();
+            else if (value instanceof Character) value = value.toString();
+            else if (!(value instanceof Boolean || value instanceof Long || value instanceof Double || value instanceof String)) {
+                throw new IllegalArgumentException("Unsupported qualifier value " + entry.getKey() + ":" + value);
+            }
+            result.put(entry.getKey(), value);
+        }
+        return Collections.unmodifiableSortedMap(result);
+    }
+
+    /**
+     * Compares integral numbers by value, as properties may be stored as int or long.
+     */
+    private static boolean valueEquals(Object expected, Object value) {
+        if (value == null) return false;
+        if (expected instanceof Long && (value instanceof Integer || value instanceof Short || value instanceof Byte || value instanceof Long)) {
+            return ((Number) value).longValue() == (Long) expected;
+        }
+        if (expected instanceof Double && value instanceof Number) return ((Number) value).doubleValue() == (Double) expected;
+        return expected.equals(value);
+    }
+
+    public RelationshipType getType() {
+        return type;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public Label getFromLabel() {
+        return fromLabel;
+    }
+
+    public Label getToLabel() {
+        return toLabel;
+    }
+
+    /**
+     * @return the direction in which a node of this side sees the relationships it counts
+     */
+    Direction getDirection(int side) {
+        return side == TO_SIDE ? direction : direction.reverse();
+    }
+
+    /**
+     * @return the label the other node of the relationships counted for this side must have, or null
+     */
+    Label getOtherLabel(int side) {
+        return side == TO_SIDE ? toLabel : fromLabel;
+    }
+
+    /**
+     * Looks up the kernel ids of the labels and the type. Tokens that don't exist yet are looked up again
+     * on the next call, tokens never change once created.
+     * @return true if all ids are known
+     */
+    boolean resolve(ReadOperations tokens) {
+        if (resolved) return true;
+        int fromId = fromLabel == null ? ANY_TOKEN : tokens.labelGetForName(from);
+        int toId = toLabel == null ? ANY_TOKEN : tokens.labelGetForName(to);
+        int typeId = type == null ? ANY_TOKEN : tokens.relationshipTypeGetForName(typeName);
+        if (fromLabel != null && fromId < 0 || toLabel != null && toId < 0
+                || type != null && typeId < 0) return false;
+        this.fromLabelId = fromId;
+        this.toLabelId = toId;
+        this.typeId = typeId;
+        this.resolved = true;
+        return true;
+    }
+
+    boolean isResolved() {
+        return resolved;
+    }
+
+    /**
+     * @return the type id or {@link #ANY_TOKEN}, only valid if {@link #isResolved() resolved}
+     */
+    int getTypeId() {
+        return typeId;
+    }
+
+    /**
+     * @return id of {@link #getOtherLabel(int)} or {@link #ANY_TOKEN}, only valid if {@link #isResolved() resolved}
+     */
+    int getOtherLabelId(int side) {
+        return side == TO_SIDE ? toLabelId : fromLabelId;
+    }
+
+    int getMin(int side) {
+        return side == TO_SIDE ? minTo : minFrom;
+    }
+
+    int getMax(int side) {
+        return side == TO_SIDE ? maxTo : maxFrom;
     }
 
     public int intoArray(String[] data, int offset) {
@@ -101,37 +355,140 @@ public class Constraint {
                 minTo, parseValue(data[offset+7],minTo));
     }
 
-    @Override
-    public String toString() {
+    /**
+     * @return the pattern without the cardinalities, constraints with the same pattern count the same relationships
+     */
+    String pattern() {
         String left = direction == Direction.INCOMING ? "<" : "";
         String right = direction == Direction.OUTGOING ? ">" : "";
-        return "(:"+from+")"+left+"-[:"+ typeName +"]-"+right+"(:"+to+") OF "+minFrom+".."+maxFrom+":"+minTo+".."+maxTo;
+        return "(:"+from+")"+left+"-[:"+ typeName + qualifierString() +"]-"+right+"(:"+to+")";
+    }
+
+    private String qualifierString() {
+        if (qualifier == null) return "";
+        StringBuilder sb = new StringBuilder(" {");
+        for (Map.Entry<String, Object> entry : qualifier.entrySet()) {
+            if (sb.length() > 2) sb.append(", ");
+            sb.append(entry.getKey()).append(':');
+            if (entry.getValue() instanceof String) sb.append('"').append(((String) entry.getValue()).replace("\"", "\\\"")).append('"');
+            else sb.append(entry.getValue());
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * @return true if every degree allowed by this constraint's {@code side} is allowed by {@code other} as well
+     */
+    boolean implies(Constraint other, int side) {
+        int min = getMin(side), max = getMax(side), otherMin = other.getMin(side), otherMax = other.getMax(side);
+        boolean minImplied = otherMin == MANY_VALUE || min != MANY_VALUE && min >= otherMin;
+        boolean maxImplied = otherMax == MANY_VALUE || max != MANY_VALUE && max <= otherMax;
+        return minImplied && maxImplied;
+    }
+
+    @Override
+    public String toString() {
+        return pattern()+" OF "+minFrom+".."+maxFrom+":"+minTo+".."+maxTo;
     }
 
     static class Constraints {
         private final Set<String> labels;
         private final Set<String> types;
+        // replaced as a whole by order(), as checks read it without locking
+        private volatile Map<String, List<Constraint>> byLabel;
+        private final Map<Direction, Map<String, Map<String, List<Constraint>>>> byTypeAndLabel;
+        // qualifier property keys per relationship type name, NO_TYPE for constraints of any type
+        private final Map<String, Set<String>> qualifierKeys = new HashMap<>();
         private List<Constraint> constraints = new ArrayList<>();
+        // only snapshots reorder, as ordered lists can't be added to
+        private boolean ordered;
+        private int checksSinceOrdering;
 
         public Constraints(List<Constraint> constraints) {
             this.constraints = new ArrayList<>(constraints);
             this.labels = new HashSet<String>();
-            for (Constraint constraint : constraints) {
-                labels.add(constraint.from);
-                labels.add(constraint.to);
-            }
             this.types = new HashSet<String>();
+            this.byLabel = new HashMap<>();
+            this.byTypeAndLabel = new EnumMap<>(Direction.class);
             for (Constraint constraint : constraints) {
-                types.add(constraint.typeName);
+                index(constraint);
+            }
+        }
+
+        private void index(Constraint constraint) {
+            labels.add(constraint.from);
+            labels.add(constraint.to);
+            types.add(constraint.typeName);
+            addTo(byLabel, constraint.from, constraint);
+            if (!constraint.to.equals(constraint.from)) addTo(byLabel, constraint.to, constraint);
+            if (constraint.qualifier != null) {
+                Set<String> keys = qualifierKeys.get(constraint.typeName);
+                if (keys == null) qualifierKeys.put(constraint.typeName, keys = new HashSet<>());
+                keys.addAll(constraint.qualifier.keySet());
+            }
+            for (Direction direction : new Direction[]{Direction.OUTGOING, Direction.INCOMING}) {
+                // the from-node sees the relationship in the constraint's direction, the to-node in the reverse one
+                if (constraint.direction == Direction.BOTH || constraint.direction == direction) {
+                    addTo(typeIndex(direction, constraint.typeName), constraint.from, constraint);
+                }
+                if (constraint.direction == Direction.BOTH || constraint.direction.reverse() == direction) {
+                    addTo(typeIndex(direction, constraint.typeName), constraint.to, constraint);
+                }
+            }
+        }
+
+        private Map<String, List<Constraint>> typeIndex(Direction direction, String typeName) {
+            Map<String, Map<String, List<Constraint>>> byType = byTypeAndLabel.get(direction);
+            if (byType == null) {
+                byType = new HashMap<>();
+                byTypeAndLabel.put(direction, byType);
             }
+            Map<String, List<Constraint>> byLabel = byType.get(typeName);
+            if (byLabel == null) {
+                byLabel = new HashMap<>();
+                byType.put(typeName, byLabel);
+            }
+            return byLabel;
+        }
+
+        private static void addTo(Map<String, List<Constraint>> index, String key, Constraint constraint) {
+            List<Constraint> list = index.get(key);
+            if (list == null) {
+                list = new ArrayList<>(2);
+                index.put(key, list);
+            }
+            if (!list.contains(constraint)) list.add(constraint);
+        }
+
+        /**
+         * Finds the neighbours whose constrained degrees depend on a label of {@code node}, e.g. the people
+         * working for a node that became a company. They have to be checked when the label changes.
+         */
+        Collection<Node> dependents(Node node, Label label) {
+            if (!matches(label)) return Collections.emptyList();
+            Collection<Node> result = new ArrayList<>();
+            for (Relationship relationship : node.getRelationships()) {
+                if (!matches(relationship)) continue;
+                Node other = relationship.getOtherNode(node);
+                Direction direction = relationship.getStartNode().equals(other) ? Direction.OUTGOING : Direction.INCOMING;
+                if (matches(other, relationship.getType(), direction)) result.add(other);
+            }
+            return result;
+        }
+
+        static Set<String> labelNames(Node node) {
+            Set<String> result = new HashSet<>();
+            for (Label label : node.getLabels()) {
+                result.add(label.name());
+            }
+            return result;
         }
 
         public boolean matches(Node node) {
-            Iterator<Label> labels = node.getLabels().iterator();
-            if (!labels.hasNext()) return this.labels.contains(NO_TYPE);
-            while (labels.hasNext()) {
-                Label next = labels.next();
-                if (this.labels.contains(next.name())) return true;
+            Map<String, List<Constraint>> byLabel = this.byLabel;
+            if (byLabel.containsKey(NO_TYPE)) return true;
+            for (Label label : node.getLabels()) {
+                if (byLabel.containsKey(label.name())) return true;
             }
             return false;
         }
@@ -142,7 +499,83 @@ public class Constraint {
         }
 
         public boolean matches(Relationship relationship) {
-            return this.types.contains(relationship.getType().name());
+            return matches(relationship.getType());
+        }
+
+        public boolean matches(RelationshipType type) {
+            return this.types.contains(NO_TYPE) || this.types.contains(type.name());
+        }
+
+        /**
+         * @return true if a constraint only counts relationships with certain property values
+         */
+        public boolean hasQualified() {
+            return !qualifierKeys.isEmpty();
+        }
+
+        /**
+         * @return true if a constraint only counts relationships of this type with certain property values
+         */
+        public boolean hasQualified(RelationshipType type) {
+            return qualifierKeys.containsKey(type.name()) || qualifierKeys.containsKey(NO_TYPE);
+        }
+
+        /**
+         * @return true if changing this property of a relationship of this type can change a qualified count
+         */
+        public boolean isQualifying(RelationshipType type, String key) {
+            return contains(qualifierKeys.get(type.name()), key) || contains(qualifierKeys.get(NO_TYPE), key);
+        }
+
+        private static boolean contains(Set<String> keys, String key) {
+            return keys != null && keys.contains(key);
+        }
+
+        /**
+         * @param direction the direction in which the node sees the relationship
+         * @return true if a constraint of the node's labels covers relationships of this type and direction
+         */
+        public boolean matches(Node node, RelationshipType type, Direction direction) {
+            Map<String, Map<String, List<Constraint>>> byType = byTypeAndLabel.get(direction);
+            if (byType == null) return false;
+            Map<String, List<Constraint>> forType = byType.get(type.name());
+            Map<String, List<Constraint>> forAnyType = byType.get(NO_TYPE);
+            if (forType == null && forAnyType == null) return false;
+            if (containsKey(forType, NO_TYPE) || containsKey(forAnyType, NO_TYPE)) return true;
+            for (Label label : node.getLabels()) {
+                if (containsKey(forType, label.name()) || containsKey(forAnyType, label.name())) return true;
+            }
+            return false;
+        }
+
+        /**
+         * @param direction the direction in which the node sees the relationship
+         * @return the constraints of these labels that cover relationships of this type and direction
+         */
+        Collection<Constraint> candidates(Set<String> labels, RelationshipType type, Direction direction) {
+            Map<String, Map<String, List<Constraint>>> byType = byTypeAndLabel.get(direction);
+            if (byType == null) return Collections.emptyList();
+            Map<String, List<Constraint>> forType = byType.get(type.name());
+            Map<String, List<Constraint>> forAnyType = byType.get(NO_TYPE);
+            if (forType == null && forAnyType == null) return Collections.emptyList();
+            Collection<Constraint> result = new LinkedHashSet<>();
+            addAll(result, forType, NO_TYPE);
+            addAll(result, forAnyType, NO_TYPE);
+            for (String label : labels) {
+                addAll(result, forType, label);
+                addAll(result, forAnyType, label);
+            }
+            return result;
+        }
+
+        private static void addAll(Collection<Constraint> result, Map<String, List<Constraint>> index, String key) {
+            if (index == null) return;
+            List<Constraint> constraints = index.get(key);
+            if (constraints != null) result.addAll(constraints);
+        }
+
+        private static boolean containsKey(Map<String, ?> map, String key) {
+            return map != null && map.containsKey(key);
         }
 
         public String[] toArray() {
@@ -170,20 +603,125 @@ public class Constraint {
         }
 
         public Map<Constraint, Result> check(Node node) {
-            Map<Constraint,Result> errors = null;
-            for (Constraint constraint : constraints) {
-                if (!constraint.matches(node)) continue;
-                Result result = constraint.check(node);
-                if (result == Result.OK) continue;
-                if (errors==null) errors = new HashMap<>();
-                errors.put(constraint,result);
+            return check(node, DegreeCounter.DEFAULT);
+        }
+
+        public Map<Constraint, Result> check(Node node, DegreeCounter counter) {
+            return check(node, counter, false);
+        }
+
+        /**
+         * Checks the cheap and likely failing constraints first.
+         * @param failFast true to stop at the first violated constraint
+         */
+        public Map<Constraint, Result> check(Node node, DegreeCounter counter, boolean failFast) {
+            // runs for every node of a transaction, so the sets are reused
+            CheckBuffer buffer = CHECK_BUFFERS.get();
+            Set<String> labels = buffer.labels;
+            try {
+                for (Label label : node.getLabels()) labels.add(label.name());
+                Map<Constraint,Result> errors = null;
+                for (Constraint constraint : candidates(labels, buffer.candidates)) {
+                    Result result = constraint.check(node, constraint.isFrom(labels), constraint.isTo(labels), counter);
+                    constraint.recordCheck(result != Result.OK);
+                    if (result == Result.OK) continue;
+                    if (errors==null) errors = new HashMap<>();
+                    errors.put(constraint,result);
+                    if (failFast) break;
+                }
+                if (ordered && ++checksSinceOrdering > ORDER_INTERVAL) order();
+                return errors;
+            } finally {
+                labels.clear();
+                buffer.candidates.clear();
+            }
+        }
+
+        /**
+         * The label names and candidate constraints of the node a thread is checking.
+         */
+        private static class CheckBuffer {
+            private final Set<String> labels = new HashSet<>();
+            private final Set<Constraint> candidates = new LinkedHashSet<>();
+        }
+
+        private static final ThreadLocal<CheckBuffer> CHECK_BUFFERS = new ThreadLocal<CheckBuffer>() {
+            protected CheckBuffer initialValue() {
+                return new CheckBuffer();
+            }
+        };
+
+        /**
+         * Sorts the per-label lists by {@link Constraint#score()}. The index is copied and published as a whole, so
+         * that concurrent checks keep iterating over the previous order and never see a half-updated map.
+         */
+        synchronized void order() {
+            checksSinceOrdering = 0;
+            Map<String, List<Constraint>> ordered = new HashMap<>(byLabel);
+            for (Map.Entry<String, List<Constraint>> entry : ordered.entrySet()) {
+                if (entry.getValue().size() < 2) continue;
+                final Map<Constraint, Double> scores = new IdentityHashMap<>();
+                for (Constraint constraint : entry.getValue()) scores.put(constraint, constraint.score());
+                List<Constraint> sorted = new ArrayList<>(entry.getValue());
+                Collections.sort(sorted, new Comparator<Constraint>() {
+                    public int compare(Constraint c1, Constraint c2) {
+                        return Double.compare(scores.get(c2), scores.get(c1));
+                    }
+                });
+                entry.setValue(Collections.unmodifiableList(sorted));
+            }
+            byLabel = Collections.unmodifiableMap(ordered);
+        }
+
+        Collection<Constraint> candidates(Set<String> labels) {
+            return candidates(labels, new LinkedHashSet<Constraint>());
+        }
+
+        /**
+         * @param result an empty set to collect the candidates of several labels in
+         */
+        private Collection<Constraint> candidates(Set<String> labels, Set<Constraint> result) {
+            Map<String, List<Constraint>> byLabel = this.byLabel;
+            List<Constraint> unlabeled = byLabel.get(NO_TYPE);
+            if (unlabeled == null && labels.size() == 1) { // the common case needs no copy
+                List<Constraint> forLabel = byLabel.get(labels.iterator().next());
+                return forLabel == null ? Collections.<Constraint>emptyList() : forLabel;
             }
-            return errors;
+            if (unlabeled != null) result.addAll(unlabeled);
+            for (String label : labels) {
+                List<Constraint> forLabel = byLabel.get(label);
+                if (forLabel != null) result.addAll(forLabel);
+            }
+            return result;
         }
 
         public void add(Constraint constraint) {
             this.constraints.add(constraint);
+            index(constraint);
         }
+
+        List<Constraint> all() {
+            return constraints;
+        }
+
+        /**
+         * @return a snapshot that orders its constraints by their observed outcomes
+         */
+        public Constraints unmodifiable() {
+            Constraints result = new Constraints(constraints);
+            result.constraints = Collections.unmodifiableList(result.constraints);
+            result.ordered = true;
+            result.order();
+            return result;
+        }
+    }
+
+    boolean isFrom(Set<String> labels) {
+        return fromLabel == null || labels.contains(from);
+    }
+
+    boolean isTo(Set<String> labels) {
+        return toLabel == null || labels.contains(to);
     }
 
     public boolean matches(Node node) {
@@ -0,0 +1,432 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.graphdb.schema.ConstraintCreator;
+import org.neo4j.graphdb.schema.IndexCreator;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+import org.neo4j.unsafe.batchinsert.BatchRelationship;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * Batch inserter that counts the constrained degrees while inserting and validates all constrained nodes in one
+ * pass at the end, as transaction event handlers don't see batch inserts.
+ * <p>
+ * The counts are kept off-heap per node and constraint side, only for nodes that have the label of that side, the
+ * constrained labels of a node are interned as label sets. Memory is thus bounded by the number of constrained
+ * nodes, not by the number of relationships. Relabeling a node that already has relationships re-counts them.
+ * Relationships are only counted for {@link Constraint#isQualified qualified} constraints whose properties they
+ * match, changing a qualifying property re-counts the relationship. When opened on a non-empty store the existing
+ * graph is counted first with one pass over the nodes.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ConstraintBatchInserter implements BatchInserter {
+    public static final int DEFAULT_MAX_REPORTED = 100;
+    private static final int INITIAL_CAPACITY = 1 << 16;
+
+    private final BatchInserter inserter;
+    private final Constraint.Constraints constraints;
+    private final Map<Constraint, Integer> slots = new IdentityHashMap<>();
+    private final int slotsPerNode;
+    private final boolean unlabeled;
+    // node id -> id of its constrained label set, only for nodes with constrained labels
+    private final OffHeapLongIntMap labelSets = new OffHeapLongIntMap(INITIAL_CAPACITY);
+    private final List<Set<String>> labelSetsById = new ArrayList<>();
+    private final Map<Set<String>, Integer> labelSetIds = new HashMap<>();
+    // node id * slots per node + slot -> degree
+    private final OffHeapLongIntMap degrees = new OffHeapLongIntMap(INITIAL_CAPACITY);
+    private final int[] delta = new int[2];
+    private long highestNodeId = -1;
+
+    public ConstraintBatchInserter(BatchInserter inserter, Constraint.Constraints constraints) {
+        this.inserter = inserter;
+        this.constraints = constraints;
+        List<Constraint> all = constraints.all();
+        for (int i = 0; i < all.size(); i++) slots.put(all.get(i), i * 2);
+        this.slotsPerNode = all.size() * 2;
+        this.labelSetId(Collections.<String>emptySet());
+        this.unlabeled = !constraints.candidates(Collections.<String>emptySet()).isEmpty();
+    }
+
+    /**
+     * Reads the stored constraints and opens a batch inserter on the store. The nodes and relationships already in
+     * the store are counted first, so that inserts into a non-empty store are validated against the whole graph.
+     * The degree counters of the store are deleted, as they don't see the inserts, they are rebuilt on the next start.
+     */
+    public static ConstraintBatchInserter open(String storeDir) {
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(storeDir);
+        Constraint.Constraints constraints;
+        long highestNodeId;
+        try {
+            constraints = new ConstraintPersister(db).restore();
+            highestNodeId = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(NodeManager.class).getHighestPossibleIdInUse(Node.class);
+        } finally {
+            db.shutdown();
+        }
+        new File(storeDir, DegreeCountStore.FILE_NAME).delete();
+        ConstraintBatchInserter inserter = new ConstraintBatchInserter(BatchInserters.inserter(storeDir), constraints);
+        inserter.seed(highestNodeId);
+        return inserter;
+    }
+
+    /**
+     * Reads the constraints stored by the {@link ConstraintPersister}, has to be called before the batch inserter
+     * is opened on the store.
+     */
+    public static Constraint.Constraints readConstraints(String storeDir) {
+        GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(storeDir);
+        try {
+            return new ConstraintPersister(db).restore();
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    /**
+     * Counts the existing nodes up to {@code highestNodeId}: first the labels of all nodes, then each relationship
+     * once from its start node.
+     */
+    void seed(long highestNodeId) {
+        highestNodeId = Math.max(this.highestNodeId, highestNodeId);
+        if (constraints.isEmpty()) return;
+        for (long nodeId = 0; nodeId <= highestNodeId; nodeId++) {
+            if (!inserter.nodeExists(nodeId)) continue;
+            List<Label> labels = new ArrayList<>();
+            for (Label label : inserter.getNodeLabels(nodeId)) labels.add(label);
+            setLabels(nodeId, labels.toArray(new Label[labels.size()]));
+        }
+        this.highestNodeId = highestNodeId;
+        for (long nodeId = 0; nodeId <= highestNodeId; nodeId++) {
+            if (!inserter.nodeExists(nodeId)) continue;
+            for (BatchRelationship relationship : inserter.getRelationships(nodeId)) {
+                if (relationship.getStartNode() == nodeId && constraints.matches(relationship.getType())) count(relationship, 1);
+            }
+        }
+    }
+
+    /**
+     * Checks all constrained nodes against the counted degrees.
+     */
+    public Report validate(int maxReported) {
+        final Report report = new Report(maxReported);
+        if (unlabeled) {
+            for (long nodeId = 0; nodeId <= highestNodeId; nodeId++) {
+                if (!labelSets.containsKey(nodeId) && inserter.nodeExists(nodeId)) validate(nodeId, 0, report);
+            }
+        }
+        labelSets.visit(new OffHeapLongIntMap.Visitor() {
+            public void visit(long nodeId, int labelSet) {
+                if (labelSet != 0 || unlabeled) validate(nodeId, labelSet, report);
+            }
+        });
+        return report;
+    }
+
+    private void validate(long nodeId, int labelSet, Report report) {
+        Set<String> labels = labelSetsById.get(labelSet);
+        Map<Constraint, Result> errors = null;
+        for (Constraint constraint : constraints.candidates(labels)) {
+            Result result = Result.OK;
+            if (constraint.isFrom(labels)) result = check(nodeId, constraint, Constraint.TO_SIDE);
+            if (result == Result.OK && constraint.isTo(labels)) result = check(nodeId, constraint, Constraint.FROM_SIDE);
+            if (result == Result.OK) continue;
+            if (errors == null) errors = new HashMap<>();
+            errors.put(constraint, result);
+        }
+        report.checked(nodeId, errors);
+    }
+
+    private Result check(long nodeId, Constraint constraint, int side) {
+        return Result.check(degree(nodeId, constraint, side), constraint.getMin(side), constraint.getMax(side));
+    }
+
+    Constraint.Constraints getConstraints() {
+        return constraints;
+    }
+
+    int degree(long nodeId, Constraint constraint, int side) {
+        return degrees.get(key(nodeId, slots.get(constraint) + side), 0);
+    }
+
+    private long key(long nodeId, int slot) {
+        return nodeId * slotsPerNode + slot;
+    }
+
+    private int labelSetId(Set<String> labels) {
+        Integer id = labelSetIds.get(labels);
+        if (id == null) {
+            id = labelSetsById.size();
+            labelSetsById.add(labels);
+            labelSetIds.put(labels, id);
+        }
+        return id;
+    }
+
+    private Set<String> labels(long nodeId) {
+        return labelSetsById.get(labelSets.get(nodeId, 0));
+    }
+
+    private void setLabels(long nodeId, Label... labels) {
+        highestNodeId = Math.max(highestNodeId, nodeId);
+        Set<String> constrained = new HashSet<>();
+        for (Label label : labels) {
+            if (constraints.matches(label)) constrained.add(label.name());
+        }
+        if (!constrained.isEmpty() || labelSets.containsKey(nodeId)) labelSets.put(nodeId, labelSetId(constrained));
+    }
+
+    /**
+     * Adds the relationship to the degrees of {@code nodeId}, which sees it in {@code direction}.
+     */
+    private void count(long nodeId, Set<String> labels, Direction direction, Set<String> otherLabels, RelationshipType type,
+                       Map<String, Object> properties, int change) {
+        if (labels.isEmpty() && !unlabeled) return;
+        for (Constraint constraint : constraints.candidates(labels, type, direction)) {
+            if (!constraint.accepts(properties)) continue;
+            delta[Constraint.TO_SIDE] = delta[Constraint.FROM_SIDE] = 0;
+            constraint.addDelta(delta, labels, direction, otherLabels, change);
+            int slot = slots.get(constraint);
+            if (delta[Constraint.TO_SIDE] != 0) degrees.add(key(nodeId, slot + Constraint.TO_SIDE), delta[Constraint.TO_SIDE]);
+            if (delta[Constraint.FROM_SIDE] != 0) degrees.add(key(nodeId, slot + Constraint.FROM_SIDE), delta[Constraint.FROM_SIDE]);
+        }
+    }
+
+    private void count(long startNode, long endNode, RelationshipType type, Map<String, Object> properties, int change) {
+        if (!constraints.matches(type)) return;
+        Set<String> startLabels = labels(startNode), endLabels = labels(endNode);
+        count(startNode, startLabels, Direction.OUTGOING, endLabels, type, properties, change);
+        count(endNode, endLabels, Direction.INCOMING, startLabels, type, properties, change);
+    }
+
+    private void count(BatchRelationship relationship, int change) {
+        RelationshipType type = relationship.getType();
+        Map<String, Object> properties = constraints.hasQualified(type) ? inserter.getRelationshipProperties(relationship.getId()) : null;
+        count(relationship.getStartNode(), relationship.getEndNode(), type, properties, change);
+    }
+
+    /**
+     * @return the relationship if changing the property can change a qualified count, it is then un-counted
+     */
+    private BatchRelationship uncountQualifying(long relationship, String key) {
+        if (!constraints.hasQualified()) return null;
+        BatchRelationship rel = inserter.getRelationshipById(relationship);
+        if (!constraints.isQualifying(rel.getType(), key)) return null;
+        count(rel, -1);
+        return rel;
+    }
+
+    @Override
+    public long createNode(Map<String, Object> properties, Label... labels) {
+        long id = inserter.createNode(properties, labels);
+        setLabels(id, labels);
+        return id;
+    }
+
+    @Override
+    public void createNode(long id, Map<String, Object> properties, Label... labels) {
+        inserter.createNode(id, properties, labels);
+        setLabels(id, labels);
+    }
+
+    /**
+     * Re-counts the relationships of the node with its new labels, for itself and its neighbours.
+     */
+    @Override
+    public void setNodeLabels(long node, Label... labels) {
+        List<BatchRelationship> relationships = new ArrayList<>();
+        for (BatchRelationship relationship : inserter.getRelationships(node)) {
+            if (constraints.matches(relationship.getType())) relationships.add(relationship);
+        }
+        for (BatchRelationship relationship : relationships) count(relationship, -1);
+        inserter.setNodeLabels(node, labels);
+        setLabels(node, labels);
+        for (BatchRelationship relationship : relationships) count(relationship, 1);
+    }
+
+    @Override
+    public long createRelationship(long node1, long node2, RelationshipType type, Map<String, Object> properties) {
+        long id = inserter.createRelationship(node1, node2, type, properties);
+        count(node1, node2, type, properties, 1);
+        return id;
+    }
+
+    /**
+     * Shuts down the batch inserter and frees the counts, {@link #validate} has to be called before.
+     */
+    @Override
+    public void shutdown() {
+        try {
+            inserter.shutdown();
+        } finally {
+            labelSets.close();
+            degrees.close();
+        }
+    }
+
+    @Override
+    public boolean nodeExists(long nodeId) {
+        return inserter.nodeExists(nodeId);
+    }
+
+    @Override
+    public void setNodeProperties(long node, Map<String, Object> properties) {
+        inserter.setNodeProperties(node, properties);
+    }
+
+    @Override
+    public boolean nodeHasProperty(long node, String propertyName) {
+        return inserter.nodeHasProperty(node, propertyName);
+    }
+
+    @Override
+    public Iterable<Label> getNodeLabels(long node) {
+        return inserter.getNodeLabels(node);
+    }
+
+    @Override
+    public boolean nodeHasLabel(long node, Label label) {
+        return inserter.nodeHasLabel(node, label);
+    }
+
+    @Override
+    public boolean relationshipHasProperty(long relationship, String propertyName) {
+        return inserter.relationshipHasProperty(relationship, propertyName);
+    }
+
+    @Override
+    public void setNodeProperty(long node, String propertyName, Object propertyValue) {
+        inserter.setNodeProperty(node, propertyName, propertyValue);
+    }
+
+    @Override
+    public void setRelationshipProperty(long relationship, String propertyName, Object propertyValue) {
+        BatchRelationship rel = uncountQualifying(relationship, propertyName);
+        inserter.setRelationshipProperty(relationship, propertyName, propertyValue);
+        if (rel != null) count(rel, 1);
+    }
+
+    @Override
+    public Map<String, Object> getNodeProperties(long nodeId) {
+        return inserter.getNodeProperties(nodeId);
+    }
+
+    @Override
+    public Iterable<Long> getRelationshipIds(long nodeId) {
+        return inserter.getRelationshipIds(nodeId);
+    }
+
+    @Override
+    public Iterable<BatchRelationship> getRelationships(long nodeId) {
+        return inserter.getRelationships(nodeId);
+    }
+
+    @Override
+    public BatchRelationship getRelationshipById(long relId) {
+        return inserter.getRelationshipById(relId);
+    }
+
+    @Override
+    public void setRelationshipProperties(long rel, Map<String, Object> properties) {
+        if (!constraints.hasQualified()) {
+            inserter.setRelationshipProperties(rel, properties);
+            return;
+        }
+        BatchRelationship relationship = inserter.getRelationshipById(rel);
+        count(relationship, -1);
+        inserter.setRelationshipProperties(rel, properties);
+        count(relationship, 1);
+    }
+
+    @Override
+    public Map<String, Object> getRelationshipProperties(long relId) {
+        return inserter.getRelationshipProperties(relId);
+    }
+
+    @Override
+    public void removeNodeProperty(long node, String property) {
+        inserter.removeNodeProperty(node, property);
+    }
+
+    @Override
+    public void removeRelationshipProperty(long relationship, String property) {
+        BatchRelationship rel = uncountQualifying(relationship, property);
+        inserter.removeRelationshipProperty(relationship, property);
+        if (rel != null) count(rel, 1);
+    }
+
+    @Override
+    public IndexCreator createDeferredSchemaIndex(Label label) {
+        return inserter.createDeferredSchemaIndex(label);
+    }
+
+    @Override
+    public ConstraintCreator createDeferredConstraint(Label label) {
+        return inserter.createDeferredConstraint(label);
+    }
+
+    @Override
+    public String getStoreDir() {
+        return inserter.getStoreDir();
+    }
+
+    /**
+     * Number of checked and violating nodes, with the violations of the first nodes.
+     */
+    public static class Report {
+        private final int maxReported;
+        private final Map<Long, Map<Constraint, Result>> violations = new LinkedHashMap<>();
+        private long checked, violating;
+
+        private Report(int maxReported) {
+            this.maxReported = maxReported;
+        }
+
+        private void checked(long nodeId, Map<Constraint, Result> errors) {
+            checked++;
+            if (errors == null) return;
+            violating++;
+            if (violations.size() < maxReported) violations.put(nodeId, errors);
+        }
+
+        public long getChecked() {
+            return checked;
+        }
+
+        public long getViolating() {
+            return violating;
+        }
+
+        /**
+         * @return violations by node id, for at most {@code maxReported} nodes
+         */
+        public Map<Long, Map<Constraint, Result>> getViolations() {
+            return violations;
+        }
+
+        public boolean isValid() {
+            return violating == 0;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder(checked + " nodes checked, " + violating + " violate constraints");
+            for (Map.Entry<Long, Map<Constraint, Result>> entry : violations.entrySet()) {
+                sb.append("\nNode ").append(entry.getKey()).append(" violates ").append(entry.getValue());
+            }
+            if (violating > violations.size()) sb.append("\n...");
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,189 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.Direction;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Binary encoding of a constraint set as stored in the graph property. Labels and types are stored as token ids,
+ * cardinalities as var-ints, behind a header with magic, format version and a CRC32 of the body:
+ * <pre>
+ * header: short magic, byte format version, int crc32
+ * body:   varint count, per constraint: varint from label, varint to label, varint type, byte direction,
+ *         varint minFrom, maxFrom, minTo, maxTo, varint qualifier count,
+ *         per qualifier property: varint key length, UTF-8 key, byte value tag, value
+ * </pre>
+ * Token ids and cardinalities are stored plus one, so that 0 means no label, any type or many. Format version 1
+ * has no qualifiers and is still read.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ConstraintCodec {
+    public static final short MAGIC = 0x434E; // CN
+    public static final byte FORMAT_VERSION = 2;
+    private static final byte UNQUALIFIED_VERSION = 1;
+    private static final byte FALSE = 0, TRUE = 1, LONG = 2, DOUBLE = 3, STRING = 4;
+    private static final int HEADER_SIZE = 7;
+    private static final Direction[] DIRECTIONS = Direction.values();
+
+    /**
+     * Maps label and relationship type names to token ids and back.
+     */
+    public interface Tokens {
+        int labelId(String name);
+
+        String labelName(int id);
+
+        int typeId(String name);
+
+        String typeName(int id);
+    }
+
+    private final Tokens tokens;
+
+    public ConstraintCodec(Tokens tokens) {
+        this.tokens = tokens;
+    }
+
+    public static boolean isEncoded(Object value) {
+        if (!(value instanceof byte[])) return false;
+        byte[] data = (byte[]) value;
+        return data.length >= HEADER_SIZE && ByteBuffer.wrap(data).getShort() == MAGIC;
+    }
+
+    public byte[] encode(Constraint.Constraints constraints) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        List<Constraint> all = constraints.all();
+        writeVarInt(body, all.size());
+        String[] fields = new String[Constraint.SIZE];
+        for (Constraint constraint : all) {
+            constraint.intoArray(fields, 0);
+            writeVarInt(body, fields[0].isEmpty() ? 0 : tokens.labelId(fields[0]) + 1);
+            writeVarInt(body, fields[1].isEmpty() ? 0 : tokens.labelId(fields[1]) + 1);
+            writeVarInt(body, fields[2].isEmpty() ? 0 : tokens.typeId(fields[2]) + 1);
+            body.write(constraint.getDirection().ordinal());
+            for (int i = 4; i < Constraint.SIZE; i++) {
+                writeVarInt(body, Integer.parseInt(fields[i]) + 1);
+            }
+            writeQualifier(body, constraint.getQualifier());
+        }
+        byte[] bytes = body.toByteArray();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bytes.length);
+        buffer.putShort(MAGIC).put(FORMAT_VERSION).putInt(crc(bytes, 0, bytes.length)).put(bytes);
+        return buffer.array();
+    }
+
+    public Constraint.Constraints decode(byte[] data) {
+        if (!isEncoded(data)) throw new IllegalArgumentException("Not an encoded constraint set");
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.getShort();
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION && version != UNQUALIFIED_VERSION) throw new IllegalArgumentException("Unsupported constraint format version " + version);
+        int crc = buffer.getInt();
+        if (crc != crc(data, HEADER_SIZE, data.length - HEADER_SIZE)) throw new IllegalArgumentException("Corrupt constraint data, checksum mismatch");
+
+        int count = readVarInt(buffer);
+        List<Constraint> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int from = readVarInt(buffer), to = readVarInt(buffer), type = readVarInt(buffer);
+            Direction direction = DIRECTIONS[buffer.get()];
+            int minFrom = readVarInt(buffer) - 1, maxFrom = readVarInt(buffer) - 1;
+            int minTo = readVarInt(buffer) - 1, maxTo = readVarInt(buffer) - 1;
+            Map<String, Object> qualifier = version == UNQUALIFIED_VERSION ? null : readQualifier(buffer);
+            result.add(new Constraint(from == 0 ? null : tokens.labelName(from - 1), to == 0 ? null : tokens.labelName(to - 1),
+                    type == 0 ? null : tokens.typeName(type - 1), direction, minFrom, maxFrom, minTo, maxTo, qualifier));
+        }
+        return new Constraint.Constraints(result);
+    }
+
+    private static void writeQualifier(ByteArrayOutputStream out, Map<String, Object> qualifier) {
+        if (qualifier == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, qualifier.size());
+        for (Map.Entry<String, Object> entry : qualifier.entrySet()) {
+            writeString(out, entry.getKey());
+            Object value = entry.getValue();
+            if (value instanceof Boolean) {
+                out.write((Boolean) value ? TRUE : FALSE);
+            } else if (value instanceof Long) {
+                out.write(LONG);
+                writeLong(out, (Long) value);
+            } else if (value instanceof Double) {
+                out.write(DOUBLE);
+                writeLong(out, Double.doubleToLongBits((Double) value));
+            } else {
+                // the constraint normalized all other values to strings
+                out.write(STRING);
+                writeString(out, (String) value);
+            }
+        }
+    }
+
+    private static Map<String, Object> readQualifier(ByteBuffer buffer) {
+        int count = readVarInt(buffer);
+        if (count == 0) return null;
+        Map<String, Object> qualifier = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            String key = readString(buffer);
+            byte tag = buffer.get();
+            switch (tag) {
+                case FALSE: qualifier.put(key, Boolean.FALSE); break;
+                case TRUE: qualifier.put(key, Boolean.TRUE); break;
+                case LONG: qualifier.put(key, buffer.getLong()); break;
+                case DOUBLE: qualifier.put(key, Double.longBitsToDouble(buffer.getLong())); break;
+                case STRING: qualifier.put(key, readString(buffer)); break;
+                default: throw new IllegalArgumentException("Unknown qualifier value type " + tag);
+            }
+        }
+        return qualifier;
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[readVarInt(buffer)];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeLong(ByteArrayOutputStream out, long value) {
+        for (int shift = 56; shift >= 0; shift -= 8) out.write((int) (value >>> shift));
+    }
+
+    private static int crc(byte[] data, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarInt(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+    }
+}
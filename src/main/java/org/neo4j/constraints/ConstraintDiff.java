@@ -0,0 +1,124 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.Label;
+
+import java.util.*;
+
+/**
+ * Compares two constraint sets and works out the minimal revalidation of the existing data, assuming it satisfies
+ * the constraints before the change. Removed constraints and sides that are implied by a constraint with the same
+ * pattern before the change, e.g. loosened bounds, need no validation. Only the sides of added or tightened
+ * constraints are revalidated, each for the nodes of its label only.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ConstraintDiff {
+    private final List<Constraint> added = new ArrayList<>();
+    private final List<Constraint> removed = new ArrayList<>();
+    private final List<Constraint> unchanged = new ArrayList<>();
+    private final List<Revalidation> revalidations = new ArrayList<>();
+
+    private ConstraintDiff() {
+    }
+
+    public static ConstraintDiff of(Constraint.Constraints before, Constraint.Constraints after) {
+        ConstraintDiff diff = new ConstraintDiff();
+        Map<String, Constraint> previous = new LinkedHashMap<>();
+        Map<String, List<Constraint>> byPattern = new HashMap<>();
+        for (Constraint constraint : before.all()) {
+            previous.put(constraint.toString(), constraint);
+            List<Constraint> same = byPattern.get(constraint.pattern());
+            if (same == null) byPattern.put(constraint.pattern(), same = new ArrayList<>(1));
+            same.add(constraint);
+        }
+        for (Constraint constraint : after.all()) {
+            if (previous.remove(constraint.toString()) != null) {
+                diff.unchanged.add(constraint);
+                continue;
+            }
+            diff.added.add(constraint);
+            List<Constraint> same = byPattern.get(constraint.pattern());
+            for (int side : new int[]{Constraint.TO_SIDE, Constraint.FROM_SIDE}) {
+                if (!isImplied(same, constraint, side)) diff.revalidations.add(new Revalidation(constraint, side));
+            }
+        }
+        diff.removed.addAll(previous.values());
+        return diff;
+    }
+
+    private static boolean isImplied(List<Constraint> before, Constraint constraint, int side) {
+        int min = constraint.getMin(side), max = constraint.getMax(side);
+        if (min <= 0 && max == Constraint.MANY_VALUE) return true; // the side allows any degree
+        if (before == null) return false;
+        for (Constraint previous : before) {
+            if (previous.implies(constraint, side)) return true;
+        }
+        return false;
+    }
+
+    public List<Constraint> getAdded() {
+        return Collections.unmodifiableList(added);
+    }
+
+    public List<Constraint> getRemoved() {
+        return Collections.unmodifiableList(removed);
+    }
+
+    public List<Constraint> getUnchanged() {
+        return Collections.unmodifiableList(unchanged);
+    }
+
+    /**
+     * @return the constraint sides the existing data has to be validated against
+     */
+    public List<Revalidation> getRevalidations() {
+        return Collections.unmodifiableList(revalidations);
+    }
+
+    @Override
+    public String toString() {
+        return added.size() + " added, " + removed.size() + " removed, " + unchanged.size() + " unchanged, "
+                + revalidations.size() + " sides to revalidate";
+    }
+
+    /**
+     * One side of a constraint to validate, for the nodes with the label of that side.
+     */
+    public static class Revalidation {
+        private final Constraint constraint;
+        private final int side;
+
+        private Revalidation(Constraint constraint, int side) {
+            this.constraint = constraint;
+            this.side = side;
+        }
+
+        public Constraint getConstraint() {
+            return constraint;
+        }
+
+        int getSide() {
+            return side;
+        }
+
+        /**
+         * @return true if the relationships to the to-label of the from-label nodes are checked
+         */
+        public boolean isToSide() {
+            return side == Constraint.TO_SIDE;
+        }
+
+        /**
+         * @return the label of the nodes to check or null for all nodes
+         */
+        public Label getLabel() {
+            return isToSide() ? constraint.getFromLabel() : constraint.getToLabel();
+        }
+
+        @Override
+        public String toString() {
+            return constraint + " for (:" + (getLabel() == null ? "" : getLabel().name()) + ")";
+        }
+    }
+}
@@ -1,20 +1,48 @@
 package org.neo4j.constraints;
 
 import org.neo4j.constraints.Constraint.Result;
-import org.neo4j.graphdb.ConstraintViolationException;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
-import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.event.TransactionData;
 import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.helpers.NamedThreadFactory;
+import org.neo4j.kernel.AvailabilityGuard;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.configuration.Config;
 import org.neo4j.kernel.extension.KernelExtensionFactory;
+import org.neo4j.kernel.extension.KernelExtensions;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.kernel.impl.util.StringLogger;
 import org.neo4j.kernel.lifecycle.Lifecycle;
+import org.neo4j.kernel.logging.Logging;
 
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author mh
@@ -27,21 +55,115 @@ public class ConstraintExtensionFactory extends KernelExtensionFactory<Constrain
 
     public interface Dependencies {
         GraphDatabaseService getGraphDatabase();
+        Config getConfig();
+        Logging getLogging();
+    }
+
+    @Override
+    public Class getSettingsClass() {
+        return ConstraintSettings.class;
     }
 
     @Override
     public Lifecycle newKernelExtension(Dependencies deps) throws Throwable {
-        return new ConstraintExtension(deps.getGraphDatabase());
+        return new ConstraintExtension(deps.getGraphDatabase(), deps.getConfig(), deps.getLogging().getMessagesLog(ConstraintExtension.class));
     }
 
-    private static class ConstraintExtension implements Lifecycle, TransactionEventHandler<Object> {
+    static ConstraintExtension extension(GraphDatabaseAPI db) {
+        return db.getDependencyResolver().resolveDependency(KernelExtensions.class).resolveDependency(ConstraintExtension.class);
+    }
+
+    static class ConstraintExtension implements Lifecycle, TransactionEventHandler<Object> {
+        // larger per-thread id buffers are dropped after use instead of being kept around
+        private static final int MAX_RETAINED_NODE_IDS = 1 << 16;
+        private static final long REBUILD_BACKOFF_MILLIS = 1000, MAX_REBUILD_BACKOFF_MILLIS = 60000;
+
         private final GraphDatabaseService graphDatabase;
+        private final NodeManager nodeManager;
         private final ConstraintPersister persister;
-        private Constraint.Constraints constraints;
+        private final boolean incrementalCheck;
+        private final boolean degreeCounters;
+        private final DegreeCounter counter;
+        // for validations outside of the commit path, which should not show up in the metrics
+        private final DegreeCounter backgroundCounter;
+        private final int parallelCheckThreshold;
+        private final int parallelCheckThreads;
+        private final int maxViolations;
+        private final int maxReportedViolations;
+        private final boolean failFast;
+        private final EnforcementMode enforcement;
+        private final int asyncValidationThreads;
+        private final int asyncValidationQueueSize;
+        private final int violationLogSize;
+        private final NodeLocks nodeLocks;
+        private final StringLogger logger;
+        private final ConstraintMetrics metrics;
+        private final AtomicBoolean rebuildScheduled = new AtomicBoolean();
+        // a failed rebuild of the degree counts is retried after a growing pause, not on the next commit
+        private volatile long rebuildAfter;
+        private long rebuildBackoff = REBUILD_BACKOFF_MILLIS;
+        private final List<ViolationListener> violationListeners = new CopyOnWriteArrayList<>();
+        private final LabelCounts labelCounts = new LabelCounts();
+        private final ThreadLocal<PrimitiveLongSet> nodeIdBuffer = new ThreadLocal<PrimitiveLongSet>() {
+            protected PrimitiveLongSet initialValue() {
+                return Primitive.longSet();
+            }
+        };
+        private DegreeCountStore degreeCountStore;
+        private ExecutorService rebuilder;
+        private ForkJoinPool checkPool;
+        private ParallelChecker parallelChecker;
+        private ViolationLog violationLog;
+        private AsyncValidator asyncValidator;
+        private ObjectName metricsName;
+        // stored constraints can only be migrated once the database accepts transactions
+        private final AvailabilityGuard.AvailabilityListener migration = new AvailabilityGuard.AvailabilityListener() {
+            public void available() {
+                if (persister.migrate()) logger.info("Migrated constraints to format version " + ConstraintCodec.FORMAT_VERSION);
+            }
+
+            public void unavailable() {
+            }
+        };
+        // the label counts are scanned once the database accepts transactions, commits changing counted labels wait for it
+        private final AvailabilityGuard.AvailabilityListener counting = new AvailabilityGuard.AvailabilityListener() {
+            public void available() {
+                try {
+                    countLabels();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (RuntimeException e) {
+                    logger.error("Could not count the labels of count constraints", e);
+                }
+            }
+
+            public void unavailable() {
+            }
+        };
 
-        public ConstraintExtension(GraphDatabaseService graphDatabase) {
+        public ConstraintExtension(GraphDatabaseService graphDatabase, Config config, StringLogger logger) {
             this.graphDatabase = graphDatabase;
+            this.nodeManager = ((GraphDatabaseAPI) graphDatabase).getDependencyResolver().resolveDependency(NodeManager.class);
             this.persister = new ConstraintPersister(graphDatabase);
+            this.incrementalCheck = config.get(ConstraintSettings.incremental_check);
+            this.degreeCounters = config.get(ConstraintSettings.degree_counters);
+            this.metrics = config.get(ConstraintSettings.metrics) ? new ConstraintMetrics() : null;
+            ThreadToStatementContextBridge statements = ((GraphDatabaseAPI) graphDatabase).getDependencyResolver().resolveDependency(ThreadToStatementContextBridge.class);
+            this.counter = new DegreeCounter(config.get(ConstraintSettings.dense_node_threshold), metrics, statements);
+            this.backgroundCounter = new DegreeCounter(config.get(ConstraintSettings.dense_node_threshold), null, statements);
+            this.parallelCheckThreshold = config.get(ConstraintSettings.parallel_check_threshold);
+            this.parallelCheckThreads = config.get(ConstraintSettings.parallel_check_threads);
+            this.maxViolations = config.get(ConstraintSettings.max_violations);
+            this.maxReportedViolations = config.get(ConstraintSettings.max_reported_violations);
+            this.enforcement = config.get(ConstraintSettings.enforcement);
+            // only a rejected transaction doesn't need all of its violations
+            this.failFast = config.get(ConstraintSettings.fail_fast) && enforcement == EnforcementMode.ENFORCE;
+            this.asyncValidationThreads = config.get(ConstraintSettings.async_validation_threads);
+            this.asyncValidationQueueSize = config.get(ConstraintSettings.async_validation_queue_size);
+            this.violationLogSize = config.get(ConstraintSettings.violation_log_size);
+            int lockStripes = config.get(ConstraintSettings.lock_stripes);
+            this.nodeLocks = lockStripes > 0 ? new NodeLocks(lockStripes, config.get(ConstraintSettings.lock_timeout)) : null;
+            this.logger = logger;
         }
 
         @Override
@@ -50,12 +172,281 @@ public class ConstraintExtensionFactory extends KernelExtensionFactory<Constrain
 
         @Override
         public void start() throws Throwable {
+            File storeDir = new File(((GraphDatabaseAPI) graphDatabase).getStoreDir());
+            violationLog = new ViolationLog(violationLogSize, storeDir.isDirectory() ? new File(storeDir, ViolationLog.FILE_NAME) : null);
+            if (enforcement == EnforcementMode.ASYNC_VALIDATE) {
+                asyncValidator = new AsyncValidator(graphDatabase, persister, backgroundCounter, violationLog, violationListeners,
+                        asyncValidationThreads, asyncValidationQueueSize);
+                if (metrics != null) metrics.setAsyncValidator(asyncValidator);
+            }
+            if (degreeCounters) {
+                degreeCountStore = DegreeCountStore.open(storeDir);
+                rebuilder = Executors.newSingleThreadExecutor(new NamedThreadFactory("constraint-degree-rebuild"));
+            }
+            if (parallelCheckThreshold > 0) {
+                checkPool = parallelCheckThreads > 0 ? new ForkJoinPool(parallelCheckThreads) : new ForkJoinPool();
+                parallelChecker = new ParallelChecker(graphDatabase, checkPool, counter, failFast ? 1 : maxViolations);
+            }
+            if (metrics != null) registerMetrics(storeDir);
+            availabilityGuard().addListener(migration);
+            availabilityGuard().addListener(counting);
             graphDatabase.registerTransactionEventHandler(this);
         }
 
+        private AvailabilityGuard availabilityGuard() {
+            return ((GraphDatabaseAPI) graphDatabase).getDependencyResolver().resolveDependency(AvailabilityGuard.class);
+        }
+
+        private void registerMetrics(File storeDir) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            String name = "org.neo4j.constraints:type=ConstraintMetrics,store=" + ObjectName.quote(storeDir.getAbsolutePath());
+            try {
+                // several databases of one JVM can share a store dir path, e.g. impermanent ones
+                for (int i = 1; server.isRegistered(new ObjectName(name)); i++) {
+                    name = "org.neo4j.constraints:type=ConstraintMetrics,store=" + ObjectName.quote(storeDir.getAbsolutePath() + "#" + i);
+                }
+                metricsName = new ObjectName(name);
+                server.registerMBean(metrics, metricsName);
+            } catch (JMException e) {
+                logger.warn("Could not register constraint metrics as " + name, e);
+                metricsName = null;
+            }
+        }
+
         @Override
         public void stop() throws Throwable {
             graphDatabase.unregisterTransactionEventHandler(this);
+            availabilityGuard().removeListener(migration);
+            availabilityGuard().removeListener(counting);
+            if (metricsName != null) {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+                metricsName = null;
+            }
+            if (asyncValidator != null) {
+                asyncValidator.shutdown();
+                asyncValidator = null;
+            }
+            if (checkPool != null) {
+                checkPool.shutdown();
+                checkPool = null;
+                parallelChecker = null;
+            }
+            if (degreeCountStore != null) {
+                rebuilder.shutdownNow();
+                rebuilder.awaitTermination(1, TimeUnit.MINUTES);
+                degreeCountStore.close();
+                degreeCountStore = null;
+            }
+            violationLog.close();
+        }
+
+        /**
+         * Recounts the stored degree counters, e.g. after a restore from backup.
+         * @return false if degree counters are disabled or the rebuild was disturbed by concurrent commits
+         */
+        public boolean rebuildDegreeCounts() {
+            return rebuildDegreeCounts(true);
+        }
+
+        private boolean rebuildDegreeCounts(boolean force) {
+            if (degreeCountStore == null) return false;
+            Constraint.Constraints constraints;
+            try (Transaction tx = graphDatabase.beginTx()) {
+                constraints = persister.current();
+                tx.success();
+            }
+            return degreeCountStore.rebuild(graphDatabase, constraints, force);
+        }
+
+        /**
+         * Checks the existing data against the given constraints, see {@link GraphValidator}.
+         * @return number of violating nodes
+         */
+        public long validate(Constraint.Constraints constraints, GraphValidator.Listener listener) throws InterruptedException {
+            return new GraphValidator(graphDatabase, backgroundCounter, parallelCheckThreads).validate(constraints, listener);
+        }
+
+        /**
+         * Adds a constraint after validating the existing data against it. On violations the constraint is either
+         * rejected or stored as pending, pending constraints are not enforced until {@link #validatePending} succeeds.
+         * @return true if the constraint was activated
+         */
+        public synchronized boolean addConstraint(Constraint constraint, boolean pendingOnViolation, GraphValidator.Listener listener) throws InterruptedException {
+            Constraint.Constraints constraints = persister.restore();
+            long violations = revalidate(ConstraintDiff.of(constraints, with(constraints, constraint)), listener);
+            if (violations == 0) {
+                constraints.add(constraint);
+                persister.persist(constraints);
+                return true;
+            }
+            if (pendingOnViolation) {
+                Constraint.Constraints pending = persister.restorePending();
+                pending.add(constraint);
+                persister.persistPending(pending);
+            }
+            return false;
+        }
+
+        /**
+         * Adds a property constraint after checking the existing nodes of its label or relationships of its type.
+         * @return number of violating nodes or relationships, the constraint is only added if there are none
+         */
+        public synchronized long addPropertyConstraint(PropertyConstraint constraint) {
+            long violations = constraint.countViolations(graphDatabase);
+            if (violations == 0) persister.persistProperties(persister.restoreProperties().with(constraint));
+            return violations;
+        }
+
+        /**
+         * Adds a path constraint after checking the existing start and end nodes.
+         * @return number of violating nodes, the constraint is only added if there are none
+         */
+        public synchronized long addPathConstraint(PathConstraint constraint) {
+            long violations = constraint.countViolations(graphDatabase);
+            if (violations == 0) persister.persistPaths(persister.restorePaths().with(constraint));
+            return violations;
+        }
+
+        /**
+         * Adds a count constraint after counting the nodes of its label.
+         * @return the number of nodes with the label, the constraint is only added if it is within the bounds
+         */
+        public synchronized long addCountConstraint(CountConstraint constraint) throws InterruptedException {
+            CountConstraint.Constraints counts = persister.restoreCounts();
+            Set<String> labels = new HashSet<>(counts.labels());
+            labels.add(constraint.getLabel().name());
+            labelCounts.initialize(graphDatabase, labels, parallelCheckThreads);
+            long count = labelCounts.count(constraint.getLabel().name());
+            if (count < 0) throw new IllegalStateException("Could not count the nodes with label " + constraint.getLabel().name());
+            if (constraint.check(count) == Result.OK) {
+                persister.persistCounts(counts.with(constraint));
+            } else {
+                labelCounts.initialize(graphDatabase, counts.labels(), parallelCheckThreads); // stop counting the label
+            }
+            return count;
+        }
+
+        /**
+         * Counts the labels of the stored count constraints, synchronized with {@link #addCountConstraint} so that
+         * the startup count can't drop the counter of a constraint that is being added.
+         */
+        private synchronized void countLabels() throws InterruptedException {
+            labelCounts.initialize(graphDatabase, persister.restoreCounts().labels(), parallelCheckThreads);
+        }
+
+        /**
+         * Loads a constraint file, see {@link ConstraintLoader}. The added constraints are validated against the
+         * existing data together, the diff is only stored, with a single persist, if there are no violations.
+         * @param replace true if stored constraints missing in the file are removed
+         */
+        public synchronized ConstraintLoader.Diff load(Reader reader, boolean replace, GraphValidator.Listener listener) throws IOException, InterruptedException {
+            Constraint.Constraints stored = persister.restore();
+            ConstraintLoader.Diff diff = ConstraintLoader.diff(stored, ConstraintLoader.read(reader), replace);
+            if (!diff.isChanged()) return diff;
+            Constraint.Constraints result = diff.result();
+            long violations = revalidate(ConstraintDiff.of(stored, result), listener);
+            if (violations > 0) return diff.rejected(violations);
+            persister.persist(result);
+            return diff;
+        }
+
+        /**
+         * Validates the existing data against the constraint sides that a change adds or tightens, see
+         * {@link ConstraintDiff}, all sides in one pass. Removed and loosened constraints need no validation.
+         * @return number of violating nodes, 0 if the change can be applied
+         */
+        public long revalidate(ConstraintDiff diff, GraphValidator.Listener listener) throws InterruptedException {
+            return new GraphValidator(graphDatabase, backgroundCounter, parallelCheckThreads).validate(diff.getRevalidations(), listener);
+        }
+
+        private static Constraint.Constraints with(Constraint.Constraints constraints, Constraint constraint) {
+            List<Constraint> result = new ArrayList<>(constraints.all());
+            result.add(constraint);
+            return new Constraint.Constraints(result);
+        }
+
+        /**
+         * Validates the existing data against each pending constraint and activates the ones without violations.
+         * @return number of constraints that are still pending
+         */
+        public synchronized int validatePending(GraphValidator.Listener listener) throws InterruptedException {
+            Constraint.Constraints constraints = persister.restore();
+            int active = constraints.all().size();
+            List<Constraint> stillPending = new ArrayList<>();
+            for (Constraint constraint : persister.restorePending().all()) {
+                if (revalidate(ConstraintDiff.of(constraints, with(constraints, constraint)), listener) == 0) {
+                    constraints.add(constraint);
+                } else {
+                    stillPending.add(constraint);
+                }
+            }
+            if (constraints.all().size() > active) {
+                persister.persistPending(new Constraint.Constraints(stillPending));
+                persister.persist(constraints);
+            }
+            return stillPending.size();
+        }
+
+        /**
+         * @return the commit-path metrics or null if disabled
+         */
+        public ConstraintMetrics getMetrics() {
+            return metrics;
+        }
+
+        public ViolationLog getViolationLog() {
+            return violationLog;
+        }
+
+        public LabelCounts getLabelCounts() {
+            return labelCounts;
+        }
+
+        /**
+         * Registers a listener for all violations found in committing transactions or by the async validation.
+         */
+        public void addViolationListener(ViolationListener listener) {
+            violationListeners.add(listener);
+        }
+
+        public void removeViolationListener(ViolationListener listener) {
+            violationListeners.remove(listener);
+        }
+
+        /**
+         * @return true if all committed transactions were validated within the timeout, always true if not in
+         * {@link EnforcementMode#ASYNC_VALIDATE} mode
+         */
+        public boolean awaitValidation(long timeout, TimeUnit unit) throws InterruptedException {
+            return asyncValidator == null || asyncValidator.awaitIdle(timeout, unit);
+        }
+
+        DegreeCountStore getDegreeCountStore() {
+            return degreeCountStore;
+        }
+
+        private DegreeCounter degreeCounter(Constraint.Constraints constraints, TransactionData transactionData) {
+            // async validation doesn't count on the committing thread
+            DegreeCounter counter = enforcement == EnforcementMode.ASYNC_VALIDATE ? this.counter : this.counter.forTransaction(constraints, transactionData);
+            if (degreeCountStore == null) return counter;
+            // while the counts are invalid the changes are still collected, so that a rebuild can catch up with them
+            if (!degreeCountStore.isValidFor(constraints) && System.currentTimeMillis() >= rebuildAfter && rebuildScheduled.compareAndSet(false, true)) {
+                rebuilder.submit(new Runnable() {
+                    public void run() {
+                        try {
+                            if (rebuildDegreeCounts(false)) {
+                                rebuildBackoff = REBUILD_BACKOFF_MILLIS;
+                            } else {
+                                rebuildAfter = System.currentTimeMillis() + rebuildBackoff;
+                                rebuildBackoff = Math.min(rebuildBackoff * 2, MAX_REBUILD_BACKOFF_MILLIS);
+                            }
+                        } finally {
+                            rebuildScheduled.set(false);
+                        }
+                    }
+                });
+            }
+            return StoredDegreeCounter.collect(counter, degreeCountStore, transactionData);
         }
 
         @Override
@@ -63,68 +454,229 @@ public class ConstraintExtensionFactory extends KernelExtensionFactory<Constrain
 
         @Override
         public Object beforeCommit(TransactionData transactionData) throws Exception {
-            if (isGraphPropertyChange(transactionData)) return null;
-            this.constraints = persister.restore();
+            // async validation only collects what to check after the commit
+            AsyncValidator.Deferred deferred = enforcement == EnforcementMode.ASYNC_VALIDATE ? new AsyncValidator.Deferred() : null;
+            LabelCounts.Reservation counts = reserveCounts(transactionData, deferred);
+            try {
+                Commit commit = check(transactionData, deferred);
+                if (counts == null && (deferred == null || deferred.isEmpty())) return commit;
+                if (commit == null) commit = new Commit(null, null);
+                commit.counts = counts;
+                commit.deferred = deferred;
+                return commit;
+            } catch (Exception e) {
+                if (counts != null) counts.discard(); // afterRollback is not called for the handler that failed
+                throw e;
+            }
+        }
+
+        /**
+         * Reserves the label count changes of the transaction, which are checked first as they don't read the graph.
+         * @return null if the transaction doesn't change labels
+         */
+        private LabelCounts.Reservation reserveCounts(TransactionData transactionData, AsyncValidator.Deferred deferred) {
+            if (!LabelCounts.hasLabelChanges(transactionData)) return null;
+            List<CountConstraint.Violation> violations = new ArrayList<>();
+            LabelCounts.Reservation reservation = labelCounts.reserve(persister.currentCounts(), transactionData,
+                    enforcement != EnforcementMode.ENFORCE, violations);
+            if (deferred != null) {
+                deferred.counts.addAll(violations);
+            } else {
+                report("count", violations);
+            }
+            return reservation;
+        }
+
+        private Commit check(TransactionData transactionData, AsyncValidator.Deferred deferred) {
+            boolean structural = TransactionClassifier.hasStructuralChanges(transactionData);
+            if (structural || TransactionClassifier.hasPropertyChanges(transactionData)) {
+                PropertyConstraint.Constraints properties = persister.currentProperties();
+                if (deferred != null) {
+                    if (!properties.isEmpty()) properties.collect(transactionData, deferred.propertyNodes, deferred.propertyRelationships);
+                } else if (!properties.isEmpty()) {
+                    report("property", properties.check(transactionData));
+                }
+            }
+            if (structural) {
+                PathConstraint.Constraints paths = persister.currentPaths();
+                if (deferred != null) {
+                    if (!paths.isEmpty()) paths.collect(transactionData, deferred.pathNodes);
+                } else if (!paths.isEmpty()) {
+                    report("path", paths.check(transactionData));
+                }
+            } else if (!TransactionClassifier.hasRelationshipPropertyChanges(transactionData)) {
+                return null;
+            }
+            long start = ConstraintMetrics.nanos();
+            Constraint.Constraints constraints = persister.current();
+            if (metrics != null) metrics.constraintsLoaded(start);
             if (constraints.isEmpty()) return null;
+            // only qualified constraints count relationship properties
+            if (!structural && !constraints.hasQualified()) return null;
+            try {
+                return check(constraints, transactionData);
+            } finally {
+                if (metrics != null) metrics.commitChecked(start);
+            }
+        }
 
-            Set<Node> nodesToCheck = collectNodesToCheck(transactionData);
+        /**
+         * Passes the violations to the listeners, then rejects the transaction with a report of the first ones in
+         * {@link EnforcementMode#ENFORCE} mode, otherwise records them in the violation log and warns.
+         */
+        private void report(String kind, Collection<? extends ConstraintViolation> violations) {
+            if (violations.isEmpty()) return;
+            boolean reject = enforcement == EnforcementMode.ENFORCE;
+            ViolationReport report = ViolationReport.of(kind, violations, maxReportedViolations, violationListeners, reject);
+            if (reject) throw new ViolationReportException(report);
+            violationLog.log(violations);
+            logger.warn("Committing " + report);
+        }
+
+        private Commit check(Constraint.Constraints constraints, TransactionData transactionData) {
+            PrimitiveLongSet nodeIds = nodeIdBuffer.get();
+            try {
+                long start = ConstraintMetrics.nanos();
+                boolean relevant = TransactionClassifier.classify(constraints, transactionData, nodeIds);
+                if (metrics != null) metrics.nodesCollected(start, nodeIds.size());
+                if (!relevant) return null;
+                DegreeCounter counter = degreeCounter(constraints, transactionData);
+                if (enforcement == EnforcementMode.ASYNC_VALIDATE) {
+                    return new Commit(counter, toArray(nodeIds)).begin();
+                }
+                return check(constraints, transactionData, nodeIds, counter);
+            } finally {
+                release(nodeIds);
+            }
+        }
 
-            Map<Node, Map<Constraint, Result>> errors = checkConstraints(nodesToCheck);
-            if (!errors.isEmpty()) {
-                throw new ConstraintViolationException("Nodes violated cardinality constraints:\n"+errors);
+        private Commit check(Constraint.Constraints constraints, TransactionData transactionData, PrimitiveLongSet nodeIds, DegreeCounter counter) {
+            Commit commit = new Commit(counter, null);
+            try {
+                commit.lock(nodeIds.iterator());
+                Map<Node, Map<Constraint, Result>> errors;
+                if (incrementalCheck) {
+                    errors = DegreeDeltas.collect(constraints, transactionData, counter).check(failFast);
+                } else if (parallelChecker != null && nodeIds.size() >= parallelCheckThreshold && !constraints.hasQualified()) {
+                    // the worker threads can't see the transaction's relationship properties
+                    errors = parallelChecker.check(constraints, nodeIds, transactionData);
+                } else {
+                    errors = checkConstraints(constraints, nodeIds, counter);
+                }
+                if (!errors.isEmpty()) {
+                    if (metrics != null) recordViolations(errors);
+                    boolean reject = enforcement == EnforcementMode.ENFORCE;
+                    ViolationReport report = ViolationReport.of(errors, counter, maxReportedViolations, violationListeners, reject);
+                    if (reject) throw new CardinalityViolationException(report);
+                    logger.warn("Committing nodes that violate cardinality constraints: " + report);
+                    for (Map.Entry<Node, Map<Constraint, Result>> entry : errors.entrySet()) {
+                        violationLog.log(entry.getKey(), entry.getValue());
+                    }
+                }
+                return commit.begin();
+            } catch (RuntimeException e) {
+                // afterRollback is not called for the handler that failed
+                if (commit.counter != null) commit.counter.discard();
+                commit.release();
+                throw e;
             }
-            return null;
         }
 
-        private boolean isGraphPropertyChange(TransactionData transactionData) {
-            return
-               (isEmpty(transactionData.deletedNodes()) &&
-                isEmpty(transactionData.deletedNodes()) &&
-                isEmpty(transactionData.assignedLabels()) &&
-                isEmpty(transactionData.removedLabels()) &&
-                isEmpty(transactionData.deletedRelationships()) &&
-                isEmpty(transactionData.createdRelationships()));
+        private void recordViolations(Map<Node, Map<Constraint, Result>> errors) {
+            for (Map<Constraint, Result> nodeErrors : errors.values()) {
+                for (Constraint constraint : nodeErrors.keySet()) metrics.violation(constraint);
+            }
         }
 
-        private boolean isEmpty(Iterable<?> iterable) {
-            return !iterable.iterator().hasNext();
+        private static long[] toArray(PrimitiveLongSet nodeIds) {
+            long[] result = new long[nodeIds.size()];
+            int i = 0;
+            for (PrimitiveLongIterator it = nodeIds.iterator(); it.hasNext(); ) result[i++] = it.next();
+            return result;
         }
 
-        private Map<Node, Map<Constraint, Result>> checkConstraints(Set<Node> nodesToCheck) {
-            Map<Node,Map<Constraint,Result>> errors = new HashMap<>();
-            for (Node node : nodesToCheck) {
-                Map<Constraint, Result> result = constraints.check(node);
+        private Map<Node, Map<Constraint, Result>> checkConstraints(Constraint.Constraints constraints, PrimitiveLongSet nodeIds, DegreeCounter counter) {
+            Map<Node,Map<Constraint,Result>> errors = null;
+            // in id order, neighbouring records are read together
+            long[] ids = toArray(nodeIds);
+            Arrays.sort(ids);
+            for (long id : ids) {
+                // proxies are only handles on the id, no lookup is done for them
+                Node node = nodeManager.newNodeProxyById(id);
+                Map<Constraint, Result> result = constraints.check(node, counter, failFast);
                 if (result == null) continue;
+                if (errors == null) errors = new HashMap<>();
                 errors.put(node,result);
+                if (failFast) break;
             }
-            return errors;
+            return errors == null ? Collections.<Node, Map<Constraint, Result>>emptyMap() : errors;
         }
 
-        private Set<Node> collectNodesToCheck(TransactionData transactionData) {
-            Set<Node> nodesToCheck = new HashSet<>();
-            for (Node node : transactionData.createdNodes()) if (constraints.matches(node)) nodesToCheck.add(node);
-            for (Node node : transactionData.deletedNodes()) if (constraints.matches(node)) nodesToCheck.add(node);
-            for (LabelEntry entry : transactionData.assignedLabels()) if (constraints.matches(entry.label()) && constraints.matches(entry.node())) nodesToCheck.add(entry.node());
-            for (LabelEntry entry : transactionData.removedLabels()) if (constraints.matches(entry.label()) && constraints.matches(entry.node())) nodesToCheck.add(entry.node());
-            for (Relationship rel : transactionData.createdRelationships()) {
-                if (constraints.matches(rel.getStartNode())) nodesToCheck.add(rel.getStartNode());
-                if (constraints.matches(rel.getEndNode())) nodesToCheck.add(rel.getEndNode());
-            }
-            for (Relationship rel : transactionData.deletedRelationships()) {
-                if (constraints.matches(rel.getStartNode())) nodesToCheck.add(rel.getStartNode());
-                if (constraints.matches(rel.getEndNode())) nodesToCheck.add(rel.getEndNode());
+        private void release(PrimitiveLongSet nodeIds) {
+            if (nodeIds.size() > MAX_RETAINED_NODE_IDS) {
+                nodeIds.close();
+                nodeIdBuffer.remove();
+            } else {
+                nodeIds.clear();
             }
-            return nodesToCheck;
         }
 
         @Override
-        public void afterCommit(TransactionData transactionData, Object o) {
-
+        public void afterCommit(TransactionData transactionData, Object state) {
+            if (state == null) return;
+            Commit commit = (Commit) state;
+            // the node stripes guard the stored degrees, so they are released only after the counts moved on
+            try {
+                if (commit.counts != null) commit.counts.apply();
+                if (commit.counter != null) commit.counter.apply();
+            } finally {
+                commit.release();
+            }
+            if (commit.nodeIds != null && commit.nodeIds.length > 0) asyncValidator.submit(commit.nodeIds);
+            if (commit.deferred != null) asyncValidator.submit(commit.deferred);
         }
 
         @Override
-        public void afterRollback(TransactionData transactionData, Object o) {
+        public void afterRollback(TransactionData transactionData, Object state) {
+            if (state == null) return;
+            Commit commit = (Commit) state;
+            try {
+                if (commit.counts != null) commit.counts.discard();
+                if (commit.counter != null) commit.counter.discard();
+            } finally {
+                commit.release();
+            }
+        }
+
+        /**
+         * State handed from beforeCommit to afterCommit: degree counter changes to apply, node ids to validate,
+         * the locks on the checked nodes, the reserved label counts and the deferred checks of async validation.
+         */
+        private class Commit {
+            private final StoredDegreeCounter counter;
+            private final long[] nodeIds;
+            private NodeLocks.Lock lock;
+            private LabelCounts.Reservation counts;
+            private AsyncValidator.Deferred deferred;
+
+            private Commit(DegreeCounter counter, long[] nodeIds) {
+                this.counter = counter instanceof StoredDegreeCounter ? (StoredDegreeCounter) counter : null;
+                this.nodeIds = nodeIds;
+            }
+
+            private void lock(PrimitiveLongIterator nodeIds) {
+                if (nodeLocks != null) lock = nodeLocks.lock(nodeIds);
+            }
 
+            private Commit begin() {
+                if (counter == null && nodeIds == null && lock == null) return null;
+                if (counter != null) counter.begin();
+                return this;
+            }
+
+            private void release() {
+                if (lock != null) lock.release();
+            }
         }
     }
 }
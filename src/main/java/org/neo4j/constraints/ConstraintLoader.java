@@ -0,0 +1,114 @@
+package org.neo4j.constraints;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.*;
+
+/**
+ * Reads constraint files with one pattern per line and computes their difference to the stored constraints.
+ * Blank lines and lines starting with {@code //} are ignored, duplicates are only kept once.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ConstraintLoader {
+    public static final String COMMENT = "//";
+
+    /**
+     * Parses the constraints line by line, without reading the whole file into memory.
+     * @throws ConstraintParser.ParseException with the line number in the message and the column as position
+     */
+    public static List<Constraint> read(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        Map<String, Constraint> constraints = new LinkedHashMap<>();
+        String line;
+        int lineNo = 0;
+        while ((line = lines.readLine()) != null) {
+            lineNo++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith(COMMENT)) continue;
+            try {
+                Constraint constraint = ConstraintParser.parse(line);
+                String key = constraint.toString();
+                if (!constraints.containsKey(key)) constraints.put(key, constraint);
+            } catch (ConstraintParser.ParseException e) {
+                throw new ConstraintParser.ParseException("Line " + lineNo + ": " + e.getMessage(), e, e.getPosition());
+            }
+        }
+        return new ArrayList<>(constraints.values());
+    }
+
+    /**
+     * @param replace true if stored constraints missing in the loaded ones are removed, otherwise they are kept
+     */
+    public static Diff diff(Constraint.Constraints stored, Collection<Constraint> loaded, boolean replace) {
+        Map<String, Constraint> added = new LinkedHashMap<>();
+        for (Constraint constraint : loaded) {
+            added.put(constraint.toString(), constraint);
+        }
+        List<Constraint> removed = new ArrayList<>(), unchanged = new ArrayList<>();
+        for (Constraint constraint : stored.all()) { // keeps the stored order, which the degree counters depend on
+            boolean found = added.remove(constraint.toString()) != null;
+            if (found || !replace) unchanged.add(constraint);
+            else removed.add(constraint);
+        }
+        return new Diff(new ArrayList<>(added.values()), removed, unchanged, 0);
+    }
+
+    public static class Diff {
+        private final List<Constraint> added;
+        private final List<Constraint> removed;
+        private final List<Constraint> unchanged;
+        private final long violations;
+
+        private Diff(List<Constraint> added, List<Constraint> removed, List<Constraint> unchanged, long violations) {
+            this.added = Collections.unmodifiableList(added);
+            this.removed = Collections.unmodifiableList(removed);
+            this.unchanged = Collections.unmodifiableList(unchanged);
+            this.violations = violations;
+        }
+
+        Diff rejected(long violations) {
+            return new Diff(added, removed, unchanged, violations);
+        }
+
+        public List<Constraint> getAdded() {
+            return added;
+        }
+
+        public List<Constraint> getRemoved() {
+            return removed;
+        }
+
+        public List<Constraint> getUnchanged() {
+            return unchanged;
+        }
+
+        /**
+         * @return number of nodes violating the added constraints, the diff was not applied if non-zero
+         */
+        public long getViolations() {
+            return violations;
+        }
+
+        public boolean isChanged() {
+            return !added.isEmpty() || !removed.isEmpty();
+        }
+
+        /**
+         * @return the stored constraints after applying this diff
+         */
+        public Constraint.Constraints result() {
+            List<Constraint> result = new ArrayList<>(unchanged.size() + added.size());
+            result.addAll(unchanged);
+            result.addAll(added);
+            return new Constraint.Constraints(result);
+        }
+
+        @Override
+        public String toString() {
+            return added.size() + " added, " + removed.size() + " removed, " + unchanged.size() + " unchanged";
+        }
+    }
+}
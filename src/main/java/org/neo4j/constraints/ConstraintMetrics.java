@@ -0,0 +1,247 @@
+package org.neo4j.constraints;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and histograms of the work done on the commit path. Counters are striped by thread to avoid contention
+ * between committing threads, histograms use power-of-two buckets. Degree counts are recorded per constraint, so
+ * a single expensive constraint stands out in {@link #getConstraints()}.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ConstraintMetrics implements ConstraintMetricsMBean {
+    private static final int MAX_INSTANCES = 1024;
+
+    private final Histogram commitCheckTime = new Histogram();
+    private final Histogram constraintLoadTime = new Histogram();
+    private final Histogram collectTime = new Histogram();
+    private final Histogram nodesPerTransaction = new Histogram();
+    private final StripedCounter relationshipsScanned = new StripedCounter();
+    private final StripedCounter violations = new StripedCounter();
+    private final ConcurrentMap<String, ConstraintStats> byPattern = new ConcurrentHashMap<>();
+    // constraint instances of the current and earlier snapshots, Constraint has identity equality
+    private final ConcurrentMap<Constraint, ConstraintStats> byInstance = new ConcurrentHashMap<>();
+    private volatile AsyncValidator asyncValidator;
+
+    static long nanos() {
+        return System.nanoTime();
+    }
+
+    void constraintsLoaded(long startNanos) {
+        constraintLoadTime.record(nanos() - startNanos);
+    }
+
+    void nodesCollected(long startNanos, int nodes) {
+        collectTime.record(nanos() - startNanos);
+        nodesPerTransaction.record(nodes);
+    }
+
+    void commitChecked(long startNanos) {
+        commitCheckTime.record(nanos() - startNanos);
+    }
+
+    void setAsyncValidator(AsyncValidator asyncValidator) {
+        this.asyncValidator = asyncValidator;
+    }
+
+    void relationshipsScanned(int count) {
+        if (count > 0) relationshipsScanned.add(count);
+    }
+
+    void degreeCounted(Constraint constraint, long startNanos) {
+        stats(constraint).time.record(nanos() - startNanos);
+    }
+
+    void violation(Constraint constraint) {
+        violations.add(1);
+        stats(constraint).violations.add(1);
+    }
+
+    private ConstraintStats stats(Constraint constraint) {
+        ConstraintStats stats = byInstance.get(constraint);
+        if (stats != null) return stats;
+        String pattern = constraint.toString();
+        stats = byPattern.get(pattern);
+        if (stats == null) {
+            ConstraintStats existing = byPattern.putIfAbsent(pattern, stats = new ConstraintStats(pattern));
+            if (existing != null) stats = existing;
+        }
+        if (byInstance.size() > MAX_INSTANCES) byInstance.clear();
+        byInstance.put(constraint, stats);
+        return stats;
+    }
+
+    @Override
+    public long getTransactions() {
+        return commitCheckTime.count();
+    }
+
+    @Override
+    public long getNodesChecked() {
+        return nodesPerTransaction.sum();
+    }
+
+    @Override
+    public long getRelationshipsScanned() {
+        return relationshipsScanned.get();
+    }
+
+    @Override
+    public long getViolations() {
+        return violations.get();
+    }
+
+    @Override
+    public String getCommitCheckTime() {
+        return commitCheckTime.summary(1000);
+    }
+
+    @Override
+    public String getConstraintLoadTime() {
+        return constraintLoadTime.summary(1000);
+    }
+
+    @Override
+    public String getCollectTime() {
+        return collectTime.summary(1000);
+    }
+
+    @Override
+    public String getNodesPerTransaction() {
+        return nodesPerTransaction.summary(1);
+    }
+
+    @Override
+    public int getAsyncBacklog() {
+        AsyncValidator validator = asyncValidator;
+        return validator == null ? 0 : validator.getBacklog();
+    }
+
+    @Override
+    public long getAsyncWaits() {
+        AsyncValidator validator = asyncValidator;
+        return validator == null ? 0 : validator.getWaits();
+    }
+
+    @Override
+    public long getAsyncDropped() {
+        AsyncValidator validator = asyncValidator;
+        return validator == null ? 0 : validator.getDropped();
+    }
+
+    @Override
+    public String[] getConstraints() {
+        List<ConstraintStats> stats = new ArrayList<>(byPattern.values());
+        Collections.sort(stats, new Comparator<ConstraintStats>() {
+            public int compare(ConstraintStats a, ConstraintStats b) {
+                return Long.compare(b.time.sum(), a.time.sum());
+            }
+        });
+        String[] result = new String[stats.size()];
+        for (int i = 0; i < result.length; i++) result[i] = stats.get(i).toString();
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        commitCheckTime.reset();
+        constraintLoadTime.reset();
+        collectTime.reset();
+        nodesPerTransaction.reset();
+        relationshipsScanned.reset();
+        violations.reset();
+        byInstance.clear();
+        byPattern.clear();
+    }
+
+    private static class ConstraintStats {
+        private final String pattern;
+        private final Histogram time = new Histogram();
+        private final StripedCounter violations = new StripedCounter();
+
+        private ConstraintStats(String pattern) {
+            this.pattern = pattern;
+        }
+
+        @Override
+        public String toString() {
+            return "total " + time.sum() / 1000 + "us, violations " + violations.get() + ", " + time.summary(1000) + " " + pattern;
+        }
+    }
+
+    /**
+     * Sum over per-thread stripes, padded to separate cache lines.
+     */
+    static class StripedCounter {
+        private static final int STRIPES = 16, PADDING = 8;
+        private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+        void add(long value) {
+            cells.addAndGet((int) (Thread.currentThread().getId() & (STRIPES - 1)) * PADDING, value);
+        }
+
+        long get() {
+            long sum = 0;
+            for (int i = 0; i < STRIPES; i++) sum += cells.get(i * PADDING);
+            return sum;
+        }
+
+        void reset() {
+            for (int i = 0; i < STRIPES; i++) cells.set(i * PADDING, 0);
+        }
+    }
+
+    /**
+     * Histogram of non-negative values in power-of-two buckets, percentiles are reported as bucket upper bounds.
+     */
+    static class Histogram {
+        private final AtomicLongArray buckets = new AtomicLongArray(64);
+        private final StripedCounter count = new StripedCounter();
+        private final StripedCounter sum = new StripedCounter();
+
+        void record(long value) {
+            if (value < 0) value = 0;
+            buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(value));
+            count.add(1);
+            sum.add(value);
+        }
+
+        long count() {
+            return count.get();
+        }
+
+        long sum() {
+            return sum.get();
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given percentile
+         */
+        long percentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < 64; i++) total += buckets.get(i);
+            long rank = (long) Math.ceil(total * percentile / 100), seen = 0;
+            for (int i = 0; i < 64; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank && seen > 0) return i == 0 ? 0 : (1L << i) - 1;
+            }
+            return 0;
+        }
+
+        String summary(long unit) {
+            long count = count();
+            return "count=" + count + " mean=" + (count == 0 ? 0 : sum() / count / unit) +
+                    " p50=" + percentile(50) / unit + " p99=" + percentile(99) / unit + " max=" + percentile(100) / unit;
+        }
+
+        void reset() {
+            for (int i = 0; i < 64; i++) buckets.set(i, 0);
+            count.reset();
+            sum.reset();
+        }
+    }
+}
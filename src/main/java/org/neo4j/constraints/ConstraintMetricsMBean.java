@@ -0,0 +1,47 @@
+package org.neo4j.constraints;
+
+/**
+ * JMX view of the {@link ConstraintMetrics}. Times are in microseconds.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public interface ConstraintMetricsMBean {
+    long getTransactions();
+
+    long getNodesChecked();
+
+    long getRelationshipsScanned();
+
+    long getViolations();
+
+    String getCommitCheckTime();
+
+    String getConstraintLoadTime();
+
+    String getCollectTime();
+
+    String getNodesPerTransaction();
+
+    /**
+     * @return the batches of committed nodes waiting for async validation, 0 if not in ASYNC_VALIDATE mode
+     */
+    int getAsyncBacklog();
+
+    /**
+     * @return the batches whose committing thread waited because the async queue was full
+     */
+    long getAsyncWaits();
+
+    /**
+     * @return the batches that were not validated because a wait was interrupted or on shutdown
+     */
+    long getAsyncDropped();
+
+    /**
+     * @return one line per constraint, the most expensive first
+     */
+    String[] getConstraints();
+
+    void reset();
+}
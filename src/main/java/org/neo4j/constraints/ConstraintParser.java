@@ -2,39 +2,460 @@ package org.neo4j.constraints;
 
 import org.neo4j.graphdb.Direction;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.neo4j.constraints.Constraint.MANY_VALUE;
 
 /**
+ * Parses cardinality patterns like {@code (:Person)-[:WORKS_FOR]->(:Company) TO many:1} in a single pass
+ * without backtracking. Errors are reported with the position in the input. Whitespace is allowed between all tokens,
+ * keywords are case insensitive:
+ * <pre>
+ * cardinality := label '&lt;'? '-' type '-' '&gt;'? label 'TO' bounds ':' bounds
+ * label       := '(' ':' name ')'
+ * type        := '[' ':' name qualifier? ']'
+ * qualifier   := '{' key ':' value ( ',' key ':' value )* '}'
+ * bounds      := count ( '..' count )?
+ * count       := 'one' | 'many' | digits
+ * </pre>
+ * <p>
+ * Property constraints are written as {@code (:Label).key} or {@code [:TYPE].key} followed by
+ * {@code IS type}, {@code IN min..max}, {@code LENGTH min..max} or {@code MATCHES "regex"}. Patterns with several
+ * hops are {@link PathConstraint}s, a single label with bounds, e.g. {@code (:Config) TO 0..1}, is a
+ * {@link CountConstraint} on the number of nodes with that label.
+ * <p>
+ * The relationship of a cardinality pattern can be qualified with property values, e.g.
+ * {@code (:Person)-[:EMPLOYED_BY {current:true}]->(:Company) TO many:0..1}, then only those relationships are counted.
+ *
  * @author mh
  * @since 10.10.14
  */
 public class ConstraintParser {
-    public static final String LABEL = "\\(\\s*:(\\s*[^\\)]+?)\\s*\\)";
-    public static final String TYPE = "\\[\\s*:\\s*([^\\]]+?)\\s*\\]";
-    public static final String PATTERN = LABEL+"\\s*(<)?\\s*-\\s*"+TYPE+"\\s*-\\s*(>)?\\s*"+LABEL;
-    public static final String COUNT = "(one|many|\\d+)";
-    public static final String MIN_MAX = COUNT + "\\s*(?:\\.\\." + COUNT + ")?";
-    public static final String CARD = MIN_MAX + "\\s*:\\s*" + MIN_MAX;
-    public final static Pattern pattern = Pattern.compile(PATTERN + "\\s+(?i:TO)\\s+" + CARD);
+    /**
+     * Thrown for invalid patterns, with the position of the error.
+     */
+    public static class ParseException extends IllegalArgumentException {
+        private final int position;
+
+        public ParseException(String message, String input, int position) {
+            super(message + " at position " + position + " in: " + input);
+            this.position = position;
+        }
+
+        public ParseException(String message, Throwable cause, int position) {
+            super(message, cause);
+            this.position = position;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+    }
+
+    private final String input;
+    private int pos;
+    // position of the first qualified relationship of a path, -1 if there is none
+    private int qualifiedHop = -1;
+
+    private ConstraintParser(String input) {
+        this.input = input;
+    }
 
     public static Constraint parse(String str) {
-        Matcher matcher = pattern.matcher(str);
-        if (matcher.matches()) {
-            String labelFrom = matcher.group(1);
-            String arrowLeft = matcher.group(2);
-            String type = matcher.group(3);
-            String arrowRight = matcher.group(4);
-            String labelTo = matcher.group(5);
-            return Constraint.from(new String[]{labelFrom, labelTo, type, toDirection(arrowLeft, arrowRight),
-                    matcher.group(6), matcher.group(7), matcher.group(8), matcher.group(9)}, 0);
-        }
-        throw new RuntimeException("Could not parse cardinality pattern "+str);
-    }
-
-    private static String toDirection(String arrowLeft, String arrowRight) {
-        boolean isLeft = "<".equals(arrowLeft);
-        boolean isRight = ">".equals(arrowRight);
+        return new ConstraintParser(str).constraint();
+    }
+
+    /**
+     * @return true if the pattern is a {@link PropertyConstraint}, decided by the first characters only
+     */
+    public static boolean isPropertyConstraint(String str) {
+        ConstraintParser parser = new ConstraintParser(str);
+        parser.skipSpace();
+        if (parser.accept('[')) return true;
+        int end = str.indexOf(')', parser.pos);
+        if (end < 0) return false;
+        parser.pos = end + 1;
+        return parser.accept('.');
+    }
+
+    public static PropertyConstraint parseProperty(String str) {
+        return new ConstraintParser(str).propertyConstraint();
+    }
+
+    private PropertyConstraint propertyConstraint() {
+        skipSpace();
+        boolean relationship = pos < input.length() && input.charAt(pos) == '[';
+        String owner = relationship ? type() : label();
+        expect('.');
+        String key = key();
+        if (!skipSpace()) throw error("Expected whitespace after the property key");
+        PropertyConstraint.Kind kind;
+        String argument = null, min = null, max = null;
+        int start = pos;
+        if (acceptWord("is")) {
+            kind = PropertyConstraint.Kind.IS;
+            skipSpace();
+            start = pos;
+            argument = key();
+        } else if (acceptWord("in")) {
+            kind = PropertyConstraint.Kind.IN;
+            skipSpace();
+            min = number();
+            max = optionalMax(true);
+        } else if (acceptWord("length")) {
+            kind = PropertyConstraint.Kind.LENGTH;
+            skipSpace();
+            min = count();
+            max = optionalMax(false);
+        } else if (acceptWord("matches")) {
+            kind = PropertyConstraint.Kind.MATCHES;
+            skipSpace();
+            start = pos;
+            argument = quoted();
+        } else {
+            throw error("Expected IS, IN, LENGTH or MATCHES");
+        }
+        skipSpace();
+        if (pos != input.length()) throw error("Unexpected input");
+        try {
+            return new PropertyConstraint(relationship, owner, key, kind, argument, min, max);
+        } catch (IllegalArgumentException e) { // unknown type or invalid regular expression
+            throw new ParseException(e.getMessage() + " at position " + start + " in: " + input, e, start);
+        }
+    }
+
+    /**
+     * @return a property key or type name, letters, digits and underscores
+     */
+    private String key() {
+        int start = pos;
+        while (pos < input.length() && (Character.isLetterOrDigit(input.charAt(pos)) || input.charAt(pos) == '_')) pos++;
+        if (pos == start) throw error("Expected a name");
+        return input.substring(start, pos);
+    }
+
+    /**
+     * @return a decimal number with optional sign and fraction, or many
+     */
+    private String number() {
+        int start = pos;
+        if (acceptWord(PropertyConstraint.MANY)) return PropertyConstraint.MANY;
+        if (pos < input.length() && input.charAt(pos) == '-') pos++;
+        int digits = pos;
+        while (pos < input.length() && Character.isDigit(input.charAt(pos))) pos++;
+        // a single dot starts the fraction, two dots the max
+        if (pos + 1 < input.length() && input.charAt(pos) == '.' && Character.isDigit(input.charAt(pos + 1))) {
+            pos++;
+            while (pos < input.length() && Character.isDigit(input.charAt(pos))) pos++;
+        }
+        if (pos == digits) throw error("Expected a number or many");
+        return input.substring(start, pos);
+    }
+
+    /**
+     * @return the content of a string in double or single quotes, the quote can be escaped with a backslash
+     */
+    private String quoted() {
+        if (pos >= input.length() || input.charAt(pos) != '"' && input.charAt(pos) != '\'') throw error("Expected a quoted string");
+        char quote = input.charAt(pos++);
+        StringBuilder result = new StringBuilder();
+        while (pos < input.length()) {
+            char c = input.charAt(pos++);
+            if (c == quote) return result.toString();
+            if (c == '\\' && pos < input.length() && input.charAt(pos) == quote) c = input.charAt(pos++);
+            result.append(c);
+        }
+        throw error("Expected closing " + quote);
+    }
+
+    private Constraint constraint() {
+        skipSpace();
+        String labelFrom = label();
+        skipSpace();
+        boolean left = accept('<');
+        expect('-');
+        expect('[');
+        expect(':');
+        String type = name('{', ']');
+        Map<String, Object> qualifier = null;
+        if (input.charAt(pos - 1) == '{') {
+            qualifier = qualifier();
+            expect(']');
+        }
+        expect('-');
+        boolean right = accept('>');
+        String labelTo = label();
+        String[] cardinality = cardinality();
+        Constraint constraint = Constraint.from(new String[]{labelFrom, labelTo, type, toDirection(left, right),
+                cardinality[0], cardinality[1], cardinality[2], cardinality[3]}, 0);
+        return qualifier == null ? constraint : constraint.qualify(qualifier);
+    }
+
+    /**
+     * Parses {@code key: value, ...}} after the opening brace, values are true, false, numbers or quoted strings.
+     */
+    private Map<String, Object> qualifier() {
+        Map<String, Object> qualifier = new LinkedHashMap<>();
+        skipSpace();
+        do {
+            skipSpace();
+            int start = pos;
+            String key = key();
+            if (qualifier.containsKey(key)) {
+                pos = start;
+                throw error("Duplicate property " + key);
+            }
+            expect(':');
+            qualifier.put(key, value());
+            skipSpace();
+        } while (accept(','));
+        expect('}');
+        return qualifier;
+    }
+
+    private Object value() {
+        if (acceptWord("true")) return Boolean.TRUE;
+        if (acceptWord("false")) return Boolean.FALSE;
+        if (pos < input.length() && (input.charAt(pos) == '"' || input.charAt(pos) == '\'')) return quoted();
+        int start = pos;
+        String number = number();
+        if (PropertyConstraint.MANY.equals(number)) {
+            pos = start;
+            throw error("Expected true, false, a number or a quoted string");
+        }
+        try {
+            return number.indexOf('.') < 0 ? (Object) Long.valueOf(number) : (Object) Double.valueOf(number);
+        } catch (NumberFormatException e) {
+            pos = start;
+            throw error("Number out of range");
+        }
+    }
+
+    /**
+     * @return true if the pattern is a single label followed by TO, decided without parsing the bounds
+     */
+    public static boolean isCountConstraint(String str) {
+        ConstraintParser parser = new ConstraintParser(str);
+        try {
+            parser.skipSpace();
+            parser.label();
+        } catch (ParseException e) {
+            return false;
+        }
+        return parser.skipSpace() && parser.acceptWord("to");
+    }
+
+    /**
+     * Parses label counts like {@code (:Tenant) TO 0..10000}, a single bound is the exact count.
+     */
+    public static CountConstraint parseCount(String str) {
+        return new ConstraintParser(str).countConstraint();
+    }
+
+    private CountConstraint countConstraint() {
+        skipSpace();
+        String label = label();
+        if (!skipSpace()) throw error("Expected whitespace before TO");
+        if (!acceptWord("to")) throw error("Expected TO");
+        if (!skipSpace()) throw error("Expected whitespace after TO");
+        String min = count(), max = optionalMax(false);
+        skipSpace();
+        if (pos != input.length()) throw error("Unexpected input");
+        int minValue = Constraint.parseValue(min, MANY_VALUE);
+        return new CountConstraint(label, minValue, Constraint.parseValue(max, minValue));
+    }
+
+    /**
+     * @return true if the pattern has more than one hop, decided without parsing the cardinalities
+     */
+    public static boolean isPathConstraint(String str) {
+        try {
+            return new ConstraintParser(str).path(new ArrayList<String>(), new ArrayList<String>(), new ArrayList<Direction>()) > 1;
+        } catch (ParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Parses multi-hop patterns like {@code (:Order)-[:CONTAINS]->(:Item)-[:SUPPLIED_BY]->(:Supplier) TO 1..many:1}.
+     */
+    public static PathConstraint parsePath(String str) {
+        return new ConstraintParser(str).pathConstraint();
+    }
+
+    private PathConstraint pathConstraint() {
+        List<String> labels = new ArrayList<>(), types = new ArrayList<>();
+        List<Direction> directions = new ArrayList<>();
+        if (path(labels, types, directions) < 2) throw error("Expected a path with at least two relationships");
+        if (qualifiedHop >= 0) {
+            pos = qualifiedHop;
+            throw error("Qualified relationships are not supported in paths");
+        }
+        String[] cardinality = cardinality();
+        int minFrom = Constraint.parseValue(cardinality[0], MANY_VALUE), minTo = Constraint.parseValue(cardinality[2], MANY_VALUE);
+        return new PathConstraint(labels, types, directions,
+                minFrom, Constraint.parseValue(cardinality[1], minFrom), minTo, Constraint.parseValue(cardinality[3], minTo));
+    }
+
+    /**
+     * @return the number of hops
+     */
+    private int path(List<String> labels, List<String> types, List<Direction> directions) {
+        skipSpace();
+        labels.add(label());
+        skipSpace();
+        while (pos < input.length() && (input.charAt(pos) == '-' || input.charAt(pos) == '<')) {
+            boolean left = accept('<');
+            expect('-');
+            expect('[');
+            expect(':');
+            types.add(name('{', ']'));
+            if (input.charAt(pos - 1) == '{') {
+                if (qualifiedHop < 0) qualifiedHop = pos - 1;
+                qualifier();
+                expect(']');
+            }
+            expect('-');
+            boolean right = accept('>');
+            directions.add(Direction.valueOf(toDirection(left, right)));
+            labels.add(label());
+            int end = pos;
+            skipSpace();
+            if (pos < input.length() && (input.charAt(pos) == '-' || input.charAt(pos) == '<')) continue;
+            pos = end; // the whitespace before TO is checked by the caller
+            break;
+        }
+        return types.size();
+    }
+
+    /**
+     * Parses {@code TO min..max:min..max} up to the end of the input.
+     * @return minFrom, maxFrom, minTo and maxTo, the max values are null if they were omitted
+     */
+    private String[] cardinality() {
+        if (!skipSpace()) throw error("Expected whitespace before TO");
+        if (!acceptWord("to")) throw error("Expected TO");
+        if (!skipSpace()) throw error("Expected whitespace after TO");
+        String minFrom = count(), maxFrom = optionalMax(false);
+        expect(':');
+        skipSpace();
+        String minTo = count(), maxTo = optionalMax(false);
+        skipSpace();
+        if (pos != input.length()) throw error("Unexpected input");
+        return new String[]{minFrom, maxFrom, minTo, maxTo};
+    }
+
+    private String label() {
+        expect('(');
+        expect(':');
+        return name(')');
+    }
+
+    private String type() {
+        expect('[');
+        expect(':');
+        String type = name('{', ']');
+        if (input.charAt(pos - 1) == '{') {
+            pos--;
+            throw error("Qualified relationships are not supported for property constraints");
+        }
+        return type;
+    }
+
+    /**
+     * @return the trimmed text up to the closing character, which is consumed
+     */
+    private String name(char close) {
+        return name(close, close);
+    }
+
+    /**
+     * @return the trimmed text up to the first of the two closing characters, which is consumed
+     */
+    private String name(char close, char otherClose) {
+        int start = pos;
+        int end = input.indexOf(close, pos);
+        int other = input.indexOf(otherClose, pos);
+        if (end < 0 || other >= 0 && other < end) end = other;
+        if (end < 0) {
+            pos = input.length();
+            throw error("Expected '" + otherClose + "'");
+        }
+        String name = input.substring(start, end).trim();
+        if (name.isEmpty()) throw error("Expected a name");
+        pos = end + 1;
+        return name;
+    }
+
+    private String count() {
+        int start = pos;
+        if (acceptWord("one")) return "one";
+        if (acceptWord("many")) return "many";
+        while (pos < input.length() && Character.isDigit(input.charAt(pos))) pos++;
+        if (pos == start) throw error("Expected a number, one or many");
+        String count = input.substring(start, pos);
+        try {
+            Integer.parseInt(count);
+        } catch (NumberFormatException e) {
+            pos = start;
+            throw error("Number out of range");
+        }
+        return count;
+    }
+
+    /**
+     * @param decimal true for numbers with sign and fraction, false for counts
+     */
+    private String optionalMax(boolean decimal) {
+        skipSpace();
+        if (!input.startsWith("..", pos)) return null;
+        pos += 2;
+        skipSpace();
+        String max = decimal ? number() : count();
+        skipSpace();
+        return max;
+    }
+
+    private void expect(char c) {
+        skipSpace();
+        if (pos >= input.length() || input.charAt(pos) != c) throw error("Expected '" + c + "'");
+        pos++;
+        skipSpace();
+    }
+
+    private boolean accept(char c) {
+        skipSpace();
+        if (pos >= input.length() || input.charAt(pos) != c) return false;
+        pos++;
+        skipSpace();
+        return true;
+    }
+
+    private boolean acceptWord(String word) {
+        if (!input.regionMatches(true, pos, word, 0, word.length())) return false;
+        int end = pos + word.length();
+        if (end < input.length() && Character.isLetterOrDigit(input.charAt(end))) return false;
+        pos = end;
+        return true;
+    }
+
+    /**
+     * @return true if any whitespace was skipped
+     */
+    private boolean skipSpace() {
+        int start = pos;
+        while (pos < input.length() && Character.isWhitespace(input.charAt(pos))) pos++;
+        return pos > start;
+    }
+
+    private ParseException error(String message) {
+        return new ParseException(message, input, pos);
+    }
+
+    private static String toDirection(boolean isLeft, boolean isRight) {
         if (isLeft && isRight || !isLeft && !isRight) return Direction.BOTH.name();
         if (isLeft) return Direction.INCOMING.name();
         return Direction.OUTGOING.name();
@@ -3,20 +3,37 @@ package org.neo4j.constraints;
 import org.neo4j.graphdb.GraphDatabaseService;
 import org.neo4j.graphdb.Transaction;
 import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.api.Statement;
+import org.neo4j.kernel.api.exceptions.KernelException;
 import org.neo4j.kernel.impl.core.GraphProperties;
 import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
 
 /**
+ * Stores the constraints in graph properties, encoded by the {@link ConstraintCodec}. The flat {@code String[]}
+ * format of earlier versions is still read and replaced by {@link #migrate()}. {@link PropertyConstraint}s,
+ * {@link PathConstraint}s and {@link CountConstraint}s are stored as their patterns in separate graph properties.
+ *
  * @author mh
  * @since 10.10.14
  */
 public class ConstraintPersister {
     private static final java.lang.String CONSTRAINT = "CONSTRAINT";
+    private static final java.lang.String CONSTRAINT_VERSION = "CONSTRAINT_VERSION";
+    private static final java.lang.String CONSTRAINT_PENDING = "CONSTRAINT_PENDING";
+    private static final java.lang.String PROPERTY_CONSTRAINT = "PROPERTY_CONSTRAINT";
+    private static final java.lang.String PATH_CONSTRAINT = "PATH_CONSTRAINT";
+    private static final java.lang.String COUNT_CONSTRAINT = "COUNT_CONSTRAINT";
+    private static final long NO_VERSION = 0;
 
     private final GraphProperties properties;
+    private final ConstraintCodec codec;
+    private volatile Snapshot snapshot;
 
     public ConstraintPersister(GraphProperties properties) {
         this.properties = properties;
+        this.codec = new ConstraintCodec(new KernelTokens(((GraphDatabaseAPI) properties.getGraphDatabase())
+                .getDependencyResolver().resolveDependency(ThreadToStatementContextBridge.class)));
     }
 
     public ConstraintPersister(GraphDatabaseService db) {
@@ -25,23 +42,232 @@ public class ConstraintPersister {
 
     public void persist(Constraint.Constraints constraints) {
         try (Transaction tx = getGraphDatabase().beginTx()) {
-            this.properties.setProperty(CONSTRAINT, constraints.toArray());
+            this.properties.setProperty(CONSTRAINT, codec.encode(constraints)); // takes the graph-property write lock
+            this.properties.setProperty(CONSTRAINT_VERSION, readVersion() + 1);
             tx.success();
         }
     }
 
+    public void persistProperties(PropertyConstraint.Constraints constraints) {
+        try (Transaction tx = getGraphDatabase().beginTx()) {
+            this.properties.setProperty(PROPERTY_CONSTRAINT, constraints.toArray());
+            this.properties.setProperty(CONSTRAINT_VERSION, readVersion() + 1);
+            tx.success();
+        }
+    }
+
+    public PropertyConstraint.Constraints restoreProperties() {
+        try (Transaction tx = getGraphDatabase().beginTx()) {
+            PropertyConstraint.Constraints constraints = readProperties();
+            tx.success();
+            return constraints;
+        }
+    }
+
+    public void persistPaths(PathConstraint.Constraints constraints) {
+        try (Transaction tx = getGraphDatabase().beginTx()) {
+            this.properties.setProperty(PATH_CONSTRAINT, constraints.toArray());
+            this.properties.setProperty(CONSTRAINT_VERSION, readVersion() + 1);
+            tx.success();
+        }
+    }
+
+    public PathConstraint.Constraints restorePaths() {
+        try (Transaction tx = getGraphDatabase().beginTx()) {
+            PathConstraint.Constraints constraints = readPaths();
+            tx.success();
+            return constraints;
+        }
+    }
+
+    public void persistCounts(CountConstraint.Constraints constraints) {
+        try (Transaction tx = getGraphDatabase().beginTx()) {
+            this.properties.setProperty(COUNT_CONSTRAINT, constraints.toArray());
+            this.properties.setProperty(CONSTRAINT_VERSION, readVersion() + 1);
+            tx.success();
+        }
+    }
+
+    public CountConstraint.Constraints restoreCounts() {
+        try (Transaction tx = getGraphDatabase().beginTx()) {
+            CountConstraint.Constraints constraints = readCounts();
+            tx.success();
+            return constraints;
+        }
+    }
+
+    /**
+     * Stores constraints that are not enforced until existing data was validated against them.
+     */
+    public void persistPending(Constraint.Constraints pending) {
+        try (Transaction tx = getGraphDatabase().beginTx()) {
+            this.properties.setProperty(CONSTRAINT_PENDING, codec.encode(pending));
+            tx.success();
+        }
+    }
+
+    public Constraint.Constraints restorePending() {
+        try (Transaction tx = getGraphDatabase().beginTx()) {
+            Constraint.Constraints constraints = read(CONSTRAINT_PENDING);
+            tx.success();
+            return constraints;
+        }
+    }
+
+    /**
+     * Re-encodes constraints stored in the {@code String[]} format in the current format.
+     * @return true if anything was migrated
+     */
+    public boolean migrate() {
+        try (Transaction tx = getGraphDatabase().beginTx()) {
+            boolean migrated = migrate(CONSTRAINT) | migrate(CONSTRAINT_PENDING);
+            tx.success();
+            return migrated;
+        }
+    }
+
+    private boolean migrate(String key) {
+        Object value = properties.getProperty(key, null);
+        if (!(value instanceof String[])) return false;
+        properties.setProperty(key, codec.encode(Constraint.Constraints.from((String[]) value)));
+        return true;
+    }
+
     private GraphDatabaseService getGraphDatabase() {
         return properties.getGraphDatabase();
     }
 
     public Constraint.Constraints restore() {
         try (Transaction tx = getGraphDatabase().beginTx()) {
-            Object value = properties.getProperty(CONSTRAINT, null);
-            if (!(value instanceof String[])) value=null; // GraphProperty has a bug in getProperty, if the prop-key is not known it returns false
-            String[] data = (String[]) value;
-            Constraint.Constraints constraints = Constraint.Constraints.from(data);
+            Constraint.Constraints constraints = read(CONSTRAINT);
             tx.success();
             return constraints;
         }
     }
+
+    /**
+     * Returns the shared, unmodifiable constraint set, only re-reading and decoding the graph property when
+     * its version changed since the last call. Has to be called within a transaction.
+     */
+    public Constraint.Constraints current() {
+        return snapshot().constraints;
+    }
+
+    /**
+     * Returns the compiled property constraints, like {@link #current()} only re-read when the version changed.
+     */
+    public PropertyConstraint.Constraints currentProperties() {
+        return snapshot().properties;
+    }
+
+    public PathConstraint.Constraints currentPaths() {
+        return snapshot().paths;
+    }
+
+    public CountConstraint.Constraints currentCounts() {
+        return snapshot().counts;
+    }
+
+    private Snapshot snapshot() {
+        long version = readVersion();
+        Snapshot snapshot = this.snapshot;
+        if (snapshot != null && snapshot.version == version) return snapshot;
+
+        Snapshot loaded = new Snapshot(version, read(CONSTRAINT).unmodifiable(), readProperties(), readPaths(), readCounts());
+        synchronized (this) {
+            if (this.snapshot == null || this.snapshot.version < version) this.snapshot = loaded;
+        }
+        return loaded;
+    }
+
+    private PropertyConstraint.Constraints readProperties() {
+        Object value = properties.getProperty(PROPERTY_CONSTRAINT, null);
+        return PropertyConstraint.Constraints.from(value instanceof String[] ? (String[]) value : null);
+    }
+
+    private PathConstraint.Constraints readPaths() {
+        Object value = properties.getProperty(PATH_CONSTRAINT, null);
+        return PathConstraint.Constraints.from(value instanceof String[] ? (String[]) value : null);
+    }
+
+    private CountConstraint.Constraints readCounts() {
+        Object value = properties.getProperty(COUNT_CONSTRAINT, null);
+        return CountConstraint.Constraints.from(value instanceof String[] ? (String[]) value : null);
+    }
+
+    private Constraint.Constraints read(String key) {
+        Object value = properties.getProperty(key, null);
+        if (ConstraintCodec.isEncoded(value)) return codec.decode((byte[]) value);
+        if (value instanceof String[]) return Constraint.Constraints.from((String[]) value); // not yet migrated
+        return Constraint.Constraints.from(null); // GraphProperty has a bug in getProperty, if the prop-key is not known it returns false
+    }
+
+    private long readVersion() {
+        Object value = properties.getProperty(CONSTRAINT_VERSION, null);
+        return value instanceof Number ? ((Number) value).longValue() : NO_VERSION;
+    }
+
+    /**
+     * Token lookups of the current transaction, creates missing tokens when encoding.
+     */
+    private static class KernelTokens implements ConstraintCodec.Tokens {
+        private final ThreadToStatementContextBridge statements;
+
+        private KernelTokens(ThreadToStatementContextBridge statements) {
+            this.statements = statements;
+        }
+
+        @Override
+        public int labelId(String name) {
+            try (Statement statement = statements.instance()) {
+                return statement.tokenWriteOperations().labelGetOrCreateForName(name);
+            } catch (KernelException e) {
+                throw new IllegalStateException("Could not create label " + name, e);
+            }
+        }
+
+        @Override
+        public String labelName(int id) {
+            try (Statement statement = statements.instance()) {
+                return statement.readOperations().labelGetName(id);
+            } catch (KernelException e) {
+                throw new IllegalStateException("Unknown label id " + id, e);
+            }
+        }
+
+        @Override
+        public int typeId(String name) {
+            try (Statement statement = statements.instance()) {
+                return statement.tokenWriteOperations().relationshipTypeGetOrCreateForName(name);
+            } catch (KernelException e) {
+                throw new IllegalStateException("Could not create relationship type " + name, e);
+            }
+        }
+
+        @Override
+        public String typeName(int id) {
+            try (Statement statement = statements.instance()) {
+                return statement.readOperations().relationshipTypeGetName(id);
+            } catch (KernelException e) {
+                throw new IllegalStateException("Unknown relationship type id " + id, e);
+            }
+        }
+    }
+
+    private static class Snapshot {
+        private final long version;
+        private final Constraint.Constraints constraints;
+        private final PropertyConstraint.Constraints properties;
+        private final PathConstraint.Constraints paths;
+        private final CountConstraint.Constraints counts;
+
+        private Snapshot(long version, Constraint.Constraints constraints, PropertyConstraint.Constraints properties,
+                         PathConstraint.Constraints paths, CountConstraint.Constraints counts) {
+            this.version = version;
+            this.constraints = constraints;
+            this.properties = properties;
+            this.paths = paths;
+            this.counts = counts;
+        }
+    }
 }
@@ -0,0 +1,76 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.config.Setting;
+import org.neo4j.graphdb.factory.Description;
+
+import static org.neo4j.helpers.Settings.BOOLEAN;
+import static org.neo4j.helpers.Settings.FALSE;
+import static org.neo4j.helpers.Settings.INTEGER;
+import static org.neo4j.helpers.Settings.LONG;
+import static org.neo4j.helpers.Settings.min;
+import static org.neo4j.helpers.Settings.options;
+import static org.neo4j.helpers.Settings.TRUE;
+import static org.neo4j.helpers.Settings.setting;
+
+/**
+ * Configuration of the constraint extension, set in neo4j.properties.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ConstraintSettings {
+    @Description("Only re-count degrees where the relationships changed in a transaction can cross a min or max bound. " +
+            "Assumes that the existing data already satisfies all constraints.")
+    public static final Setting<Boolean> incremental_check = setting("constraints.incremental_check", BOOLEAN, FALSE);
+
+    @Description("Number of relationships after which a label filtered degree count treats the node as dense " +
+            "and uses the relationship-group degree to decide without scanning the rest.")
+    public static final Setting<Integer> dense_node_threshold = setting("constraints.dense_node_threshold", INTEGER,
+            String.valueOf(DegreeCounter.DEFAULT_DENSE_NODE_THRESHOLD), min(1));
+
+    @Description("Maintain per-node counters of label filtered degrees in a memory mapped file in the store directory, " +
+            "so that constraints with a label on both sides are checked without scanning relationships.")
+    public static final Setting<Boolean> degree_counters = setting("constraints.degree_counters", BOOLEAN, FALSE);
+
+    @Description("Transactions with at least this many nodes to check are checked in parallel, 0 disables parallel checks.")
+    public static final Setting<Integer> parallel_check_threshold = setting("constraints.parallel_check_threshold", INTEGER, "10000", min(0));
+
+    @Description("Number of threads for parallel checks, 0 uses one per available processor.")
+    public static final Setting<Integer> parallel_check_threads = setting("constraints.parallel_check_threads", INTEGER, "0", min(0));
+
+    @Description("Parallel checks stop after finding this many violations.")
+    public static final Setting<Integer> max_violations = setting("constraints.max_violations", INTEGER, "100", min(1));
+
+    @Description("Violations listed in the message of a rejected transaction or a warning, the remaining ones are only counted.")
+    public static final Setting<Integer> max_reported_violations = setting("constraints.max_reported_violations", INTEGER, "20", min(1));
+
+    @Description("Stop checking a transaction at its first violation in ENFORCE mode. The rejected transaction then " +
+            "only reports that violation.")
+    public static final Setting<Boolean> fail_fast = setting("constraints.fail_fast", BOOLEAN, FALSE);
+
+    @Description("Number of lock stripes for the nodes checked before a commit. Transactions checking nodes of the same " +
+            "stripe are checked one after the other, 0 disables the locks.")
+    public static final Setting<Integer> lock_stripes = setting("constraints.lock_stripes", INTEGER, "1024", min(0));
+
+    @Description("Milliseconds to wait for the locks on the checked nodes before the transaction fails with a " +
+            "DeadlockDetectedException, it can be retried.")
+    public static final Setting<Long> lock_timeout = setting("constraints.lock_timeout", LONG, "10000", min(0L));
+
+    @Description("ENFORCE rejects transactions that violate constraints, WARN commits them and records the violations, " +
+            "ASYNC_VALIDATE commits without checks and validates the touched nodes in the background.")
+    public static final Setting<EnforcementMode> enforcement = setting("constraints.enforcement", options(EnforcementMode.class), EnforcementMode.ENFORCE.name());
+
+    @Description("Number of threads validating committed transactions in ASYNC_VALIDATE mode.")
+    public static final Setting<Integer> async_validation_threads = setting("constraints.async_validation_threads", INTEGER, "1", min(1));
+
+    @Description("Number of batches of committed nodes that may wait for the async validation threads. When the queue " +
+            "is full, the committing thread waits for room, which slows down commits instead of dropping checks.")
+    public static final Setting<Integer> async_validation_queue_size = setting("constraints.async_validation_queue_size", INTEGER, "10000", min(1));
+
+    @Description("Number of recent violations kept in memory by the violation log, all of them are appended to " +
+            ViolationLog.FILE_NAME + " in the store directory.")
+    public static final Setting<Integer> violation_log_size = setting("constraints.violation_log_size", INTEGER, "1000", min(1));
+
+    @Description("Record timings and counts of the commit-time checks, exposed over JMX as ConstraintMetrics.")
+    public static final Setting<Boolean> metrics = setting("constraints.metrics", BOOLEAN, TRUE);
+}
@@ -0,0 +1,25 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+
+/**
+ * A violation of a constraint of any kind: a {@link CardinalityViolation}, {@link PropertyConstraint.Violation},
+ * {@link PathConstraint.Violation} or {@link CountConstraint.Violation}. The subtypes narrow the constraint and add
+ * the details of their kind.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public abstract class ConstraintViolation {
+    /**
+     * @return the id of the violating node or relationship, -1 for a label count
+     */
+    public abstract long getId();
+
+    public abstract Object getConstraint();
+
+    /**
+     * @return the result, null for a property constraint
+     */
+    public abstract Result getResult();
+}
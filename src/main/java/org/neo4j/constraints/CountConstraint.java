@@ -0,0 +1,164 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Label;
+
+import java.util.*;
+
+import static org.neo4j.constraints.Constraint.MANY_VALUE;
+
+/**
+ * Bounds on the number of nodes with a label in the whole graph, e.g. {@code (:Config) TO 0..1}. The counts are
+ * not computed at commit time but kept in {@link LabelCounts}.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class CountConstraint {
+    private final Label label;
+    private final int min, max;
+
+    public CountConstraint(String label, int min, int max) {
+        this.label = DynamicLabel.label(label);
+        this.min = min;
+        this.max = max;
+    }
+
+    public Label getLabel() {
+        return label;
+    }
+
+    public int getMin() {
+        return min;
+    }
+
+    public int getMax() {
+        return max;
+    }
+
+    public Result check(long count) {
+        if (min != MANY_VALUE && count < min) return Result.TO_FEW;
+        if (max != MANY_VALUE && count > max) return Result.TO_MANY;
+        return Result.OK;
+    }
+
+    private static String bound(int value) {
+        return value == MANY_VALUE ? "many" : String.valueOf(value);
+    }
+
+    /**
+     * @return the pattern as parsed by {@link ConstraintParser#parseCount}
+     */
+    @Override
+    public String toString() {
+        return "(:" + label.name() + ") TO " + bound(min) + ".." + bound(max);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof CountConstraint && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * A label count that a transaction would take out of the bounds of a constraint.
+     */
+    public static class Violation extends ConstraintViolation {
+        private final CountConstraint constraint;
+        private final long count;
+
+        Violation(CountConstraint constraint, long count) {
+            this.constraint = constraint;
+            this.count = count;
+        }
+
+        /**
+         * @return -1, a count has no node
+         */
+        @Override
+        public long getId() {
+            return -1;
+        }
+
+        @Override
+        public CountConstraint getConstraint() {
+            return constraint;
+        }
+
+        /**
+         * @return the count including the change of the transaction
+         */
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public Result getResult() {
+            return constraint.check(count);
+        }
+
+        @Override
+        public String toString() {
+            return count + " nodes with label " + constraint.label.name() + " " + getResult() + " of " + constraint;
+        }
+    }
+
+    /**
+     * The count constraints by label.
+     */
+    static class Constraints {
+        private final List<CountConstraint> constraints;
+        private final Map<String, List<CountConstraint>> byLabel = new HashMap<>();
+
+        Constraints(Collection<CountConstraint> constraints) {
+            this.constraints = new ArrayList<>(new LinkedHashSet<>(constraints));
+            for (CountConstraint constraint : this.constraints) {
+                List<CountConstraint> list = byLabel.get(constraint.label.name());
+                if (list == null) byLabel.put(constraint.label.name(), list = new ArrayList<>(1));
+                list.add(constraint);
+            }
+        }
+
+        static Constraints from(String[] data) {
+            List<CountConstraint> result = new ArrayList<>();
+            if (data != null) {
+                for (String constraint : data) result.add(ConstraintParser.parseCount(constraint));
+            }
+            return new Constraints(result);
+        }
+
+        String[] toArray() {
+            String[] result = new String[constraints.size()];
+            for (int i = 0; i < result.length; i++) result[i] = constraints.get(i).toString();
+            return result;
+        }
+
+        boolean isEmpty() {
+            return constraints.isEmpty();
+        }
+
+        List<CountConstraint> all() {
+            return Collections.unmodifiableList(constraints);
+        }
+
+        Set<String> labels() {
+            return Collections.unmodifiableSet(byLabel.keySet());
+        }
+
+        List<CountConstraint> get(String label) {
+            List<CountConstraint> result = byLabel.get(label);
+            return result == null ? Collections.<CountConstraint>emptyList() : result;
+        }
+
+        Constraints with(CountConstraint constraint) {
+            List<CountConstraint> result = new ArrayList<>(constraints);
+            result.add(constraint);
+            return new Constraints(result);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.TransactionData;
+
+import java.util.*;
+
+/**
+ * Exact degree changes of a transaction per node and side of a list of constraints, computed from
+ * {@link TransactionData} alone. Adding them to the committed degree gives the degree after the commit.
+ * Side {@code s} of the constraint at index {@code i} is kept in slot {@code 2 * i + s}.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class DegreeChanges {
+    private final List<Constraint> constraints;
+    private final Map<Constraint, Integer> slots = new IdentityHashMap<>();
+    private final TransactionData data;
+    private final Map<Long, int[]> changes = new HashMap<>();
+    private final Map<Node, Set<String>> assigned = new HashMap<>();
+    private final Map<Node, Set<String>> removed = new HashMap<>();
+    private final Set<Long> createdRelationships = new HashSet<>();
+
+    private DegreeChanges(List<Constraint> constraints, TransactionData data) {
+        this.constraints = constraints;
+        this.data = data;
+        for (int i = 0; i < constraints.size(); i++) {
+            slots.put(constraints.get(i), i * 2);
+        }
+    }
+
+    public static DegreeChanges collect(List<Constraint> constraints, TransactionData data) {
+        DegreeChanges changes = new DegreeChanges(constraints, data);
+        changes.collect();
+        return changes;
+    }
+
+    private void collect() {
+        for (LabelEntry entry : data.assignedLabels()) add(assigned, entry);
+        for (LabelEntry entry : data.removedLabels()) add(removed, entry);
+        for (Relationship rel : data.createdRelationships()) {
+            createdRelationships.add(rel.getId());
+            relationshipChanged(rel, 1, true);
+        }
+        for (Relationship rel : data.deletedRelationships()) relationshipChanged(rel, -1, false);
+        for (Map.Entry<Node, Set<String>> entry : assigned.entrySet()) labelsChanged(entry.getKey(), entry.getValue(), 1);
+        for (Map.Entry<Node, Set<String>> entry : removed.entrySet()) labelsChanged(entry.getKey(), entry.getValue(), -1);
+    }
+
+    private static void add(Map<Node, Set<String>> labels, LabelEntry entry) {
+        Set<String> names = labels.get(entry.node());
+        if (names == null) {
+            names = new HashSet<>();
+            labels.put(entry.node(), names);
+        }
+        names.add(entry.label().name());
+    }
+
+    private void relationshipChanged(Relationship rel, int change, boolean after) {
+        Node start = rel.getStartNode();
+        Node end = rel.getEndNode();
+        for (Constraint constraint : constraints) {
+            if (!hasType(constraint, rel)) continue;
+            for (int side = Constraint.TO_SIDE; side <= Constraint.FROM_SIDE; side++) {
+                Label label = constraint.getOtherLabel(side);
+                if (sees(constraint, side, Direction.OUTGOING) && hasLabel(end, label, after)) change(start, constraint, side, change);
+                if (sees(constraint, side, Direction.INCOMING) && hasLabel(start, label, after)) change(end, constraint, side, change);
+            }
+        }
+    }
+
+    /**
+     * A label change of a node changes the degrees of its neighbours over relationships that existed before and after.
+     */
+    private void labelsChanged(Node node, Set<String> labels, int change) {
+        if (data.isDeleted(node)) return;
+        for (Constraint constraint : constraints) {
+            for (int side = Constraint.TO_SIDE; side <= Constraint.FROM_SIDE; side++) {
+                Label label = constraint.getOtherLabel(side);
+                if (label == null || !labels.contains(label.name())) continue;
+                Direction direction = constraint.getDirection(side).reverse();
+                Iterable<Relationship> relationships = constraint.getType() == null ? node.getRelationships(direction) : node.getRelationships(constraint.getType(), direction);
+                for (Relationship rel : relationships) {
+                    if (createdRelationships.contains(rel.getId())) continue;
+                    change(rel.getOtherNode(node), constraint, side, change);
+                }
+            }
+        }
+    }
+
+    private static boolean hasType(Constraint constraint, Relationship rel) {
+        return constraint.getType() == null || constraint.getType().name().equals(rel.getType().name());
+    }
+
+    private static boolean sees(Constraint constraint, int side, Direction direction) {
+        Direction seen = constraint.getDirection(side);
+        return seen == Direction.BOTH || seen == direction;
+    }
+
+    private boolean hasLabel(Node node, Label label, boolean after) {
+        if (label == null) return true;
+        if (after) return !data.isDeleted(node) && node.hasLabel(label);
+        if (contains(removed, node, label)) return true;
+        return !data.isDeleted(node) && !contains(assigned, node, label) && node.hasLabel(label);
+    }
+
+    private static boolean contains(Map<Node, Set<String>> labels, Node node, Label label) {
+        Set<String> names = labels.get(node);
+        return names != null && names.contains(label.name());
+    }
+
+    private void change(Node node, Constraint constraint, int side, int change) {
+        int[] deltas = changes.get(node.getId());
+        if (deltas == null) {
+            deltas = new int[constraints.size() * 2];
+            changes.put(node.getId(), deltas);
+        }
+        deltas[slot(constraint, side)] += change;
+    }
+
+    int slot(Constraint constraint, int side) {
+        Integer slot = slots.get(constraint);
+        return slot == null ? -1 : slot + side;
+    }
+
+    public int delta(long nodeId, Constraint constraint, int side) {
+        int slot = slot(constraint, side);
+        int[] deltas = changes.get(nodeId);
+        return slot < 0 || deltas == null ? 0 : deltas[slot];
+    }
+
+    Map<Long, int[]> changes() {
+        return changes;
+    }
+}
@@ -0,0 +1,516 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * Memory mapped per-node counters of label filtered degrees, one int slot per side of each constraint that has
+ * both a from- and a to-label. A slot holds the number of relationships of the constraint's type and direction
+ * whose other node has the label of the opposite side, independent of the node's own labels.
+ * <p>
+ * The file starts with a header (magic, layout hash, slots per node, clean flag) followed by
+ * {@code slotsPerNode} ints per node id. It is only trusted when it was closed cleanly and was built for the
+ * same constraints, otherwise it has to be {@link #rebuild rebuilt}.
+ * <p>
+ * A rebuild doesn't need a quiet database: the nodes whose counts the transactions committing during the scan
+ * change are recounted afterwards, while the transactions that start after the scan already count along.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class DegreeCountStore {
+    public static final String FILE_NAME = "constraint-degree-counts.db";
+    private static final long MAGIC = 0x434E535452444547L; // CNSTRDEG
+    private static final int HEADER_SIZE = 32;
+    private static final int LAYOUT_OFFSET = 8, SLOTS_OFFSET = 16, CLEAN_OFFSET = 20;
+    private static final int SEGMENT_SIZE = 1 << 26;
+    // how long a rebuild waits for the transactions that committed during its scan
+    private static final long CATCH_UP_TIMEOUT_MILLIS = 10000;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    // copied on growth, so that reads don't lock
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    // guarded by this: transactions per generation from collecting their changes until they committed, and the
+    // node ids whose counts committing transactions change
+    private final Map<Integer, Integer> active = new HashMap<>();
+    private final Map<Long, Integer> committing = new HashMap<>();
+    // guarded by this: while rebuilding the nodes to recount and the node that is recounted, its commits wait
+    private Set<Long> dirty;
+    private Long recounting;
+    // guarded by this: true if the changes of the current generation's transactions are added to the counts
+    private boolean counting;
+    private final Object rebuildLock = new Object();
+    private volatile Layout layout;
+    private volatile boolean valid;
+    private volatile int generation;
+
+    private DegreeCountStore(File file) throws IOException {
+        this.file = file;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    public static DegreeCountStore open(File storeDir) throws IOException {
+        DegreeCountStore store = new DegreeCountStore(new File(storeDir, FILE_NAME));
+        store.readHeader();
+        return store;
+    }
+
+    private void readHeader() throws IOException {
+        if (channel.size() < HEADER_SIZE) return;
+        MappedByteBuffer header = segment(0);
+        if (header.getLong(0) != MAGIC || header.getInt(CLEAN_OFFSET) != 1) return;
+        this.layout = new Layout(header.getLong(LAYOUT_OFFSET), header.getInt(SLOTS_OFFSET), Collections.<Constraint>emptyList());
+        header.putInt(CLEAN_OFFSET, 0);
+        header.force();
+        this.counting = true;
+        this.valid = true;
+    }
+
+    /**
+     * @return true if the counters were built for these constraints and can be used for checks
+     */
+    public boolean isValidFor(Constraint.Constraints constraints) {
+        Layout layout = this.layout;
+        if (layout != null && layout.isBoundTo(constraints)) return valid;
+        Layout bound = layout == null ? null : layout.bind(constraints);
+        if (bound == null) {
+            synchronized (this) {
+                // the changes are collected for the new constraints until they are rebuilt
+                valid = false;
+                counting = false;
+                generation++;
+                this.layout = Layout.of(constraints);
+            }
+            return false;
+        }
+        this.layout = bound;
+        return valid;
+    }
+
+    Layout layout() {
+        return layout;
+    }
+
+    int generation() {
+        return generation;
+    }
+
+    boolean isValid() {
+        return valid;
+    }
+
+    public int get(long nodeId, int slot) {
+        return get(layout, nodeId, slot);
+    }
+
+    /**
+     * @param layout the layout the slot was taken from, as a rebuild may replace the current one meanwhile
+     */
+    int get(Layout layout, long nodeId, int slot) {
+        long offset = offset(layout, nodeId, slot);
+        return segment((int) (offset / SEGMENT_SIZE)).getInt((int) (offset % SEGMENT_SIZE));
+    }
+
+    private long offset(Layout layout, long nodeId, int slot) {
+        return HEADER_SIZE + (nodeId * layout.slotsPerNode + slot) * 4;
+    }
+
+    private void add(Layout layout, long nodeId, int slot, int delta) {
+        long offset = offset(layout, nodeId, slot);
+        MappedByteBuffer segment = segment((int) (offset / SEGMENT_SIZE));
+        int position = (int) (offset % SEGMENT_SIZE);
+        segment.putInt(position, segment.getInt(position) + delta);
+    }
+
+    private void set(Layout layout, long nodeId, int[] counts) {
+        for (int slot = 0; slot < counts.length; slot++) {
+            long offset = offset(layout, nodeId, slot);
+            segment((int) (offset / SEGMENT_SIZE)).putInt((int) (offset % SEGMENT_SIZE), counts[slot]);
+        }
+    }
+
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer[] segments = this.segments;
+        return index < segments.length ? segments[index] : map(index);
+    }
+
+    private synchronized MappedByteBuffer map(int index) {
+        MappedByteBuffer[] segments = this.segments;
+        if (index < segments.length) return segments[index];
+        MappedByteBuffer[] grown = Arrays.copyOf(segments, index + 1);
+        try {
+            for (int i = segments.length; i <= index; i++) {
+                grown[i] = channel.map(FileChannel.MapMode.READ_WRITE, (long) i * SEGMENT_SIZE, SEGMENT_SIZE);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map " + file, e);
+        }
+        this.segments = grown;
+        return grown[index];
+    }
+
+    /**
+     * Registers a transaction that collects its changes, which has to be followed by {@link #apply} or
+     * {@link #discard}.
+     * @return the generation of the counts the changes are collected for
+     */
+    synchronized int enter() {
+        increment(active, generation, 1);
+        return generation;
+    }
+
+    /**
+     * Marks the nodes whose counts a transaction changes as committing, waits while one of them is recounted.
+     */
+    synchronized void begin(Collection<Long> nodeIds) {
+        boolean interrupted = false;
+        while (recounting != null && nodeIds.contains(recounting)) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+        for (Long nodeId : nodeIds) increment(committing, nodeId, 1);
+    }
+
+    /**
+     * Adds the changes of a committed transaction. The changes of transactions that may or may not have been seen
+     * by the scan of a rebuild are not added, their nodes are recounted instead.
+     */
+    synchronized void apply(Map<Long, int[]> changes, int generation) {
+        try {
+            if (counting && generation == this.generation) {
+                Layout layout = this.layout;
+                for (Map.Entry<Long, int[]> entry : changes.entrySet()) {
+                    int[] deltas = entry.getValue();
+                    for (int slot = 0; slot < deltas.length; slot++) {
+                        if (deltas[slot] != 0) add(layout, entry.getKey(), slot, deltas[slot]);
+                    }
+                }
+            } else if (dirty != null) {
+                dirty.addAll(changes.keySet());
+            }
+        } finally {
+            end(changes.keySet(), generation);
+        }
+    }
+
+    /**
+     * @param nodeIds the nodes passed to {@link #begin}, empty if it wasn't called
+     */
+    synchronized void discard(Collection<Long> nodeIds, int generation) {
+        end(nodeIds, generation);
+    }
+
+    private void end(Collection<Long> nodeIds, int generation) {
+        increment(active, generation, -1);
+        for (Long nodeId : nodeIds) increment(committing, nodeId, -1);
+        notifyAll();
+    }
+
+    private static <K> void increment(Map<K, Integer> counts, K key, int change) {
+        Integer count = counts.get(key);
+        int next = (count == null ? 0 : count) + change;
+        if (next == 0) {
+            counts.remove(key);
+        } else {
+            counts.put(key, next);
+        }
+    }
+
+    /**
+     * Recounts all slots with a full scan of the nodes carrying the constrained labels, while transactions keep
+     * committing. Afterwards the nodes changed by transactions that committed during the scan are recounted one by
+     * one, until none is left. The counters stay unused if that doesn't settle.
+     *
+     * @return true if the counters are valid afterwards
+     */
+    public boolean rebuild(GraphDatabaseService db, Constraint.Constraints constraints) {
+        return rebuild(db, constraints, true);
+    }
+
+    /**
+     * @param force false to skip the rebuild if the counters became valid meanwhile, e.g. by another rebuild
+     */
+    boolean rebuild(GraphDatabaseService db, Constraint.Constraints constraints, boolean force) {
+        synchronized (rebuildLock) {
+            if (!force && isValidFor(constraints)) return true;
+            try {
+                return doRebuild(db, constraints);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                synchronized (this) {
+                    dirty = null;
+                    if (!valid) counting = false;
+                }
+            }
+        }
+    }
+
+    private boolean doRebuild(GraphDatabaseService db, Constraint.Constraints constraints) throws InterruptedException {
+        Layout layout = Layout.of(constraints);
+        synchronized (this) {
+            valid = false;
+            counting = false;
+            generation++;
+            this.layout = layout;
+            dirty = new HashSet<>();
+            clear(layout);
+        }
+        try (Transaction tx = db.beginTx()) {
+            for (Constraint constraint : layout.constraints) {
+                seed(db, layout, constraint, Constraint.TO_SIDE);
+                seed(db, layout, constraint, Constraint.FROM_SIDE);
+            }
+            tx.success();
+        }
+        int scanned;
+        synchronized (this) {
+            // transactions collected from now on are not seen by the scan and add their changes
+            scanned = generation++;
+            counting = true;
+        }
+        long timeout = System.currentTimeMillis() + CATCH_UP_TIMEOUT_MILLIS;
+        while (true) {
+            Set<Long> nodes;
+            synchronized (this) {
+                if (this.layout.hash != layout.hash) return false;
+                if (dirty.isEmpty()) {
+                    if (!isActive(scanned)) {
+                        valid = true;
+                        return true;
+                    }
+                    long wait = timeout - System.currentTimeMillis();
+                    if (wait <= 0) return false;
+                    wait(wait);
+                    continue;
+                }
+                nodes = dirty;
+                dirty = new HashSet<>();
+            }
+            recount(db, layout, nodes);
+        }
+    }
+
+    /**
+     * @return true if a transaction of the given or an earlier generation has not committed yet
+     */
+    private boolean isActive(int generation) {
+        for (int collected : active.keySet()) {
+            if (collected <= generation) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Counts the nodes anew. Commits that change a node wait while it is counted, and it is only counted once the
+     * commits that changed it before moved its counts on.
+     */
+    private void recount(GraphDatabaseService db, Layout layout, Set<Long> nodes) throws InterruptedException {
+        try (Transaction tx = db.beginTx()) {
+            for (Long nodeId : nodes) {
+                synchronized (this) {
+                    recounting = nodeId;
+                }
+                try {
+                    synchronized (this) {
+                        while (committing.containsKey(nodeId)) wait();
+                    }
+                    int[] counts = count(db, layout, nodeId);
+                    synchronized (this) {
+                        if (counts == null) {
+                            dirty.add(nodeId);
+                        } else {
+                            set(layout, nodeId, counts);
+                        }
+                    }
+                } finally {
+                    synchronized (this) {
+                        recounting = null;
+                        notifyAll();
+                    }
+                }
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * @return the counts of the node, null if they have to be counted again
+     */
+    private static int[] count(GraphDatabaseService db, Layout layout, long nodeId) {
+        int[] counts = new int[layout.slotsPerNode];
+        Node node;
+        try {
+            node = db.getNodeById(nodeId);
+        } catch (NotFoundException e) {
+            return counts;
+        }
+        for (Constraint constraint : layout.constraints) {
+            for (int side = Constraint.TO_SIDE; side <= Constraint.FROM_SIDE; side++) {
+                Direction direction = constraint.getDirection(side);
+                Label label = constraint.getOtherLabel(side);
+                Iterable<Relationship> relationships = constraint.getType() == null ? node.getRelationships(direction) : node.getRelationships(constraint.getType(), direction);
+                int count = 0;
+                try {
+                    for (Relationship relationship : relationships) {
+                        if (relationship.getOtherNode(node).hasLabel(label)) count++;
+                    }
+                } catch (NotFoundException e) {
+                    return null; // a neighbour was deleted meanwhile
+                }
+                counts[layout.slot(constraint, side)] = count;
+            }
+        }
+        return counts;
+    }
+
+    private void seed(GraphDatabaseService db, Layout layout, Constraint constraint, int side) {
+        // the far node has the opposite side's label and sees the relationship in the opposite direction
+        Direction direction = side == Constraint.TO_SIDE ? constraint.getDirection().reverse() : constraint.getDirection();
+        int slot = layout.slot(constraint, side);
+        for (Node far : GlobalGraphOperations.at(db).getAllNodesWithLabel(side == Constraint.TO_SIDE ? constraint.getToLabel() : constraint.getFromLabel())) {
+            // relationships and nodes deleted during the scan are skipped, the nodes of the transactions that deleted
+            // them are recounted
+            try {
+                Iterable<Relationship> relationships = constraint.getType() == null ? far.getRelationships(direction) : far.getRelationships(constraint.getType(), direction);
+                for (Relationship relationship : relationships) {
+                    try {
+                        add(layout, relationship.getOtherNode(far).getId(), slot, 1);
+                    } catch (NotFoundException e) {
+                        // the relationship was deleted
+                    }
+                }
+            } catch (NotFoundException e) {
+                // the far node was deleted
+            }
+        }
+    }
+
+    /**
+     * Zeroes the whole file, not only the segments mapped so far, as later segments may still hold counts of an
+     * earlier layout.
+     */
+    private void clear(Layout layout) {
+        MappedByteBuffer header = segment(0);
+        try {
+            segment((int) ((channel.size() - 1) / SEGMENT_SIZE));
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not map " + file, e);
+        }
+        for (MappedByteBuffer segment : this.segments) {
+            for (int i = 0; i < SEGMENT_SIZE; i += 8) segment.putLong(i, 0);
+        }
+        header.putLong(0, MAGIC);
+        header.putLong(LAYOUT_OFFSET, layout.hash);
+        header.putInt(SLOTS_OFFSET, layout.slotsPerNode);
+        header.putInt(CLEAN_OFFSET, 0);
+    }
+
+    public synchronized void close() throws IOException {
+        if (valid && segments.length > 0) {
+            for (MappedByteBuffer segment : segments) segment.force();
+            MappedByteBuffer header = segments[0];
+            header.putInt(CLEAN_OFFSET, 1);
+            header.force();
+        }
+        valid = false;
+        segments = new MappedByteBuffer[0];
+        channel.close();
+        raf.close();
+    }
+
+    /**
+     * Immutable assignment of constraint sides to slots, identified by a hash over the constraints with both labels.
+     */
+    static class Layout {
+        private final long hash;
+        private final int slotsPerNode;
+        private final List<Constraint> constraints;
+        private final Map<Constraint, Integer> slots = new IdentityHashMap<>();
+
+        private Layout(long hash, int slotsPerNode, List<Constraint> constraints) {
+            this.hash = hash;
+            this.slotsPerNode = slotsPerNode;
+            this.constraints = constraints;
+            for (int i = 0; i < constraints.size(); i++) {
+                slots.put(constraints.get(i), i * 2);
+            }
+        }
+
+        static Layout of(Constraint.Constraints constraints) {
+            List<Constraint> labeled = labeled(constraints);
+            return new Layout(hash(labeled), labeled.size() * 2, labeled);
+        }
+
+        boolean isBoundTo(Constraint.Constraints constraints) {
+            List<Constraint> labeled = labeled(constraints);
+            if (labeled.size() != this.constraints.size()) return false;
+            for (int i = 0; i < labeled.size(); i++) {
+                if (labeled.get(i) != this.constraints.get(i)) return false;
+            }
+            return true;
+        }
+
+        /**
+         * @return this layout for the constraint instances of a newer snapshot or null if they differ
+         */
+        Layout bind(Constraint.Constraints constraints) {
+            List<Constraint> labeled = labeled(constraints);
+            if (hash(labeled) != hash || labeled.size() * 2 != slotsPerNode) return null;
+            return new Layout(hash, slotsPerNode, labeled);
+        }
+
+        int slot(Constraint constraint, int side) {
+            Integer slot = slots.get(constraint);
+            return slot == null ? -1 : slot + side;
+        }
+
+        int slotsPerNode() {
+            return slotsPerNode;
+        }
+
+        List<Constraint> constraints() {
+            return constraints;
+        }
+
+        private static List<Constraint> labeled(Constraint.Constraints constraints) {
+            List<Constraint> result = new ArrayList<>();
+            for (Constraint constraint : constraints.all()) {
+                // qualified constraints would need the relationship properties on every change
+                if (constraint.getFromLabel() != null && constraint.getToLabel() != null && !constraint.isQualified()) result.add(constraint);
+            }
+            return result;
+        }
+
+        private static long hash(List<Constraint> constraints) {
+            long hash = 1;
+            for (Constraint constraint : constraints) {
+                String[] data = new String[Constraint.SIZE];
+                constraint.intoArray(data, 0);
+                hash = 31 * hash + Arrays.hashCode(data);
+            }
+            return hash;
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.kernel.api.ReadOperations;
+import org.neo4j.kernel.api.Statement;
+import org.neo4j.kernel.api.exceptions.EntityNotFoundException;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+
+import static org.neo4j.constraints.Constraint.ANY_TOKEN;
+import static org.neo4j.constraints.Constraint.MANY_VALUE;
+
+/**
+ * Counts the degree of one side of a constraint only as far as needed to decide it against the side's min and max.
+ * Label filtered counts stop as soon as the outcome is known. After {@code denseNodeThreshold} relationships a node
+ * is treated as dense and the typed degree from its relationship groups is used to decide without further scanning
+ * when the remaining relationships can't change the outcome.
+ * <p>
+ * With access to the kernel statements the counts of constraints with {@link Constraint#resolve resolved} token ids
+ * use the id based read operations, without name to id lookups for every label check. A counter
+ * {@link #forTransaction for a transaction} also remembers the labels of the far-end nodes in a {@link LabelCache}.
+ * <p>
+ * Relationships of {@link Constraint#isQualified qualified} constraints are scanned and only counted if their
+ * properties match, the degree is then only used as an upper bound.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class DegreeCounter {
+    public static final int DEFAULT_DENSE_NODE_THRESHOLD = 50;
+    public static final DegreeCounter DEFAULT = new DegreeCounter(DEFAULT_DENSE_NODE_THRESHOLD);
+
+    private final int denseNodeThreshold;
+    private final ConstraintMetrics metrics;
+    private final ThreadToStatementContextBridge statements;
+    private final LabelCache labels;
+
+    public DegreeCounter(int denseNodeThreshold) {
+        this(denseNodeThreshold, null, null);
+    }
+
+    /**
+     * @param metrics records counting times per constraint and scanned relationships, null to disable
+     * @param statements kernel statements of the current transaction, null to only use the core API
+     */
+    public DegreeCounter(int denseNodeThreshold, ConstraintMetrics metrics, ThreadToStatementContextBridge statements) {
+        this(denseNodeThreshold, metrics, statements, null);
+    }
+
+    /**
+     * @param labels cache of far-end labels of a single check or null
+     */
+    protected DegreeCounter(int denseNodeThreshold, ConstraintMetrics metrics, ThreadToStatementContextBridge statements, LabelCache labels) {
+        this.denseNodeThreshold = denseNodeThreshold;
+        this.metrics = metrics;
+        this.statements = statements;
+        this.labels = labels;
+    }
+
+    /**
+     * @return a counter for the check of one transaction on the current thread, with a {@link LabelCache} seeded
+     * from the transaction's label changes, or this counter if it can't use the kernel operations
+     */
+    public DegreeCounter forTransaction(Constraint.Constraints constraints, TransactionData data) {
+        if (statements == null) return this;
+        try (Statement statement = statements.instance()) {
+            LabelCache cache = LabelCache.seed(constraints, data, statement.readOperations());
+            return new DegreeCounter(denseNodeThreshold, metrics, statements, cache);
+        }
+    }
+
+    LabelCache getLabels() {
+        return labels;
+    }
+
+    ThreadToStatementContextBridge getStatements() {
+        return statements;
+    }
+
+    ConstraintMetrics getMetrics() {
+        return metrics;
+    }
+
+    public int getDenseNodeThreshold() {
+        return denseNodeThreshold;
+    }
+
+    /**
+     * Counts the relationships of one {@code side} of a constraint, see {@link Constraint#TO_SIDE}, {@link Constraint#FROM_SIDE}.
+     */
+    public int count(Constraint constraint, int side, Node node) {
+        if (metrics == null) return countSide(constraint, side, node);
+        long start = ConstraintMetrics.nanos();
+        try {
+            return countSide(constraint, side, node);
+        } finally {
+            metrics.degreeCounted(constraint, start);
+        }
+    }
+
+    protected int countSide(Constraint constraint, int side, Node node) {
+        return count(node, constraint, side, constraint.getMin(side), constraint.getMax(side));
+    }
+
+    /**
+     * Counts the committed degree of a side that the current transaction changes by {@code delta}, for threads that
+     * can't see the transaction's state.
+     * @return a degree after the change which gives the same {@link Constraint.Result#check} outcome as the exact one
+     */
+    public int count(Constraint constraint, int side, Node node, int delta) {
+        if (metrics == null) return countSide(constraint, side, node, delta);
+        long start = ConstraintMetrics.nanos();
+        try {
+            return countSide(constraint, side, node, delta);
+        } finally {
+            metrics.degreeCounted(constraint, start);
+        }
+    }
+
+    private int countSide(Constraint constraint, int side, Node node, int delta) {
+        int min = constraint.getMin(side), max = constraint.getMax(side);
+        if (max != MANY_VALUE && max - delta < 0) return max + 1;
+        return count(node, constraint, side,
+                min == MANY_VALUE ? MANY_VALUE : Math.max(min - delta, 0), max == MANY_VALUE ? MANY_VALUE : max - delta) + delta;
+    }
+
+    private int count(Node node, Constraint constraint, int side, int min, int max) {
+        Constraint qualified = constraint.isQualified() ? constraint : null;
+        if (statements != null) {
+            try (Statement statement = statements.instance()) {
+                ReadOperations read = statement.readOperations();
+                if (constraint.resolve(read)) {
+                    return count(read, node, constraint.getType(), constraint.getTypeId(), constraint.getDirection(side),
+                            constraint.getOtherLabelId(side), qualified, min, max);
+                }
+            }
+        }
+        return count(node, constraint.getType(), constraint.getDirection(side), constraint.getOtherLabel(side), qualified, min, max);
+    }
+
+    /**
+     * @param type the relationship type or null for any type
+     * @param otherLabel the label the other node must have or null for any node
+     * @return a degree which gives the same {@link Constraint.Result#check} outcome for {@code min} and {@code max}
+     * as the exact degree, but not necessarily the exact degree itself
+     */
+    public int count(Node node, RelationshipType type, Direction direction, Label otherLabel, int min, int max) {
+        return count(node, type, direction, otherLabel, null, min, max);
+    }
+
+    /**
+     * @param qualified the constraint whose qualifier the counted relationships must match or null for all
+     */
+    private int count(Node node, RelationshipType type, Direction direction, Label otherLabel, Constraint qualified, int min, int max) {
+        int limit = max != MANY_VALUE ? max + 1 : Math.max(min, 0);
+        if (limit == 0) return 0;
+        if (otherLabel == null && qualified == null) return degree(node, type, direction);
+
+        int count = 0, visited = 0;
+        try {
+            for (Relationship relationship : relationships(node, type, direction)) {
+                if (visited++ == denseNodeThreshold) {
+                    int upper = count + degree(node, type, direction) - denseNodeThreshold;
+                    if (min != MANY_VALUE && upper < min) return upper;
+                    if ((max == MANY_VALUE || upper <= max) && (min == MANY_VALUE || count >= min)) return count;
+                }
+                if (qualified != null && !qualified.accepts(relationship)) continue;
+                if ((otherLabel == null || relationship.getOtherNode(node).hasLabel(otherLabel)) && ++count == limit) return count;
+            }
+            return count;
+        } finally {
+            if (metrics != null) metrics.relationshipsScanned(visited);
+        }
+    }
+
+    /**
+     * Same as {@link #count(Node, RelationshipType, Direction, Label, int, int)} with kernel token ids.
+     * @param typeId id of {@code type} or {@link Constraint#ANY_TOKEN}
+     * @param otherLabelId id of the other node's label or {@link Constraint#ANY_TOKEN}
+     * @param qualified the constraint whose qualifier the counted relationships must match or null for all
+     */
+    private int count(ReadOperations read, Node node, RelationshipType type, int typeId, Direction direction, int otherLabelId,
+                      Constraint qualified, int min, int max) {
+        int limit = max != MANY_VALUE ? max + 1 : Math.max(min, 0);
+        if (limit == 0) return 0;
+        long nodeId = node.getId();
+        int count = 0, visited = 0;
+        try {
+            if (otherLabelId == ANY_TOKEN && qualified == null) return degree(read, nodeId, typeId, direction);
+            for (Relationship relationship : relationships(node, type, direction)) {
+                if (visited++ == denseNodeThreshold) {
+                    int upper = count + degree(read, nodeId, typeId, direction) - denseNodeThreshold;
+                    if (min != MANY_VALUE && upper < min) return upper;
+                    if ((max == MANY_VALUE || upper <= max) && (min == MANY_VALUE || count >= min)) return count;
+                }
+                if (qualified != null && !qualified.accepts(relationship)) continue;
+                long otherId = relationship.getOtherNode(node).getId();
+                boolean hasLabel = otherLabelId == ANY_TOKEN
+                        || (labels == null ? read.nodeHasLabel(otherId, otherLabelId) : labels.hasLabel(read, otherId, otherLabelId));
+                if (hasLabel && ++count == limit) return count;
+            }
+            return count;
+        } catch (EntityNotFoundException e) {
+            throw new NotFoundException("Node " + nodeId + " or one of its neighbours not found", e);
+        } finally {
+            if (metrics != null) metrics.relationshipsScanned(visited);
+        }
+    }
+
+    private int degree(ReadOperations read, long nodeId, int typeId, Direction direction) throws EntityNotFoundException {
+        return typeId == ANY_TOKEN ? read.nodeGetDegree(nodeId, direction) : read.nodeGetDegree(nodeId, direction, typeId);
+    }
+
+    private int degree(Node node, RelationshipType type, Direction direction) {
+        return type == null ? node.getDegree(direction) : node.getDegree(type, direction);
+    }
+
+    private Iterable<Relationship> relationships(Node node, RelationshipType type, Direction direction) {
+        return type == null ? node.getRelationships(direction) : node.getRelationships(type, direction);
+    }
+}
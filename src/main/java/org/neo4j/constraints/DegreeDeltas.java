@@ -0,0 +1,146 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+
+import java.util.*;
+
+/**
+ * Per node and constraint degree changes of a single transaction. Degrees are only re-counted where
+ * the change can cross a bound, nodes that were created or relabeled get a full check, as well as the neighbours
+ * whose degrees depend on the changed label, and the nodes of relationships whose qualifying properties changed.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class DegreeDeltas {
+    private final Constraint.Constraints constraints;
+    private final TransactionData data;
+    private final DegreeCounter counter;
+    private final Set<Node> fullCheck = new LinkedHashSet<>();
+    private final Set<Node> relabeled = new HashSet<>();
+    private final Map<Node, Set<String>> labels = new HashMap<>();
+    private final Map<Node, Map<Constraint, int[]>> deltas = new LinkedHashMap<>();
+
+    private DegreeDeltas(Constraint.Constraints constraints, TransactionData data, DegreeCounter counter) {
+        this.constraints = constraints;
+        this.data = data;
+        this.counter = counter;
+    }
+
+    public static DegreeDeltas collect(Constraint.Constraints constraints, TransactionData data, DegreeCounter counter) {
+        DegreeDeltas result = new DegreeDeltas(constraints, data, counter);
+        for (Node node : data.createdNodes()) result.fullCheck(node);
+        for (LabelEntry entry : data.assignedLabels()) result.relabeled(entry);
+        for (LabelEntry entry : data.removedLabels()) result.relabeled(entry);
+        for (Relationship rel : data.createdRelationships()) result.add(rel, 1);
+        for (Relationship rel : data.deletedRelationships()) result.add(rel, -1);
+        if (constraints.hasQualified()) {
+            for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()) result.propertyChanged(entry);
+            for (PropertyEntry<Relationship> entry : data.removedRelationshipProperties()) result.propertyChanged(entry);
+        }
+        return result;
+    }
+
+    private void propertyChanged(PropertyEntry<Relationship> entry) {
+        Relationship rel = entry.entity();
+        if (data.isDeleted(rel) || !constraints.isQualifying(rel.getType(), entry.key())) return;
+        fullCheck(rel.getStartNode());
+        fullCheck(rel.getEndNode());
+    }
+
+    private void relabeled(LabelEntry entry) {
+        relabeled.add(entry.node());
+        if (!constraints.matches(entry.label()) || data.isDeleted(entry.node())) return;
+        fullCheck(entry.node());
+        for (Node dependent : constraints.dependents(entry.node(), entry.label())) fullCheck(dependent);
+    }
+
+    private void fullCheck(Node node) {
+        if (data.isDeleted(node)) return;
+        fullCheck.add(node);
+        deltas.remove(node);
+    }
+
+    private void add(Relationship rel, int change) {
+        if (!constraints.matches(rel)) return;
+        RelationshipType type = rel.getType();
+        Node start = rel.getStartNode();
+        Node end = rel.getEndNode();
+        add(start, Direction.OUTGOING, end, type, change);
+        add(end, Direction.INCOMING, start, type, change);
+    }
+
+    private void add(Node node, Direction direction, Node other, RelationshipType type, int change) {
+        if (fullCheck.contains(node) || data.isDeleted(node)) return;
+        Set<String> labels = labels(node);
+        Collection<Constraint> candidates = constraints.candidates(labels, type, direction);
+        if (candidates.isEmpty()) return;
+        Set<String> otherLabels = data.isDeleted(other) || relabeled.contains(other) ? null : labels(other);
+        Map<Constraint, int[]> nodeDeltas = deltas.get(node);
+        if (nodeDeltas == null) {
+            nodeDeltas = new HashMap<>();
+            deltas.put(node, nodeDeltas);
+        }
+        for (Constraint constraint : candidates) {
+            int[] delta = nodeDeltas.get(constraint);
+            if (delta == null) {
+                delta = new int[2];
+                nodeDeltas.put(constraint, delta);
+            }
+            // qualified counts depend on the relationship's properties
+            if (constraint.isQualified() || !constraint.addDelta(delta, labels, direction, otherLabels, change)) {
+                fullCheck(node);
+                return;
+            }
+        }
+    }
+
+    private Set<String> labels(Node node) {
+        Set<String> result = labels.get(node);
+        if (result == null) {
+            result = Constraint.Constraints.labelNames(node);
+            labels.put(node, result);
+        }
+        return result;
+    }
+
+    public Map<Node, Map<Constraint, Result>> check() {
+        return check(false);
+    }
+
+    /**
+     * @param failFast true to stop at the first violation
+     */
+    public Map<Node, Map<Constraint, Result>> check(boolean failFast) {
+        Map<Node, Map<Constraint, Result>> errors = new HashMap<>();
+        for (Node node : fullCheck) {
+            Map<Constraint, Result> result = constraints.check(node, counter, failFast);
+            if (result == null) continue;
+            errors.put(node, result);
+            if (failFast) return errors;
+        }
+        for (Map.Entry<Node, Map<Constraint, int[]>> entry : deltas.entrySet()) {
+            Node node = entry.getKey();
+            for (Map.Entry<Constraint, int[]> delta : entry.getValue().entrySet()) {
+                Result result = delta.getKey().check(node, delta.getValue(), counter);
+                delta.getKey().recordCheck(result != Result.OK);
+                if (result == Result.OK) continue;
+                Map<Constraint, Result> nodeErrors = errors.get(node);
+                if (nodeErrors == null) {
+                    nodeErrors = new HashMap<>();
+                    errors.put(node, nodeErrors);
+                }
+                nodeErrors.put(delta.getKey(), result);
+                if (failFast) return errors;
+            }
+        }
+        return errors;
+    }
+}
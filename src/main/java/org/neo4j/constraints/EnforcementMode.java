@@ -0,0 +1,16 @@
+package org.neo4j.constraints;
+
+/**
+ * How violated constraints are treated when a transaction commits.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public enum EnforcementMode {
+    /** check before commit and fail the transaction on violations */
+    ENFORCE,
+    /** check before commit, but only record violations in the {@link ViolationLog} */
+    WARN,
+    /** commit without checks, the touched nodes are validated afterwards in the background */
+    ASYNC_VALIDATE
+}
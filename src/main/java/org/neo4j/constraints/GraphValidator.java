@@ -0,0 +1,330 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.ResourceIterator;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks the existing data of a graph against constraints, e.g. before a new constraint is activated.
+ * The node-id space is split into ranges that worker threads take in turn, each range is checked in its own
+ * transaction. Violations are streamed to a {@link Listener} instead of being collected, so memory use does not
+ * depend on the size of the graph. {@link ConstraintDiff.Revalidation}s of labelled sides read their nodes from the
+ * label index instead.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class GraphValidator {
+    public static final int RANGE_SIZE = 10000;
+
+    /**
+     * Receives violations and progress, called concurrently from the worker threads.
+     */
+    public interface Listener {
+        /**
+         * @return false to stop the validation
+         */
+        boolean violation(Node node, Map<Constraint, Result> results);
+
+        void progress(long checkedIds, long totalIds);
+    }
+
+    private final GraphDatabaseService db;
+    private final DegreeCounter counter;
+    private final int threads;
+
+    public GraphValidator(GraphDatabaseService db, DegreeCounter counter, int threads) {
+        this.db = db;
+        this.counter = counter;
+        this.threads = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Checks the nodes of one id range, in one transaction.
+     */
+    private interface RangeCheck {
+        /**
+         * @return false if the listener asked to stop
+         */
+        boolean check(long from, long to, Listener listener, AtomicLong violations);
+    }
+
+    /**
+     * A unit of work taken by a worker thread, checked in its own transaction.
+     */
+    private interface Batch {
+        /**
+         * @return false if the listener asked to stop
+         */
+        boolean check(Listener listener, AtomicLong violations);
+    }
+
+    private interface Batches {
+        /**
+         * @return the next batch to check or null if there is none left
+         */
+        Batch next() throws InterruptedException;
+    }
+
+    /**
+     * @return number of violating nodes found, the validation stops early when the listener asks for it
+     */
+    public long validate(final Constraint.Constraints constraints, Listener listener) throws InterruptedException {
+        if (constraints.isEmpty()) return 0;
+        return validate(new RangeCheck() {
+            public boolean check(long from, long to, Listener listener, AtomicLong violations) {
+                return validate(constraints, from, to, listener, violations);
+            }
+        }, listener);
+    }
+
+    /**
+     * Checks constraint sides for the nodes with the label of each side only, all sides in a single pass.
+     * Labelled sides are read from the label index in batches that the worker threads check in parallel, a node
+     * is checked against all sides of its label at once. If a side applies to all nodes the id ranges are
+     * scanned instead and every node is checked against the sides that apply to it.
+     * @return number of violating nodes found, the validation stops early when the listener asks for it
+     */
+    public long validate(final List<ConstraintDiff.Revalidation> revalidations, Listener listener) throws InterruptedException {
+        if (revalidations.isEmpty()) return 0;
+        Map<String, List<ConstraintDiff.Revalidation>> byLabel = new LinkedHashMap<>();
+        for (ConstraintDiff.Revalidation revalidation : revalidations) {
+            if (revalidation.getLabel() == null) {
+                return validate(new RangeCheck() {
+                    public boolean check(long from, long to, Listener listener, AtomicLong violations) {
+                        return validate(revalidations, from, to, listener, violations);
+                    }
+                }, listener);
+            }
+            String name = revalidation.getLabel().name();
+            List<ConstraintDiff.Revalidation> sides = byLabel.get(name);
+            if (sides == null) byLabel.put(name, sides = new ArrayList<>());
+            sides.add(revalidation);
+        }
+        return validate(byLabel, listener);
+    }
+
+    private long validate(final RangeCheck check, final Listener listener) throws InterruptedException {
+        final long highId = highId();
+        final AtomicLong nextId = new AtomicLong();
+        final AtomicLong checked = new AtomicLong();
+        Workers workers = new Workers((int) Math.max(1, Math.min(highId / RANGE_SIZE + 1, threads)), new Batches() {
+            public Batch next() {
+                final long from = nextId.getAndAdd(RANGE_SIZE);
+                if (from >= highId) return null;
+                final long to = Math.min(highId, from + RANGE_SIZE);
+                return new Batch() {
+                    public boolean check(Listener listener, AtomicLong violations) {
+                        boolean proceed = check.check(from, to, listener, violations);
+                        listener.progress(checked.addAndGet(to - from), highId);
+                        return proceed;
+                    }
+                };
+            }
+        }, listener);
+        return workers.join();
+    }
+
+    /**
+     * Reads the nodes of each label from the label index on the calling thread and hands them to the workers in
+     * batches of {@link #RANGE_SIZE}. Progress is reported per label by the highest node id checked, as the
+     * index returns the nodes of a label in id order.
+     */
+    private long validate(Map<String, List<ConstraintDiff.Revalidation>> byLabel, Listener listener) throws InterruptedException {
+        final long highId = highId();
+        final long totalIds = highId * byLabel.size();
+        final BlockingQueue<Batch> queue = new ArrayBlockingQueue<>(threads * 2);
+        final AtomicBoolean produced = new AtomicBoolean();
+        Workers workers = new Workers(threads, new Batches() {
+            public Batch next() throws InterruptedException {
+                while (true) {
+                    Batch batch = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (batch != null) return batch;
+                    if (produced.get()) return queue.poll();
+                }
+            }
+        }, listener);
+        try (Transaction tx = db.beginTx()) {
+            GlobalGraphOperations operations = GlobalGraphOperations.at(db);
+            long offset = 0;
+            for (Map.Entry<String, List<ConstraintDiff.Revalidation>> entry : byLabel.entrySet()) {
+                try (ResourceIterator<Node> nodes = operations.getAllNodesWithLabel(DynamicLabel.label(entry.getKey())).iterator()) {
+                    long[] ids = new long[RANGE_SIZE];
+                    int count = 0;
+                    while (!workers.stopped.get() && nodes.hasNext()) {
+                        ids[count++] = nodes.next().getId();
+                        if (count < RANGE_SIZE) continue;
+                        if (!workers.offer(queue, batch(entry.getValue(), ids, count, offset, totalIds))) break;
+                        ids = new long[RANGE_SIZE];
+                        count = 0;
+                    }
+                    if (count > 0) workers.offer(queue, batch(entry.getValue(), ids, count, offset, totalIds));
+                }
+                offset += highId;
+            }
+            tx.success();
+        } catch (InterruptedException | RuntimeException e) {
+            workers.stopped.set(true);
+            throw e;
+        } finally {
+            produced.set(true);
+        }
+        return workers.join();
+    }
+
+    private Batch batch(final List<ConstraintDiff.Revalidation> revalidations, final long[] ids, final int count, final long offset, final long totalIds) {
+        return new Batch() {
+            public boolean check(Listener listener, AtomicLong violations) {
+                try (Transaction tx = db.beginTx()) {
+                    for (int i = 0; i < count; i++) {
+                        Node node;
+                        try {
+                            node = db.getNodeById(ids[i]);
+                        } catch (NotFoundException e) {
+                            continue;
+                        }
+                        if (!GraphValidator.this.check(node, revalidations, listener, violations)) return false;
+                    }
+                    tx.success();
+                }
+                listener.progress(offset + ids[count - 1] + 1, totalIds);
+                return true;
+            }
+        };
+    }
+
+    private long highId() {
+        return ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(NodeManager.class).getHighestPossibleIdInUse(Node.class) + 1;
+    }
+
+    /**
+     * Worker threads that take batches until there are none left or the listener asks to stop.
+     */
+    private static class Workers {
+        private final AtomicLong violations = new AtomicLong();
+        private final AtomicBoolean stopped = new AtomicBoolean();
+        private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        private final List<Thread> threads;
+
+        private Workers(int count, final Batches batches, final Listener listener) {
+            threads = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                Thread worker = new Thread("constraint-validation-" + i) {
+                    public void run() {
+                        try {
+                            Batch batch;
+                            while (!stopped.get() && (batch = batches.next()) != null) {
+                                if (!batch.check(listener, violations)) stopped.set(true);
+                            }
+                        } catch (InterruptedException e) {
+                            stopped.set(true);
+                        } catch (RuntimeException e) {
+                            stopped.set(true);
+                            failure.compareAndSet(null, e);
+                        }
+                    }
+                };
+                worker.setDaemon(true);
+                worker.start();
+                threads.add(worker);
+            }
+        }
+
+        /**
+         * @return false if the workers stopped before the batch was taken
+         */
+        private boolean offer(BlockingQueue<Batch> queue, Batch batch) throws InterruptedException {
+            while (!stopped.get()) {
+                if (queue.offer(batch, 100, TimeUnit.MILLISECONDS)) return true;
+            }
+            return false;
+        }
+
+        private long join() throws InterruptedException {
+            try {
+                for (Thread worker : threads) worker.join();
+            } catch (InterruptedException e) {
+                stopped.set(true);
+                throw e;
+            }
+            if (failure.get() != null) throw failure.get();
+            return violations.get();
+        }
+    }
+
+    private boolean validate(List<ConstraintDiff.Revalidation> revalidations, long from, long to, Listener listener, AtomicLong violations) {
+        try (Transaction tx = db.beginTx()) {
+            for (long id = from; id < to; id++) {
+                Node node;
+                try {
+                    node = db.getNodeById(id);
+                } catch (NotFoundException e) {
+                    continue;
+                }
+                if (!check(node, revalidations, listener, violations)) return false;
+            }
+            tx.success();
+        }
+        return true;
+    }
+
+    /**
+     * Checks a node against the sides of the given revalidations whose label it has.
+     * @return false if the listener asked to stop
+     */
+    private boolean check(Node node, List<ConstraintDiff.Revalidation> revalidations, Listener listener, AtomicLong violations) {
+        Map<Constraint, Result> results = null;
+        for (ConstraintDiff.Revalidation revalidation : revalidations) {
+            Label label = revalidation.getLabel();
+            if (label != null && !node.hasLabel(label)) continue;
+            Constraint constraint = revalidation.getConstraint();
+            int side = revalidation.getSide();
+            Result result = Result.check(counter.count(constraint, side, node), constraint.getMin(side), constraint.getMax(side));
+            if (result == Result.OK) continue;
+            if (results == null) results = new LinkedHashMap<>();
+            results.put(constraint, result);
+        }
+        if (results == null) return true;
+        violations.incrementAndGet();
+        return listener.violation(node, results);
+    }
+
+    private boolean validate(Constraint.Constraints constraints, long from, long to, Listener listener, AtomicLong violations) {
+        try (Transaction tx = db.beginTx()) {
+            for (long id = from; id < to; id++) {
+                Node node;
+                try {
+                    node = db.getNodeById(id);
+                } catch (NotFoundException e) {
+                    continue;
+                }
+                if (!constraints.matches(node)) continue;
+                Map<Constraint, Result> results = constraints.check(node, counter);
+                if (results == null) continue;
+                violations.incrementAndGet();
+                if (!listener.violation(node, results)) return false;
+            }
+            tx.success();
+        }
+        return true;
+    }
+}
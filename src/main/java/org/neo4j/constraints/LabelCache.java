@@ -0,0 +1,87 @@
+package org.neo4j.constraints;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIntMap;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.kernel.api.ReadOperations;
+import org.neo4j.kernel.api.exceptions.EntityNotFoundException;
+
+/**
+ * Remembers the labels of the far-end nodes looked at during one check, so that a company shared by thousands of
+ * people in a transaction is read only once. Per node an int holds a known and a has bit for each of up to
+ * {@link #MAX_LABELS} label ids, lookups of further labels or beyond {@link #MAX_NODES} nodes are not cached.
+ * <p>
+ * Not thread safe, a cache belongs to the check of a single transaction.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+class LabelCache {
+    static final int MAX_LABELS = 15;
+    static final int MAX_NODES = 1 << 20;
+    private static final int KNOWN_SHIFT = 16;
+    private static final int NONE = -1; // the missing value of the map, never a valid entry
+
+    private final PrimitiveLongIntMap nodes = Primitive.longIntMap();
+    private final int[] labelIds = new int[MAX_LABELS];
+    private int labels;
+
+    /**
+     * Seeds the cache with the label changes of the transaction for the labels counted by the constraints.
+     */
+    static LabelCache seed(Constraint.Constraints constraints, TransactionData data, ReadOperations read) {
+        LabelCache cache = new LabelCache();
+        for (LabelEntry entry : data.removedLabels()) cache.seed(constraints, entry, false, read);
+        for (LabelEntry entry : data.assignedLabels()) cache.seed(constraints, entry, true, read);
+        return cache;
+    }
+
+    private void seed(Constraint.Constraints constraints, LabelEntry entry, boolean has, ReadOperations read) {
+        if (!constraints.matches(entry.label())) return;
+        int labelId = read.labelGetForName(entry.label().name());
+        if (labelId >= 0) put(entry.node().getId(), labelId, has);
+    }
+
+    boolean hasLabel(ReadOperations read, long nodeId, int labelId) throws EntityNotFoundException {
+        int bit = bit(labelId);
+        if (bit == 0) return read.nodeHasLabel(nodeId, labelId);
+        int flags = nodes.get(nodeId);
+        if (flags != NONE && (flags & bit << KNOWN_SHIFT) != 0) return (flags & bit) != 0;
+        boolean has = read.nodeHasLabel(nodeId, labelId);
+        put(nodeId, flags, bit, has);
+        return has;
+    }
+
+    private void put(long nodeId, int labelId, boolean has) {
+        int bit = bit(labelId);
+        if (bit != 0) put(nodeId, nodes.get(nodeId), bit, has);
+    }
+
+    private void put(long nodeId, int flags, int bit, boolean has) {
+        if (flags == NONE) {
+            if (nodes.size() >= MAX_NODES) return;
+            flags = 0;
+        }
+        nodes.put(nodeId, flags | bit << KNOWN_SHIFT | (has ? bit : 0));
+    }
+
+    /**
+     * @return the bit of the label id, assigning one on first use, or 0 if all are taken
+     */
+    private int bit(int labelId) {
+        for (int i = 0; i < labels; i++) {
+            if (labelIds[i] == labelId) return 1 << i;
+        }
+        if (labels == MAX_LABELS) return 0;
+        labelIds[labels] = labelId;
+        return 1 << labels++;
+    }
+
+    /**
+     * @return the number of cached nodes
+     */
+    int size() {
+        return nodes.size();
+    }
+}
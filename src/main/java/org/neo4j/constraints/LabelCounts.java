@@ -0,0 +1,326 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.helpers.NamedThreadFactory;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * In-memory node counts of the labels of {@link CountConstraint}s, counted once by a parallel node scan and then adjusted
+ * by the label changes of the committing transactions.
+ * <p>
+ * Each label has two counters: {@code upper} includes the increases of transactions that are still committing,
+ * {@code lower} their decreases. An increase is reserved on {@code upper} against the maximum and a decrease on
+ * {@code lower} against the minimum with a compare-and-set before commit, the other counter follows after the
+ * commit. So concurrent commits can't together overshoot a bound, and a rollback only undoes its reservation.
+ * <p>
+ * A label is counted while commits go on: its gate is closed first, so that commits changing the label wait, then
+ * the transactions that changed labels before the gate was seen are drained, then the label is scanned and its
+ * counter installed, then the gate opens again. Commits that change other labels only register as in flight,
+ * which never blocks. Like {@link NodeLocks} the registration is not owned by a thread, as the kernel may run
+ * afterCommit or afterRollback on another thread than beforeCommit.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class LabelCounts {
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    // closed gates of the labels that are being counted
+    private final ConcurrentMap<String, CountDownLatch> gates = new ConcurrentHashMap<>();
+    // the transactions that change labels register in the current phase, a count drains the previous one
+    private final AtomicReference<Phase> phase = new AtomicReference<>(new Phase());
+    // opened by the first initialization, until then commits changing constrained labels wait
+    private final CountDownLatch initialized = new CountDownLatch(1);
+
+    private static class Counter {
+        private final AtomicLong upper, lower;
+
+        private Counter(long count) {
+            this.upper = new AtomicLong(count);
+            this.lower = new AtomicLong(count);
+        }
+    }
+
+    /**
+     * The committing transactions that registered while it was the current phase.
+     */
+    private static class Phase {
+        private final AtomicInteger active = new AtomicInteger();
+
+        private void exit() {
+            if (active.decrementAndGet() > 0) return;
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+
+        private synchronized void awaitDrained() throws InterruptedException {
+            while (active.get() > 0) wait();
+        }
+    }
+
+    /**
+     * @return the count of the label including the increases of committing transactions, or -1 if it is not counted
+     */
+    public long count(String label) {
+        Counter counter = counters.get(label);
+        return counter == null ? -1 : counter.upper.get();
+    }
+
+    /**
+     * Counts the labels that are not counted yet with a parallel scan of the nodes and stops counting the labels
+     * that are no longer constrained. Only commits that change the labels being counted wait meanwhile.
+     */
+    public void initialize(GraphDatabaseService db, Set<String> labels, int threads) throws InterruptedException {
+        counters.keySet().retainAll(labels);
+        Set<String> missing = new HashSet<>(labels);
+        missing.removeAll(counters.keySet());
+        CountDownLatch gate = new CountDownLatch(1);
+        for (String label : missing) gates.put(label, gate);
+        try {
+            if (missing.isEmpty()) return;
+            // transactions that registered before the gates were closed may change the labels unseen
+            phase.getAndSet(new Phase()).awaitDrained();
+            for (Map.Entry<String, Long> entry : scan(db, missing, threads).entrySet()) {
+                counters.put(entry.getKey(), new Counter(entry.getValue()));
+            }
+        } finally {
+            for (String label : missing) gates.remove(label, gate);
+            gate.countDown();
+            initialized.countDown();
+        }
+    }
+
+    /**
+     * Scans ranges of {@link GraphValidator#RANGE_SIZE} node ids on up to {@code threads} threads.
+     */
+    private static Map<String, Long> scan(final GraphDatabaseService db, final Set<String> labels, int threads) throws InterruptedException {
+        if (labels.isEmpty()) return Collections.emptyMap();
+        final long highId = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(NodeManager.class).getHighestPossibleIdInUse(Node.class) + 1;
+        final AtomicLong nextId = new AtomicLong();
+        threads = (int) Math.max(1, Math.min(highId / GraphValidator.RANGE_SIZE + 1, threads > 0 ? threads : Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new NamedThreadFactory("constraint-label-count"));
+        try {
+            List<Future<Map<String, Long>>> futures = new ArrayList<>(threads);
+            for (int i = 0; i < threads; i++) {
+                futures.add(executor.submit(new Callable<Map<String, Long>>() {
+                    public Map<String, Long> call() {
+                        Map<String, Long> counts = new HashMap<>();
+                        long from;
+                        while ((from = nextId.getAndAdd(GraphValidator.RANGE_SIZE)) < highId) {
+                            count(db, labels, from, Math.min(highId, from + GraphValidator.RANGE_SIZE), counts);
+                        }
+                        return counts;
+                    }
+                }));
+            }
+            Map<String, Long> result = new HashMap<>();
+            for (String label : labels) result.put(label, 0L);
+            for (Future<Map<String, Long>> future : futures) {
+                try {
+                    for (Map.Entry<String, Long> entry : future.get().entrySet()) add(result, entry.getKey(), entry.getValue());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("Could not count the labels " + labels, e.getCause());
+                }
+            }
+            return result;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void count(GraphDatabaseService db, Set<String> labels, long from, long to, Map<String, Long> counts) {
+        try (Transaction tx = db.beginTx()) {
+            for (long id = from; id < to; id++) {
+                Node node;
+                try {
+                    node = db.getNodeById(id);
+                } catch (NotFoundException e) {
+                    continue;
+                }
+                for (Label label : node.getLabels()) {
+                    if (labels.contains(label.name())) add(counts, label.name(), 1);
+                }
+            }
+            tx.success();
+        }
+    }
+
+    /**
+     * Registers a transaction that {@link #hasLabelChanges changes labels} and reserves its count changes. Waits
+     * while a label it changes is being counted.
+     * @param force true to reserve even if bounds are violated, which are still reported
+     * @return the reservation to apply after commit or discard after rollback, null if a bound is violated
+     */
+    Reservation reserve(CountConstraint.Constraints constraints, TransactionData data, boolean force, Collection<CountConstraint.Violation> violations) {
+        return reserve(constraints, changes(data), force, violations);
+    }
+
+    Reservation reserve(CountConstraint.Constraints constraints, Map<String, Long> changes, boolean force, Collection<CountConstraint.Violation> violations) {
+        for (String label : changes.keySet()) {
+            if (!constraints.get(label).isEmpty()) {
+                await(initialized);
+                break;
+            }
+        }
+        Reservation reservation = new Reservation(enter(changes.keySet()));
+        try {
+            for (Map.Entry<String, Long> entry : changes.entrySet()) {
+                Counter counter = counters.get(entry.getKey());
+                List<CountConstraint> bounds = constraints.get(entry.getKey());
+                if (counter == null) {
+                    if (bounds.isEmpty()) continue;
+                    // e.g. the count on startup failed, the bounds can't be checked then
+                    throw new IllegalStateException("The nodes with label " + entry.getKey() + " are not counted");
+                }
+                long delta = entry.getValue();
+                if (reserve(counter, delta, bounds, force, violations)) {
+                    reservation.add(counter, delta);
+                } else {
+                    break;
+                }
+            }
+            if (!violations.isEmpty() && !force) {
+                reservation.discard();
+                return null;
+            }
+            return reservation;
+        } catch (RuntimeException e) {
+            reservation.discard();
+            throw e;
+        }
+    }
+
+    /**
+     * Registers in the current phase once none of the labels is being counted.
+     */
+    private Phase enter(Set<String> labels) {
+        while (true) {
+            Phase current = phase.get();
+            current.active.incrementAndGet();
+            if (phase.get() != current) {
+                current.exit(); // a count started draining meanwhile
+                continue;
+            }
+            CountDownLatch gate = null;
+            for (String label : labels) {
+                if ((gate = gates.get(label)) != null) break;
+            }
+            if (gate == null) return current;
+            current.exit();
+            await(gate);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the label counts", e);
+        }
+    }
+
+    static boolean hasLabelChanges(TransactionData data) {
+        return data.assignedLabels().iterator().hasNext() || data.removedLabels().iterator().hasNext();
+    }
+
+    /**
+     * @return the net count change per label, labels of created nodes are assigned, those of deleted nodes removed
+     */
+    private static Map<String, Long> changes(TransactionData data) {
+        Map<String, Long> changes = new HashMap<>();
+        for (LabelEntry entry : data.assignedLabels()) add(changes, entry.label().name(), 1);
+        for (LabelEntry entry : data.removedLabels()) add(changes, entry.label().name(), -1);
+        return changes;
+    }
+
+    private static void add(Map<String, Long> counts, String label, long change) {
+        Long count = counts.get(label);
+        counts.put(label, count == null ? change : count + change);
+    }
+
+    /**
+     * @return false if a bound would be violated and the reservation was not forced
+     */
+    private static boolean reserve(Counter counter, long delta, List<CountConstraint> constraints, boolean force,
+                                   Collection<CountConstraint.Violation> violations) {
+        if (delta == 0) return true;
+        AtomicLong reserved = delta > 0 ? counter.upper : counter.lower;
+        // only the bound in the direction of the change, so that a count out of bounds can still be fixed
+        Constraint.Result exceeded = delta > 0 ? Constraint.Result.TO_MANY : Constraint.Result.TO_FEW;
+        while (true) {
+            long current = reserved.get(), next = current + delta;
+            CountConstraint violated = null;
+            for (CountConstraint constraint : constraints) {
+                if (constraint.check(next) == exceeded) violated = constraint;
+            }
+            if (violated != null && !force) {
+                violations.add(new CountConstraint.Violation(violated, next));
+                return false;
+            }
+            if (!reserved.compareAndSet(current, next)) continue;
+            if (violated != null) violations.add(new CountConstraint.Violation(violated, next));
+            return true;
+        }
+    }
+
+    /**
+     * The count changes of one committing transaction, keeps it registered until it is applied or discarded.
+     */
+    static class Reservation {
+        private final Phase phase;
+        private final List<Counter> reserved = new ArrayList<>(2);
+        private final List<Long> deltas = new ArrayList<>(2);
+        private boolean released;
+
+        private Reservation(Phase phase) {
+            this.phase = phase;
+        }
+
+        private void add(Counter counter, long delta) {
+            reserved.add(counter);
+            deltas.add(delta);
+        }
+
+        /**
+         * Moves the other counter along after the commit.
+         */
+        void apply() {
+            for (int i = 0; i < reserved.size(); i++) {
+                long delta = deltas.get(i);
+                if (delta != 0) (delta > 0 ? reserved.get(i).lower : reserved.get(i).upper).addAndGet(delta);
+            }
+            release();
+        }
+
+        /**
+         * Takes back the reservation after a rollback.
+         */
+        void discard() {
+            for (int i = 0; i < reserved.size(); i++) {
+                long delta = deltas.get(i);
+                if (delta != 0) (delta > 0 ? reserved.get(i).upper : reserved.get(i).lower).addAndGet(-delta);
+            }
+            release();
+        }
+
+        private void release() {
+            if (released) return;
+            released = true;
+            phase.exit();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package org.neo4j.constraints;
+
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.kernel.DeadlockDetectedException;
+
+import java.util.BitSet;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Striped locks on node ids, held from the check before a commit until the commit finished. Transactions that
+ * check the same nodes are thus checked one after the other, and the later one counts the committed changes of
+ * the earlier one. The stripes of a transaction are acquired in ascending order, so transactions waiting for each
+ * other's stripes can't deadlock.
+ * <p>
+ * Stripes are semaphores, as the commit may be completed by another thread than the one that checked it.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class NodeLocks {
+    private final Semaphore[] stripes;
+    private final int shift;
+    private final long timeoutMillis;
+
+    /**
+     * @param stripes number of stripes, rounded up to a power of two
+     */
+    public NodeLocks(int stripes, long timeoutMillis) {
+        int size = stripes <= 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.stripes = new Semaphore[size];
+        for (int i = 0; i < size; i++) this.stripes[i] = new Semaphore(1);
+        this.shift = 64 - Integer.numberOfTrailingZeros(size);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    int stripe(long nodeId) {
+        // fibonacci hashing spreads consecutive ids over all stripes
+        return shift == 64 ? 0 : (int) ((nodeId * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+    /**
+     * @return the acquired stripes, which have to be released after the commit
+     * @throws DeadlockDetectedException if the stripes couldn't be acquired within the timeout, the transaction
+     *                                   can be retried
+     */
+    public Lock lock(PrimitiveLongIterator nodeIds) {
+        BitSet required = new BitSet(stripes.length);
+        while (nodeIds.hasNext()) required.set(stripe(nodeIds.next()));
+        Lock lock = new Lock(required);
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            for (int i = required.nextSetBit(0); i >= 0; i = required.nextSetBit(i + 1)) {
+                if (!stripes[i].tryAcquire(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+                    lock.release();
+                    throw new DeadlockDetectedException("Could not lock the nodes to check within " + timeoutMillis + " ms");
+                }
+                lock.acquired.set(i);
+            }
+        } catch (InterruptedException e) {
+            lock.release();
+            Thread.currentThread().interrupt();
+            throw new DeadlockDetectedException("Interrupted while locking the nodes to check", e);
+        }
+        return lock;
+    }
+
+    public class Lock {
+        private final BitSet acquired;
+
+        private Lock(BitSet required) {
+            this.acquired = new BitSet(required.length());
+        }
+
+        public void release() {
+            for (int i = acquired.nextSetBit(0); i >= 0; i = acquired.nextSetBit(i + 1)) {
+                stripes[i].release();
+            }
+            acquired.clear();
+        }
+
+        int stripes() {
+            return acquired.cardinality();
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package org.neo4j.constraints;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Open addressing hash map from non-negative longs to ints in direct buffers, so that large maps don't burden
+ * the garbage collector. Entries can't be removed, only set to 0. Split into segments to grow beyond the size
+ * of a single buffer.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+class OffHeapLongIntMap implements AutoCloseable {
+    private static final int ENTRY_SIZE = 12; // long key, int value
+    private static final int SEGMENT_BITS = 24;
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+    private static final long EMPTY = -1;
+
+    private List<ByteBuffer> segments;
+    private long capacity;
+    private long size;
+
+    OffHeapLongIntMap(long initialCapacity) {
+        allocate(Math.max(16, Long.highestOneBit(Math.max(1, initialCapacity - 1)) << 1));
+    }
+
+    private void allocate(long capacity) {
+        this.capacity = capacity;
+        this.segments = new ArrayList<>();
+        for (long allocated = 0; allocated < capacity; allocated += SEGMENT_SIZE) {
+            int entries = (int) Math.min(SEGMENT_SIZE, capacity - allocated);
+            ByteBuffer segment = ByteBuffer.allocateDirect(entries * ENTRY_SIZE).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < entries; i++) segment.putLong(i * ENTRY_SIZE, EMPTY);
+            segments.add(segment);
+        }
+    }
+
+    int get(long key, int defaultValue) {
+        long index = find(key);
+        return key(index) == EMPTY ? defaultValue : value(index);
+    }
+
+    boolean containsKey(long key) {
+        return key(find(key)) != EMPTY;
+    }
+
+    void put(long key, int value) {
+        long index = find(key);
+        if (key(index) == EMPTY) {
+            if ((size + 1) * 4 > capacity * 3) {
+                grow();
+                index = find(key);
+            }
+            size++;
+            segment(index).putLong(offset(index), key);
+        }
+        segment(index).putInt(offset(index) + 8, value);
+    }
+
+    void add(long key, int delta) {
+        put(key, get(key, 0) + delta);
+    }
+
+    long size() {
+        return size;
+    }
+
+    interface Visitor {
+        void visit(long key, int value);
+    }
+
+    void visit(Visitor visitor) {
+        for (long index = 0; index < capacity; index++) {
+            long key = key(index);
+            if (key != EMPTY) visitor.visit(key, value(index));
+        }
+    }
+
+    private long find(long key) {
+        long mask = capacity - 1;
+        long index = (key * 0x9E3779B97F4A7C15L >>> 17) & mask;
+        while (true) {
+            long existing = key(index);
+            if (existing == key || existing == EMPTY) return index;
+            index = (index + 1) & mask;
+        }
+    }
+
+    private void grow() {
+        List<ByteBuffer> old = segments;
+        long oldCapacity = capacity;
+        allocate(capacity * 2);
+        size = 0;
+        for (long index = 0; index < oldCapacity; index++) {
+            ByteBuffer segment = old.get((int) (index >>> SEGMENT_BITS));
+            int offset = (int) (index & (SEGMENT_SIZE - 1)) * ENTRY_SIZE;
+            long key = segment.getLong(offset);
+            if (key != EMPTY) put(key, segment.getInt(offset + 8));
+        }
+    }
+
+    private long key(long index) {
+        return segment(index).getLong(offset(index));
+    }
+
+    private int value(long index) {
+        return segment(index).getInt(offset(index) + 8);
+    }
+
+    private ByteBuffer segment(long index) {
+        return segments.get((int) (index >>> SEGMENT_BITS));
+    }
+
+    private int offset(long index) {
+        return (int) (index & (SEGMENT_SIZE - 1)) * ENTRY_SIZE;
+    }
+
+    /**
+     * Drops the buffers, their memory is freed once they are collected.
+     */
+    @Override
+    public void close() {
+        segments = new ArrayList<>();
+        capacity = 0;
+        size = 0;
+    }
+}
@@ -0,0 +1,160 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongIterator;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.NodeManager;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the nodes of large transactions on a fork/join pool. Worker threads don't see the state of the committing
+ * transaction, so they count the committed degrees in their own read transaction and add the transaction's
+ * {@link DegreeChanges}, which are computed up front on the committing thread. Stops once {@code maxViolations}
+ * violations were found. The checks are kept in primitive arrays, result maps are only created for violations.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ParallelChecker {
+    private static final int BATCH_SIZE = 500;
+
+    private final GraphDatabaseService db;
+    private final NodeManager nodeManager;
+    private final ForkJoinPool pool;
+    private final DegreeCounter counter;
+    private final int maxViolations;
+
+    public ParallelChecker(GraphDatabaseService db, ForkJoinPool pool, DegreeCounter counter, int maxViolations) {
+        this.db = db;
+        this.nodeManager = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(NodeManager.class);
+        this.pool = pool;
+        this.counter = counter;
+        this.maxViolations = maxViolations;
+    }
+
+    public Map<Node, Map<Constraint, Result>> check(Constraint.Constraints constraints, PrimitiveLongSet nodeIds, TransactionData data) {
+        DegreeChanges changes = DegreeChanges.collect(constraints.all(), data);
+        Checks checks = new Checks(nodeIds.size());
+        try (PrimitiveLongSet created = Primitive.longSet()) {
+            for (Node node : data.createdNodes()) created.add(node.getId());
+
+            PrimitiveLongIterator it = nodeIds.iterator();
+            while (it.hasNext()) {
+                long nodeId = it.next();
+                Node node = nodeManager.newNodeProxyById(nodeId);
+                if (data.isDeleted(node)) continue;
+                Set<String> labels = Constraint.Constraints.labelNames(node);
+                boolean isCreated = created.contains(nodeId);
+                for (Constraint constraint : constraints.candidates(labels)) {
+                    if (constraint.isFrom(labels)) checks.add(nodeId, constraint, Constraint.TO_SIDE, changes, isCreated);
+                    if (constraint.isTo(labels)) checks.add(nodeId, constraint, Constraint.FROM_SIDE, changes, isCreated);
+                }
+            }
+        }
+
+        ConcurrentMap<Node, Map<Constraint, Result>> errors = new ConcurrentHashMap<>();
+        pool.invoke(new CheckTask(checks, 0, checks.size, errors, new AtomicInteger()));
+        return errors;
+    }
+
+    /**
+     * Column-wise list of node-constraint-side checks.
+     */
+    private static class Checks {
+        private long[] nodeIds;
+        private Constraint[] constraints;
+        private int[] sides;
+        private int[] deltas;
+        private boolean[] created;
+        private int size;
+
+        private Checks(int capacity) {
+            capacity = Math.max(capacity, 16);
+            nodeIds = new long[capacity];
+            constraints = new Constraint[capacity];
+            sides = new int[capacity];
+            deltas = new int[capacity];
+            created = new boolean[capacity];
+        }
+
+        private void add(long nodeId, Constraint constraint, int side, DegreeChanges changes, boolean isCreated) {
+            if (size == nodeIds.length) grow();
+            nodeIds[size] = nodeId;
+            constraints[size] = constraint;
+            sides[size] = side;
+            deltas[size] = changes.delta(nodeId, constraint, side);
+            created[size] = isCreated;
+            size++;
+        }
+
+        private void grow() {
+            int capacity = size * 2;
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+            constraints = Arrays.copyOf(constraints, capacity);
+            sides = Arrays.copyOf(sides, capacity);
+            deltas = Arrays.copyOf(deltas, capacity);
+            created = Arrays.copyOf(created, capacity);
+        }
+    }
+
+    private class CheckTask extends RecursiveAction {
+        private final Checks checks;
+        private final int from, to;
+        private final ConcurrentMap<Node, Map<Constraint, Result>> errors;
+        private final AtomicInteger violations;
+
+        private CheckTask(Checks checks, int from, int to, ConcurrentMap<Node, Map<Constraint, Result>> errors, AtomicInteger violations) {
+            this.checks = checks;
+            this.from = from;
+            this.to = to;
+            this.errors = errors;
+            this.violations = violations;
+        }
+
+        @Override
+        protected void compute() {
+            if (violations.get() >= maxViolations) return;
+            if (to - from > BATCH_SIZE) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new CheckTask(checks, from, middle, errors, violations), new CheckTask(checks, middle, to, errors, violations));
+                return;
+            }
+            try (Transaction tx = db.beginTx()) {
+                for (int i = from; i < to && violations.get() < maxViolations; i++) {
+                    check(i);
+                }
+                tx.success();
+            }
+        }
+
+        private void check(int i) {
+            Constraint constraint = checks.constraints[i];
+            int side = checks.sides[i];
+            int delta = checks.deltas[i];
+            // nodes created in the transaction have no committed relationships
+            int degree = checks.created[i] ? delta : counter.count(constraint, side, nodeManager.newNodeProxyById(checks.nodeIds[i]), delta);
+            Result result = Result.check(degree, constraint.getMin(side), constraint.getMax(side));
+            constraint.recordCheck(result != Result.OK);
+            if (result == Result.OK) return;
+            Node node = nodeManager.newNodeProxyById(checks.nodeIds[i]);
+            Map<Constraint, Result> nodeErrors = errors.get(node);
+            if (nodeErrors == null) {
+                Map<Constraint, Result> existing = errors.putIfAbsent(node, nodeErrors = new ConcurrentHashMap<>());
+                if (existing != null) nodeErrors = existing;
+            }
+            if (nodeErrors.put(constraint, result) == null) violations.incrementAndGet();
+        }
+    }
+}
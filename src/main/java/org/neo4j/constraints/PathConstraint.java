@@ -0,0 +1,396 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.*;
+
+import static org.neo4j.constraints.Constraint.MANY_VALUE;
+
+/**
+ * Cardinality constraint on a path of several hops, e.g.
+ * {@code (:Order)-[:CONTAINS]->(:Item)-[:SUPPLIED_BY]->(:Supplier) TO 1..many:1}. Like for single hops, the first
+ * bounds limit the distinct start nodes that reach an end node, the second ones the distinct end nodes reached from
+ * a start node. Every node of the path has to have the label of its position.
+ * <p>
+ * The counts are breadth first traversals that only follow the relationships of each hop's type and direction to
+ * nodes with the next label, and stop as soon as the outcome is known.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class PathConstraint {
+    private final Label[] labels;
+    private final RelationshipType[] types;
+    private final Direction[] directions;
+    private final int minFrom, maxFrom, minTo, maxTo;
+
+    public PathConstraint(List<String> labels, List<String> types, List<Direction> directions, int minFrom, int maxFrom, int minTo, int maxTo) {
+        if (types.size() < 1 || labels.size() != types.size() + 1 || directions.size() != types.size()) {
+            throw new IllegalArgumentException("A path needs one label more than relationship types");
+        }
+        this.labels = new Label[labels.size()];
+        for (int i = 0; i < labels.size(); i++) this.labels[i] = DynamicLabel.label(labels.get(i));
+        this.types = new RelationshipType[types.size()];
+        for (int i = 0; i < types.size(); i++) this.types[i] = DynamicRelationshipType.withName(types.get(i));
+        this.directions = directions.toArray(new Direction[directions.size()]);
+        this.minFrom = minFrom;
+        this.maxFrom = maxFrom;
+        this.minTo = minTo;
+        this.maxTo = maxTo;
+    }
+
+    /**
+     * @return the number of hops
+     */
+    public int length() {
+        return types.length;
+    }
+
+    public Label getStartLabel() {
+        return labels[0];
+    }
+
+    public Label getEndLabel() {
+        return labels[types.length];
+    }
+
+    /**
+     * Counts the distinct end nodes reached from a start node, or start nodes reaching an end node, only as far as
+     * needed to decide the count against {@code min} and {@code max}.
+     * @param forward true to count from a start node
+     */
+    int count(Node node, boolean forward, int min, int max) {
+        int limit = max != MANY_VALUE ? max + 1 : Math.max(min, 0);
+        if (limit == 0) return 0;
+        Collection<Node> frontier = Collections.singleton(node);
+        for (int step = 0; step < types.length; step++) {
+            boolean last = step == types.length - 1;
+            Collection<Node> next = new LinkedHashSet<>();
+            int hop = forward ? step : types.length - 1 - step;
+            for (Node current : frontier) {
+                for (Node other : neighbours(current, hop, forward)) {
+                    if (next.add(other) && last && next.size() == limit) return limit;
+                }
+            }
+            if (next.isEmpty()) return 0;
+            frontier = next;
+        }
+        return frontier.size();
+    }
+
+    /**
+     * @return the nodes one hop further, forward from position {@code hop} or backward from position {@code hop+1}
+     */
+    private Collection<Node> neighbours(Node node, int hop, boolean forward) {
+        Direction direction = forward ? directions[hop] : directions[hop].reverse();
+        Label label = labels[forward ? hop + 1 : hop];
+        Collection<Node> result = new ArrayList<>();
+        for (Relationship relationship : node.getRelationships(types[hop], direction)) {
+            Node other = relationship.getOtherNode(node);
+            if (other.hasLabel(label)) result.add(other);
+        }
+        return result;
+    }
+
+    /**
+     * @return the nodes at the start (backward) or end (forward) of the paths through {@code node} at {@code position}
+     */
+    Collection<Node> reach(Node node, int position, boolean forward) {
+        Collection<Node> frontier = Collections.singleton(node);
+        int steps = forward ? types.length - position : position;
+        for (int step = 0; step < steps && !frontier.isEmpty(); step++) {
+            int hop = forward ? position + step : position - 1 - step;
+            Collection<Node> next = new LinkedHashSet<>();
+            for (Node current : frontier) next.addAll(neighbours(current, hop, forward));
+            frontier = next;
+        }
+        return frontier;
+    }
+
+    /**
+     * @return the result for a start node, OK if the end node count is not bounded
+     */
+    Result checkStart(Node node) {
+        if (!isBounded(minTo, maxTo)) return Result.OK;
+        return Result.check(count(node, true, minTo, maxTo), minTo, maxTo);
+    }
+
+    Result checkEnd(Node node) {
+        if (!isBounded(minFrom, maxFrom)) return Result.OK;
+        return Result.check(count(node, false, minFrom, maxFrom), minFrom, maxFrom);
+    }
+
+    private static boolean isBounded(int min, int max) {
+        return min > 0 || max != MANY_VALUE;
+    }
+
+    /**
+     * Checks all existing start and end nodes.
+     * @return number of violations
+     */
+    long countViolations(GraphDatabaseService db) {
+        long violations = 0;
+        GlobalGraphOperations operations = GlobalGraphOperations.at(db);
+        try (Transaction tx = db.beginTx()) {
+            if (isBounded(minTo, maxTo)) {
+                for (Node node : operations.getAllNodesWithLabel(getStartLabel())) {
+                    if (checkStart(node) != Result.OK) violations++;
+                }
+            }
+            if (isBounded(minFrom, maxFrom)) {
+                for (Node node : operations.getAllNodesWithLabel(getEndLabel())) {
+                    if (checkEnd(node) != Result.OK) violations++;
+                }
+            }
+            tx.success();
+        }
+        return violations;
+    }
+
+    /**
+     * Adds the start and end nodes of the paths a changed relationship is part of.
+     * @param removed true for a deleted relationship, which may have been part of paths through labels removed by
+     *                the same transaction
+     */
+    private void affected(Relationship relationship, boolean removed, Set<Long> deleted, Collection<Node> starts, Collection<Node> ends) {
+        for (int hop = 0; hop < types.length; hop++) {
+            if (!relationship.isType(types[hop])) continue;
+            if (directions[hop] != Direction.INCOMING) {
+                affected(relationship.getStartNode(), relationship.getEndNode(), hop, removed, deleted, starts, ends);
+            }
+            if (directions[hop] != Direction.OUTGOING) {
+                affected(relationship.getEndNode(), relationship.getStartNode(), hop, removed, deleted, starts, ends);
+            }
+        }
+    }
+
+    private void affected(Node from, Node to, int hop, boolean removed, Set<Long> deleted, Collection<Node> starts, Collection<Node> ends) {
+        boolean fromDeleted = deleted.contains(from.getId()), toDeleted = deleted.contains(to.getId());
+        // the labels of deleted nodes can't be read, their own checks are skipped anyway
+        if (!removed && (!fromDeleted && !from.hasLabel(labels[hop]) || !toDeleted && !to.hasLabel(labels[hop + 1]))) return;
+        if (!fromDeleted) starts.addAll(reach(from, hop, false));
+        if (!toDeleted) ends.addAll(reach(to, hop + 1, true));
+    }
+
+    private void affected(Node node, Label label, Collection<Node> starts, Collection<Node> ends) {
+        for (int position = 0; position < labels.length; position++) {
+            if (!labels[position].name().equals(label.name())) continue;
+            starts.addAll(reach(node, position, false));
+            ends.addAll(reach(node, position, true));
+        }
+    }
+
+    private static String bounds(int min, int max) {
+        return (min == MANY_VALUE ? "many" : String.valueOf(min)) + ".." + (max == MANY_VALUE ? "many" : String.valueOf(max));
+    }
+
+    /**
+     * @return the pattern as parsed by {@link ConstraintParser#parsePath}
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("(:").append(labels[0].name()).append(')');
+        for (int hop = 0; hop < types.length; hop++) {
+            sb.append(directions[hop] == Direction.INCOMING ? "<-" : "-").append("[:").append(types[hop].name()).append("]")
+                    .append(directions[hop] == Direction.OUTGOING ? "->" : "-").append("(:").append(labels[hop + 1].name()).append(')');
+        }
+        return sb.append(" TO ").append(bounds(minFrom, maxFrom)).append(':').append(bounds(minTo, maxTo)).toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof PathConstraint && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * A start or end node whose path count violates a constraint.
+     */
+    public static class Violation extends ConstraintViolation {
+        private final long nodeId;
+        private final PathConstraint constraint;
+        private final Result result;
+        private final boolean start;
+
+        Violation(long nodeId, PathConstraint constraint, Result result, boolean start) {
+            this.nodeId = nodeId;
+            this.constraint = constraint;
+            this.result = result;
+            this.start = start;
+        }
+
+        public long getNodeId() {
+            return nodeId;
+        }
+
+        @Override
+        public long getId() {
+            return nodeId;
+        }
+
+        @Override
+        public PathConstraint getConstraint() {
+            return constraint;
+        }
+
+        @Override
+        public Result getResult() {
+            return result;
+        }
+
+        /**
+         * @return true if the end nodes reached from this start node are violating, false for an end node
+         */
+        public boolean isStart() {
+            return start;
+        }
+
+        @Override
+        public String toString() {
+            return (start ? "Start node " : "End node ") + nodeId + " " + result + " of " + constraint;
+        }
+    }
+
+    /**
+     * The path constraints with the labels and types they depend on, so that changes of other labels and types
+     * are dropped without traversing.
+     */
+    static class Constraints {
+        private final List<PathConstraint> constraints;
+        private final Set<String> labels = new HashSet<>();
+        private final Set<String> types = new HashSet<>();
+
+        Constraints(Collection<PathConstraint> constraints) {
+            this.constraints = new ArrayList<>(new LinkedHashSet<>(constraints));
+            for (PathConstraint constraint : this.constraints) {
+                for (Label label : constraint.labels) labels.add(label.name());
+                for (RelationshipType type : constraint.types) types.add(type.name());
+            }
+        }
+
+        static Constraints from(String[] data) {
+            List<PathConstraint> result = new ArrayList<>();
+            if (data != null) {
+                for (String constraint : data) result.add(ConstraintParser.parsePath(constraint));
+            }
+            return new Constraints(result);
+        }
+
+        String[] toArray() {
+            String[] result = new String[constraints.size()];
+            for (int i = 0; i < result.length; i++) result[i] = constraints.get(i).toString();
+            return result;
+        }
+
+        boolean isEmpty() {
+            return constraints.isEmpty();
+        }
+
+        List<PathConstraint> all() {
+            return Collections.unmodifiableList(constraints);
+        }
+
+        Constraints with(PathConstraint constraint) {
+            List<PathConstraint> result = new ArrayList<>(constraints);
+            result.add(constraint);
+            return new Constraints(result);
+        }
+
+        /**
+         * Checks the start and end nodes of the paths through the nodes and relationships changed by the transaction.
+         * @return the violations, empty if there are none
+         */
+        List<Violation> check(TransactionData data) {
+            Set<Long> deleted = new HashSet<>();
+            for (Node node : data.deletedNodes()) deleted.add(node.getId());
+            List<Violation> violations = new ArrayList<>();
+            for (PathConstraint constraint : constraints) {
+                Collection<Node> starts = new LinkedHashSet<>(), ends = new LinkedHashSet<>();
+                for (Relationship relationship : data.createdRelationships()) affected(constraint, relationship, false, deleted, starts, ends);
+                for (Relationship relationship : data.deletedRelationships()) affected(constraint, relationship, true, deleted, starts, ends);
+                for (LabelEntry entry : data.assignedLabels()) affected(constraint, entry, deleted, starts, ends);
+                for (LabelEntry entry : data.removedLabels()) affected(constraint, entry, deleted, starts, ends);
+                check(constraint, starts, ends, deleted, violations);
+            }
+            return violations;
+        }
+
+        private static void check(PathConstraint constraint, Collection<Node> starts, Collection<Node> ends, Set<Long> deleted, List<Violation> violations) {
+            for (Node start : starts) {
+                if (deleted.contains(start.getId()) || !start.hasLabel(constraint.getStartLabel())) continue;
+                Result result = constraint.checkStart(start);
+                if (result != Result.OK) violations.add(new Violation(start.getId(), constraint, result, true));
+            }
+            for (Node end : ends) {
+                if (deleted.contains(end.getId()) || !end.hasLabel(constraint.getEndLabel())) continue;
+                Result result = constraint.checkEnd(end);
+                if (result != Result.OK) violations.add(new Violation(end.getId(), constraint, result, false));
+            }
+        }
+
+        /**
+         * Collects the end nodes of the relationships and the nodes with labels that the transaction changed, to be
+         * checked after the commit with {@link #check(Map)}, together with the constrained labels removed from them.
+         */
+        void collect(TransactionData data, Map<Long, Set<String>> nodes) {
+            for (Relationship relationship : data.createdRelationships()) collect(relationship, nodes);
+            for (Relationship relationship : data.deletedRelationships()) collect(relationship, nodes);
+            for (LabelEntry entry : data.assignedLabels()) {
+                if (labels.contains(entry.label().name())) removed(nodes, entry.node().getId());
+            }
+            for (LabelEntry entry : data.removedLabels()) {
+                if (labels.contains(entry.label().name())) removed(nodes, entry.node().getId()).add(entry.label().name());
+            }
+            for (Node node : data.deletedNodes()) nodes.remove(node.getId());
+        }
+
+        private void collect(Relationship relationship, Map<Long, Set<String>> nodes) {
+            if (!types.contains(relationship.getType().name())) return;
+            removed(nodes, relationship.getStartNode().getId());
+            removed(nodes, relationship.getEndNode().getId());
+        }
+
+        private static Set<String> removed(Map<Long, Set<String>> nodes, long nodeId) {
+            Set<String> removed = nodes.get(nodeId);
+            if (removed == null) nodes.put(nodeId, removed = new HashSet<>(1));
+            return removed;
+        }
+
+        /**
+         * Checks the start and end nodes of the paths through the given nodes as the graph is now. A node is also
+         * followed from the positions of the labels it had removed, whose paths it no longer continues.
+         */
+        List<Violation> check(Map<Node, Set<String>> nodes) {
+            List<Violation> violations = new ArrayList<>();
+            for (PathConstraint constraint : constraints) {
+                Collection<Node> starts = new LinkedHashSet<>(), ends = new LinkedHashSet<>();
+                for (Map.Entry<Node, Set<String>> entry : nodes.entrySet()) {
+                    Node node = entry.getKey();
+                    for (Label label : node.getLabels()) {
+                        if (labels.contains(label.name())) constraint.affected(node, label, starts, ends);
+                    }
+                    for (String label : entry.getValue()) constraint.affected(node, DynamicLabel.label(label), starts, ends);
+                }
+                check(constraint, starts, ends, Collections.<Long>emptySet(), violations);
+            }
+            return violations;
+        }
+
+        private void affected(PathConstraint constraint, Relationship relationship, boolean removed, Set<Long> deleted, Collection<Node> starts, Collection<Node> ends) {
+            if (types.contains(relationship.getType().name())) constraint.affected(relationship, removed, deleted, starts, ends);
+        }
+
+        private void affected(PathConstraint constraint, LabelEntry entry, Set<Long> deleted, Collection<Node> starts, Collection<Node> ends) {
+            if (!labels.contains(entry.label().name()) || deleted.contains(entry.node().getId())) return;
+            constraint.affected(entry.node(), entry.label(), starts, ends);
+        }
+    }
+}
@@ -0,0 +1,486 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.*;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.lang.reflect.Array;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Constraint on the values of a property of nodes with a label or relationships of a type, e.g.
+ * {@code (:Person).age IN 0..150} or {@code [:WORKS_FOR].since IS integer}. The rule is compiled into a
+ * {@link Validator} when the constraint is created.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class PropertyConstraint {
+    public static final String MANY = "many";
+
+    public enum Kind {
+        /** value type: string, integer, float, number or boolean */
+        IS,
+        /** numeric range */
+        IN,
+        /** length of strings and arrays */
+        LENGTH,
+        /** regular expression for strings */
+        MATCHES
+    }
+
+    private final boolean relationship;
+    private final String owner;
+    private final String key;
+    private final Kind kind;
+    private final String argument;
+    private final String min, max;
+    private final Label label;
+    private final RelationshipType type;
+    private final Validator validator;
+
+    /**
+     * @param owner the label of the nodes or the type of the relationships
+     * @param argument the value type for {@link Kind#IS}, the regular expression for {@link Kind#MATCHES}
+     * @param min bounds for {@link Kind#IN} and {@link Kind#LENGTH}, {@link #MANY} for no bound
+     */
+    public PropertyConstraint(boolean relationship, String owner, String key, Kind kind, String argument, String min, String max) {
+        this.relationship = relationship;
+        this.owner = owner;
+        this.key = key;
+        this.kind = kind;
+        this.argument = argument;
+        this.min = min;
+        this.max = max == null ? min : max;
+        this.label = relationship ? null : DynamicLabel.label(owner);
+        this.type = relationship ? DynamicRelationshipType.withName(owner) : null;
+        this.validator = compile();
+    }
+
+    private Validator compile() {
+        switch (kind) {
+            case IS:
+                return TypeValidator.of(argument);
+            case IN:
+                if (isIntegral(min) && isIntegral(max)) {
+                    return new LongRange(MANY.equals(min) ? Long.MIN_VALUE : Long.parseLong(min),
+                            MANY.equals(max) ? Long.MAX_VALUE : Long.parseLong(max));
+                }
+                return new DoubleRange(MANY.equals(min) ? Double.NEGATIVE_INFINITY : Double.parseDouble(min),
+                        MANY.equals(max) ? Double.POSITIVE_INFINITY : Double.parseDouble(max));
+            case LENGTH:
+                return new LengthRange(Constraint.parseValue(min, 0), Constraint.parseValue(max, Constraint.MANY_VALUE));
+            case MATCHES:
+                return new PatternValidator(Pattern.compile(argument));
+            default:
+                throw new IllegalArgumentException("Unknown property constraint " + kind);
+        }
+    }
+
+    private static boolean isIntegral(String bound) {
+        return MANY.equals(bound) || bound.indexOf('.') < 0;
+    }
+
+    public boolean isRelationship() {
+        return relationship;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the label of the nodes or the type of the relationships
+     */
+    public String getOwner() {
+        return owner;
+    }
+
+    public boolean accepts(Object value) {
+        return validator.accepts(value);
+    }
+
+    boolean appliesTo(Node node) {
+        return !relationship && node.hasLabel(label);
+    }
+
+    boolean appliesTo(Relationship relationship) {
+        return this.relationship && relationship.isType(type);
+    }
+
+    /**
+     * Checks the existing nodes of the label or relationships of the type.
+     * @return number of violating nodes or relationships
+     */
+    long countViolations(GraphDatabaseService db) {
+        long violations = 0;
+        GlobalGraphOperations operations = GlobalGraphOperations.at(db);
+        try (Transaction tx = db.beginTx()) {
+            if (relationship) {
+                for (Relationship entity : operations.getAllRelationships()) {
+                    if (entity.isType(type) && !accepts(entity)) violations++;
+                }
+            } else {
+                for (Node entity : operations.getAllNodesWithLabel(label)) {
+                    if (!accepts(entity)) violations++;
+                }
+            }
+            tx.success();
+        }
+        return violations;
+    }
+
+    private boolean accepts(PropertyContainer entity) {
+        Object value = entity.getProperty(key, null);
+        return value == null || validator.accepts(value);
+    }
+
+    @Override
+    public String toString() {
+        String pattern = relationship ? "[:" + owner + "]" : "(:" + owner + ")";
+        String rule;
+        switch (kind) {
+            case IN:
+            case LENGTH:
+                rule = min + ".." + max;
+                break;
+            case MATCHES:
+                rule = '"' + argument.replace("\"", "\\\"") + '"';
+                break;
+            default:
+                rule = argument;
+        }
+        return pattern + "." + key + " " + kind + " " + rule;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof PropertyConstraint && toString().equals(o.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+
+    /**
+     * Compiled check of a single property value.
+     */
+    abstract static class Validator {
+        abstract boolean accepts(Object value);
+    }
+
+    private static class TypeValidator extends Validator {
+        private static final String[] TYPES = {"string", "integer", "float", "number", "boolean"};
+        private final Class<?>[] classes;
+
+        private TypeValidator(Class<?>... classes) {
+            this.classes = classes;
+        }
+
+        static TypeValidator of(String type) {
+            switch (type.toLowerCase()) {
+                case "string":
+                    return new TypeValidator(String.class);
+                case "integer":
+                    return new TypeValidator(Long.class, Integer.class, Short.class, Byte.class);
+                case "float":
+                    return new TypeValidator(Double.class, Float.class);
+                case "number":
+                    return new TypeValidator(Number.class);
+                case "boolean":
+                    return new TypeValidator(Boolean.class);
+                default:
+                    throw new IllegalArgumentException("Unknown property type " + type + ", expected one of " + Arrays.toString(TYPES));
+            }
+        }
+
+        boolean accepts(Object value) {
+            for (Class<?> type : classes) {
+                if (type.isInstance(value)) return true;
+            }
+            return false;
+        }
+    }
+
+    private static class LongRange extends Validator {
+        private final long min, max;
+
+        private LongRange(long min, long max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean accepts(Object value) {
+            if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                long number = ((Number) value).longValue();
+                return number >= min && number <= max;
+            }
+            if (!(value instanceof Number)) return false;
+            double number = ((Number) value).doubleValue();
+            return number >= min && number <= max;
+        }
+    }
+
+    private static class DoubleRange extends Validator {
+        private final double min, max;
+
+        private DoubleRange(double min, double max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean accepts(Object value) {
+            if (!(value instanceof Number)) return false;
+            double number = ((Number) value).doubleValue();
+            return number >= min && number <= max;
+        }
+    }
+
+    private static class LengthRange extends Validator {
+        private final int min, max;
+
+        private LengthRange(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        boolean accepts(Object value) {
+            int length;
+            if (value instanceof String) length = ((String) value).length();
+            else if (value.getClass().isArray()) length = Array.getLength(value);
+            else return false;
+            return Constraint.Result.check(length, min, max) == Constraint.Result.OK;
+        }
+    }
+
+    private static class PatternValidator extends Validator {
+        private final Pattern pattern;
+
+        private PatternValidator(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        boolean accepts(Object value) {
+            return value instanceof String && pattern.matcher((String) value).matches();
+        }
+    }
+
+    /**
+     * A node or relationship with a property value violating a constraint.
+     */
+    public static class Violation extends ConstraintViolation {
+        private final long id;
+        private final PropertyConstraint constraint;
+        private final Object value;
+
+        Violation(long id, PropertyConstraint constraint, Object value) {
+            this.id = id;
+            this.constraint = constraint;
+            this.value = value;
+        }
+
+        /**
+         * @return the node or relationship id, depending on {@link PropertyConstraint#isRelationship()}
+         */
+        @Override
+        public long getId() {
+            return id;
+        }
+
+        @Override
+        public PropertyConstraint getConstraint() {
+            return constraint;
+        }
+
+        /**
+         * @return null, a property value is either valid or not
+         */
+        @Override
+        public Result getResult() {
+            return null;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Violation)) return false;
+            Violation other = (Violation) o;
+            return id == other.id && constraint.equals(other.constraint);
+        }
+
+        @Override
+        public int hashCode() {
+            return (int) (id ^ (id >>> 32)) * 31 + constraint.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            String string = value != null && value.getClass().isArray() ? Arrays.deepToString(new Object[]{value}) : String.valueOf(value);
+            return (constraint.isRelationship() ? "Relationship " : "Node ") + id + " violates " + constraint + " with " + string;
+        }
+    }
+
+    /**
+     * Property constraints indexed by property key, so that only assigned properties with constrained keys are
+     * looked at, and by label for nodes that get a constrained label.
+     */
+    static class Constraints {
+        private static final PropertyConstraint[] NONE = new PropertyConstraint[0];
+        private final List<PropertyConstraint> constraints;
+        private final Map<String, PropertyConstraint[]> nodeKeys = new HashMap<>();
+        private final Map<String, PropertyConstraint[]> relationshipKeys = new HashMap<>();
+        private final Map<String, PropertyConstraint[]> byLabel = new HashMap<>();
+
+        Constraints(Collection<PropertyConstraint> constraints) {
+            this.constraints = new ArrayList<>(new LinkedHashSet<>(constraints));
+            for (PropertyConstraint constraint : this.constraints) {
+                if (constraint.relationship) {
+                    addTo(relationshipKeys, constraint.key, constraint);
+                } else {
+                    addTo(nodeKeys, constraint.key, constraint);
+                    addTo(byLabel, constraint.owner, constraint);
+                }
+            }
+        }
+
+        private static void addTo(Map<String, PropertyConstraint[]> index, String key, PropertyConstraint constraint) {
+            PropertyConstraint[] existing = index.get(key);
+            if (existing == null) existing = NONE;
+            PropertyConstraint[] result = Arrays.copyOf(existing, existing.length + 1);
+            result[existing.length] = constraint;
+            index.put(key, result);
+        }
+
+        static Constraints from(String[] data) {
+            List<PropertyConstraint> result = new ArrayList<>();
+            if (data != null) {
+                for (String constraint : data) result.add(ConstraintParser.parseProperty(constraint));
+            }
+            return new Constraints(result);
+        }
+
+        String[] toArray() {
+            String[] result = new String[constraints.size()];
+            for (int i = 0; i < result.length; i++) result[i] = constraints.get(i).toString();
+            return result;
+        }
+
+        boolean isEmpty() {
+            return constraints.isEmpty();
+        }
+
+        List<PropertyConstraint> all() {
+            return Collections.unmodifiableList(constraints);
+        }
+
+        Constraints with(PropertyConstraint constraint) {
+            List<PropertyConstraint> result = new ArrayList<>(constraints);
+            result.add(constraint);
+            return new Constraints(result);
+        }
+
+        /**
+         * Checks the assigned properties with constrained keys and the constrained properties of nodes that got
+         * a constrained label. Nodes and relationships are only read for values that fail a validator.
+         * @return the violations, empty if there are none
+         */
+        Collection<Violation> check(TransactionData data) {
+            Collection<Violation> violations = null;
+            if (!nodeKeys.isEmpty()) {
+                for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+                    PropertyConstraint[] candidates = nodeKeys.get(entry.key());
+                    if (candidates == null) continue;
+                    for (PropertyConstraint constraint : candidates) {
+                        if (constraint.accepts(entry.value())) continue;
+                        Node node = entry.entity();
+                        if (data.isDeleted(node) || !constraint.appliesTo(node)) continue;
+                        violations = add(violations, new Violation(node.getId(), constraint, entry.value()));
+                    }
+                }
+                for (LabelEntry entry : data.assignedLabels()) {
+                    PropertyConstraint[] candidates = byLabel.get(entry.label().name());
+                    if (candidates == null || data.isDeleted(entry.node())) continue;
+                    for (PropertyConstraint constraint : candidates) {
+                        Object value = entry.node().getProperty(constraint.key, null);
+                        if (value == null || constraint.accepts(value)) continue;
+                        violations = add(violations, new Violation(entry.node().getId(), constraint, value));
+                    }
+                }
+            }
+            if (!relationshipKeys.isEmpty()) {
+                for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()) {
+                    PropertyConstraint[] candidates = relationshipKeys.get(entry.key());
+                    if (candidates == null) continue;
+                    for (PropertyConstraint constraint : candidates) {
+                        if (constraint.accepts(entry.value())) continue;
+                        Relationship relationship = entry.entity();
+                        if (data.isDeleted(relationship) || !constraint.appliesTo(relationship)) continue;
+                        violations = add(violations, new Violation(relationship.getId(), constraint, entry.value()));
+                    }
+                }
+            }
+            return violations == null ? Collections.<Violation>emptyList() : violations;
+        }
+
+        /**
+         * Collects the nodes and relationships that got a constrained property or a constrained label, to be checked
+         * after the commit with {@link #check(Node, Collection)} and {@link #check(Relationship, Collection)}.
+         */
+        void collect(TransactionData data, Collection<Long> nodeIds, Collection<Long> relationshipIds) {
+            if (!nodeKeys.isEmpty()) {
+                for (PropertyEntry<Node> entry : data.assignedNodeProperties()) {
+                    if (nodeKeys.containsKey(entry.key()) && !data.isDeleted(entry.entity())) nodeIds.add(entry.entity().getId());
+                }
+                for (LabelEntry entry : data.assignedLabels()) {
+                    if (byLabel.containsKey(entry.label().name()) && !data.isDeleted(entry.node())) nodeIds.add(entry.node().getId());
+                }
+            }
+            if (!relationshipKeys.isEmpty()) {
+                for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()) {
+                    if (relationshipKeys.containsKey(entry.key()) && !data.isDeleted(entry.entity())) relationshipIds.add(entry.entity().getId());
+                }
+            }
+        }
+
+        /**
+         * Checks the current values of the constrained properties of a node.
+         */
+        void check(Node node, Collection<Violation> violations) {
+            for (Label label : node.getLabels()) {
+                PropertyConstraint[] candidates = byLabel.get(label.name());
+                if (candidates == null) continue;
+                for (PropertyConstraint constraint : candidates) {
+                    Object value = node.getProperty(constraint.key, null);
+                    if (value != null && !constraint.accepts(value)) violations.add(new Violation(node.getId(), constraint, value));
+                }
+            }
+        }
+
+        void check(Relationship relationship, Collection<Violation> violations) {
+            for (PropertyConstraint constraint : constraints) {
+                if (!constraint.appliesTo(relationship)) continue;
+                Object value = relationship.getProperty(constraint.key, null);
+                if (value != null && !constraint.accepts(value)) violations.add(new Violation(relationship.getId(), constraint, value));
+            }
+        }
+
+        private static Collection<Violation> add(Collection<Violation> violations, Violation violation) {
+            // a node may violate a constraint through its property and its label
+            if (violations == null) violations = new LinkedHashSet<>();
+            violations.add(violation);
+            return violations;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.event.TransactionData;
+
+import java.util.Collections;
+
+/**
+ * Degree counter of a single transaction that answers label filtered counts from the {@link DegreeCountStore}
+ * plus the changes of the transaction. The changes are applied to the store after the transaction committed.
+ * The transaction is registered with the store from collecting its changes on, it has to be {@link #apply applied}
+ * or {@link #discard discarded}.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class StoredDegreeCounter extends DegreeCounter {
+    private final DegreeCountStore store;
+    private final DegreeCountStore.Layout layout;
+    private final int generation;
+    private final DegreeChanges changes;
+    private boolean begun;
+
+    private StoredDegreeCounter(DegreeCounter counter, DegreeCountStore store, TransactionData data) {
+        super(counter.getDenseNodeThreshold(), counter.getMetrics(), counter.getStatements(), counter.getLabels());
+        this.store = store;
+        this.generation = store.enter();
+        this.layout = store.layout();
+        try {
+            this.changes = DegreeChanges.collect(layout.constraints(), data);
+        } catch (RuntimeException e) {
+            store.discard(Collections.<Long>emptySet(), generation);
+            throw e;
+        }
+    }
+
+    /**
+     * @param counter the settings of this counter for the constraints without stored counts
+     */
+    public static StoredDegreeCounter collect(DegreeCounter counter, DegreeCountStore store, TransactionData data) {
+        return new StoredDegreeCounter(counter, store, data);
+    }
+
+    @Override
+    protected int countSide(Constraint constraint, int side, Node node) {
+        int slot = layout.slot(constraint, side);
+        // a rebuild started after this transaction was collected resets the counts, so they are scanned instead
+        if (slot < 0 || !store.isValid() || store.generation() != generation) return super.countSide(constraint, side, node);
+        return store.get(layout, node.getId(), slot) + changes.delta(node.getId(), constraint, side);
+    }
+
+    void begin() {
+        store.begin(changes.changes().keySet());
+        begun = true;
+    }
+
+    void apply() {
+        store.apply(changes.changes(), generation);
+    }
+
+    void discard() {
+        store.discard(begun ? changes.changes().keySet() : Collections.<Long>emptySet(), generation);
+    }
+}
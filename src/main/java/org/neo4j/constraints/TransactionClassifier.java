@@ -0,0 +1,129 @@
+package org.neo4j.constraints;
+
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.event.LabelEntry;
+import org.neo4j.graphdb.event.PropertyEntry;
+import org.neo4j.graphdb.event.TransactionData;
+
+/**
+ * Walks the changes of a transaction once and collects the nodes whose degrees have to be checked. Deleted nodes
+ * are skipped, relationships of unconstrained types are dropped before their nodes are looked at. Changed
+ * relationship properties are only looked at for the keys of {@link Constraint#isQualified qualified} constraints.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class TransactionClassifier {
+    private final Constraint.Constraints constraints;
+    private final TransactionData data;
+    private final PrimitiveLongSet nodeIds;
+    private PrimitiveLongSet deleted;
+    private boolean relevant;
+
+    private TransactionClassifier(Constraint.Constraints constraints, TransactionData data, PrimitiveLongSet nodeIds) {
+        this.constraints = constraints;
+        this.data = data;
+        this.nodeIds = nodeIds;
+    }
+
+    /**
+     * @return false if the transaction only changed properties, e.g. the graph properties storing the constraints
+     */
+    public static boolean hasStructuralChanges(TransactionData data) {
+        return !isEmpty(data.createdNodes()) || !isEmpty(data.deletedNodes())
+                || !isEmpty(data.assignedLabels()) || !isEmpty(data.removedLabels())
+                || !isEmpty(data.createdRelationships()) || !isEmpty(data.deletedRelationships());
+    }
+
+    /**
+     * @return true if node or relationship properties were assigned, which {@link PropertyConstraint}s may check
+     */
+    public static boolean hasPropertyChanges(TransactionData data) {
+        return !isEmpty(data.assignedNodeProperties()) || !isEmpty(data.assignedRelationshipProperties());
+    }
+
+    /**
+     * @return true if relationship properties were assigned or removed, which qualified constraints may count
+     */
+    public static boolean hasRelationshipPropertyChanges(TransactionData data) {
+        return !isEmpty(data.assignedRelationshipProperties()) || !isEmpty(data.removedRelationshipProperties());
+    }
+
+    private static boolean isEmpty(Iterable<?> iterable) {
+        return !iterable.iterator().hasNext();
+    }
+
+    /**
+     * Adds the ids of the nodes to check to {@code nodeIds}.
+     * @return false if nothing changed that any constraint depends on, then there are no nodes to check either
+     */
+    public static boolean classify(Constraint.Constraints constraints, TransactionData data, PrimitiveLongSet nodeIds) {
+        TransactionClassifier classifier = new TransactionClassifier(constraints, data, nodeIds);
+        try {
+            classifier.classify();
+            return classifier.relevant;
+        } finally {
+            if (classifier.deleted != null) classifier.deleted.close();
+        }
+    }
+
+    private void classify() {
+        for (Node node : data.deletedNodes()) {
+            if (deleted == null) deleted = Primitive.longSet();
+            deleted.add(node.getId());
+        }
+        for (Node node : data.createdNodes()) {
+            if (!isDeleted(node) && constraints.matches(node)) add(node);
+        }
+        for (LabelEntry entry : data.assignedLabels()) labelChanged(entry);
+        for (LabelEntry entry : data.removedLabels()) labelChanged(entry);
+        for (Relationship rel : data.createdRelationships()) relationshipChanged(rel);
+        for (Relationship rel : data.deletedRelationships()) relationshipChanged(rel);
+        if (!constraints.hasQualified()) return;
+        for (PropertyEntry<Relationship> entry : data.assignedRelationshipProperties()) propertyChanged(entry);
+        for (PropertyEntry<Relationship> entry : data.removedRelationshipProperties()) propertyChanged(entry);
+    }
+
+    private void propertyChanged(PropertyEntry<Relationship> entry) {
+        Relationship rel = entry.entity();
+        if (data.isDeleted(rel) || !constraints.isQualifying(rel.getType(), entry.key())) return;
+        relationshipChanged(rel);
+    }
+
+    private void labelChanged(LabelEntry entry) {
+        if (!constraints.matches(entry.label())) return;
+        relevant = true; // also for deleted nodes, whose stored degree counters have to be updated
+        Node node = entry.node();
+        // the relationships of deleted nodes were deleted as well, which adds their neighbours
+        if (isDeleted(node)) return;
+        if (!nodeIds.contains(node.getId()) && constraints.matches(node)) add(node);
+        for (Node dependent : constraints.dependents(node, entry.label())) add(dependent);
+    }
+
+    private void relationshipChanged(Relationship rel) {
+        RelationshipType type = rel.getType();
+        if (!constraints.matches(type)) return;
+        relevant = true;
+        relationshipChanged(rel.getStartNode(), type, Direction.OUTGOING);
+        relationshipChanged(rel.getEndNode(), type, Direction.INCOMING);
+    }
+
+    private void relationshipChanged(Node node, RelationshipType type, Direction direction) {
+        if (nodeIds.contains(node.getId()) || isDeleted(node)) return;
+        if (constraints.matches(node, type, direction)) add(node);
+    }
+
+    private void add(Node node) {
+        relevant = true;
+        nodeIds.add(node.getId());
+    }
+
+    private boolean isDeleted(Node node) {
+        return deleted != null && deleted.contains(node.getId());
+    }
+}
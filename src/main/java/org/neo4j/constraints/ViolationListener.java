@@ -0,0 +1,17 @@
+package org.neo4j.constraints;
+
+/**
+ * Receives every violation found while checking transactions, also the ones left out of
+ * {@link ViolationReport reports}. Called on the checking thread, so it should hand the violations off quickly.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public interface ViolationListener {
+    /**
+     * @param violation a {@link CardinalityViolation}, {@link PropertyConstraint.Violation},
+     *                  {@link PathConstraint.Violation} or {@link CountConstraint.Violation}
+     * @param rejected true if the violating transaction is rolled back
+     */
+    void violation(ConstraintViolation violation, boolean rejected);
+}
@@ -0,0 +1,145 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.Node;
+
+import java.io.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Record of violations that were not rejected, i.e. found in {@link EnforcementMode#WARN} or
+ * {@link EnforcementMode#ASYNC_VALIDATE} mode. Keeps the most recent {@code capacity} entries in memory and
+ * optionally appends all of them to a file.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ViolationLog {
+    public static final String FILE_NAME = "constraint-violations.log";
+
+    private final int capacity;
+    private final File file;
+    private final Deque<Violation> recent = new ArrayDeque<>();
+    private Writer writer;
+    private long total;
+
+    public ViolationLog(int capacity, File file) {
+        this.capacity = capacity;
+        this.file = file;
+    }
+
+    public synchronized void log(Node node, Map<Constraint, Result> results) {
+        long time = System.currentTimeMillis();
+        for (Map.Entry<Constraint, Result> entry : results.entrySet()) {
+            add(new Violation(time, node.getId(), entry.getKey().toString(), entry.getValue()));
+        }
+        flush();
+    }
+
+    /**
+     * Logs violations of property, path or count constraints. Property violations have no result, count violations
+     * no node, their id is -1.
+     */
+    public synchronized void log(Collection<? extends ConstraintViolation> violations) {
+        long time = System.currentTimeMillis();
+        for (ConstraintViolation violation : violations) {
+            add(new Violation(time, violation.getId(), violation.getConstraint().toString(), violation.getResult()));
+        }
+        flush();
+    }
+
+    private void add(Violation violation) {
+        if (recent.size() == capacity) recent.removeFirst();
+        recent.addLast(violation);
+        total++;
+        append(violation);
+    }
+
+    private void append(Violation violation) {
+        if (file == null) return;
+        try {
+            if (writer == null) writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            writer.write(violation.toString());
+            writer.write('\n');
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write to " + file, e);
+        }
+    }
+
+    private void flush() {
+        if (writer == null) return;
+        try {
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not write to " + file, e);
+        }
+    }
+
+    /**
+     * @return the most recent violations, oldest first
+     */
+    public synchronized List<Violation> recent() {
+        return new ArrayList<>(recent);
+    }
+
+    /**
+     * @return the number of violations logged since startup, including the ones no longer held in memory
+     */
+    public synchronized long total() {
+        return total;
+    }
+
+    public synchronized void clear() {
+        recent.clear();
+    }
+
+    public synchronized void close() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    public static class Violation {
+        private final long time;
+        private final long nodeId;
+        private final String constraint;
+        private final Result result;
+
+        public Violation(long time, long nodeId, String constraint, Result result) {
+            this.time = time;
+            this.nodeId = nodeId;
+            this.constraint = constraint;
+            this.result = result;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getNodeId() {
+            return nodeId;
+        }
+
+        public String getConstraint() {
+            return constraint;
+        }
+
+        /**
+         * @return the result, null for a property constraint
+         */
+        public Result getResult() {
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return time + "\t" + nodeId + "\t" + (result == null ? "INVALID" : result) + "\t" + constraint;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package org.neo4j.constraints;
+
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.Node;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The violations of a check of one kind, structured and capped at {@code maxReported}, with the number of the
+ * remaining ones. The violations beyond the cap are only counted, unless listeners want to see them.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ViolationReport {
+    private final String kind;
+    private final int maxReported;
+    private final List<ConstraintViolation> violations = new ArrayList<>();
+    private long total;
+    private long nodes;
+
+    public ViolationReport(int maxReported) {
+        this("cardinality", maxReported);
+    }
+
+    /**
+     * @param kind {@code cardinality}, {@code property}, {@code path} or {@code count}, used in the summary
+     */
+    public ViolationReport(String kind, int maxReported) {
+        this.kind = kind;
+        this.maxReported = maxReported;
+    }
+
+    /**
+     * Adds the violations of a node and passes them on to the listeners.
+     */
+    void add(Node node, Map<Constraint, Result> results, DegreeCounter counter, Collection<ViolationListener> listeners, boolean rejected) {
+        nodes++;
+        for (Map.Entry<Constraint, Result> entry : results.entrySet()) {
+            total++;
+            boolean reported = violations.size() < maxReported;
+            if (!reported && listeners.isEmpty()) continue;
+            ConstraintViolation violation = CardinalityViolation.of(node, entry.getKey(), entry.getValue(), counter);
+            if (reported) violations.add(violation);
+            for (ViolationListener listener : listeners) listener.violation(violation, rejected);
+        }
+    }
+
+    /**
+     * Adds a violation of a property, path or count constraint and passes it on to the listeners.
+     */
+    void add(ConstraintViolation violation, Collection<ViolationListener> listeners, boolean rejected) {
+        total++;
+        if (violations.size() < maxReported) violations.add(violation);
+        for (ViolationListener listener : listeners) listener.violation(violation, rejected);
+    }
+
+    static ViolationReport of(Map<Node, Map<Constraint, Result>> errors, DegreeCounter counter, int maxReported,
+                              Collection<ViolationListener> listeners, boolean rejected) {
+        ViolationReport report = new ViolationReport(maxReported);
+        for (Map.Entry<Node, Map<Constraint, Result>> entry : errors.entrySet()) {
+            report.add(entry.getKey(), entry.getValue(), counter, listeners, rejected);
+        }
+        return report;
+    }
+
+    static ViolationReport of(String kind, Collection<? extends ConstraintViolation> violations, int maxReported,
+                              Collection<ViolationListener> listeners, boolean rejected) {
+        ViolationReport report = new ViolationReport(kind, maxReported);
+        for (ConstraintViolation violation : violations) report.add(violation, listeners, rejected);
+        return report;
+    }
+
+    /**
+     * @return at most {@code maxReported} violations
+     */
+    public List<ConstraintViolation> getViolations() {
+        return Collections.unmodifiableList(violations);
+    }
+
+    /**
+     * @return the number of violations, including the ones that were not reported
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public long getOmitted() {
+        return total - violations.size();
+    }
+
+    /**
+     * @return the number of violating nodes of a cardinality check, 0 for the other kinds
+     */
+    public long getNodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return total == 0;
+    }
+
+    public String getSummary() {
+        String summary = total + " " + kind + " constraint violations";
+        return nodes > 0 ? summary + " on " + nodes + " nodes" : summary;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(getSummary());
+        for (ConstraintViolation violation : violations) sb.append('\n').append(violation);
+        if (getOmitted() > 0) sb.append("\n... ").append(getOmitted()).append(" more");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,28 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.ConstraintViolationException;
+
+/**
+ * Rejects a transaction that violates constraints, with the structured {@link ViolationReport}.
+ * The message listing the violations is only rendered when it is asked for.
+ *
+ * @author mh
+ * @since 17.10.14
+ */
+public class ViolationReportException extends ConstraintViolationException {
+    private final ViolationReport report;
+
+    public ViolationReportException(ViolationReport report) {
+        super(report.getSummary());
+        this.report = report;
+    }
+
+    public ViolationReport getReport() {
+        return report;
+    }
+
+    @Override
+    public String getMessage() {
+        return report.toString();
+    }
+}
@@ -0,0 +1,131 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Types;
+
+public class ConstraintBatchInserterTest {
+    private static final Map<String, Object> NO_PROPERTIES = Collections.emptyMap();
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private ConstraintBatchInserter inserter;
+    private Constraint worksFor;
+
+    @Before
+    public void setUp() throws Exception {
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newEmbeddedDatabase(storeDir());
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        new ConstraintPersister(db).persist(constraints);
+        db.shutdown();
+        inserter = ConstraintBatchInserter.open(storeDir());
+        worksFor = inserter.getConstraints().all().get(0);
+    }
+
+    private String storeDir() {
+        return folder.getRoot().getAbsolutePath();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (inserter != null) inserter.shutdown();
+    }
+
+    @Test
+    public void testCountsAndValidatesInserts() throws Exception {
+        long company = inserter.createNode(NO_PROPERTIES, Labels.Company);
+        long employee = inserter.createNode(NO_PROPERTIES, Labels.Person);
+        long freelancer = inserter.createNode(NO_PROPERTIES, Labels.Person);
+        long twoJobs = inserter.createNode(NO_PROPERTIES, Labels.Person);
+        inserter.createNode(NO_PROPERTIES, Labels.Product);
+        inserter.createRelationship(employee, company, Types.WORKS_FOR, NO_PROPERTIES);
+        inserter.createRelationship(twoJobs, company, Types.WORKS_FOR, NO_PROPERTIES);
+        inserter.createRelationship(twoJobs, inserter.createNode(NO_PROPERTIES, Labels.Company), Types.WORKS_FOR, NO_PROPERTIES);
+        inserter.createRelationship(employee, freelancer, Types.KNOWS, NO_PROPERTIES);
+
+        assertEquals(2, inserter.degree(company, worksFor, Constraint.FROM_SIDE));
+        assertEquals(1, inserter.degree(employee, worksFor, Constraint.TO_SIDE));
+        ConstraintBatchInserter.Report report = inserter.validate(10);
+        assertEquals(5, report.getChecked());
+        assertEquals(2, report.getViolating());
+        assertEquals(Constraint.Result.TO_FEW, report.getViolations().get(freelancer).get(worksFor));
+        assertEquals(Constraint.Result.TO_MANY, report.getViolations().get(twoJobs).get(worksFor));
+    }
+
+    @Test
+    public void testCountsExistingData() throws Exception {
+        inserter.shutdown();
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newEmbeddedDatabase(storeDir());
+        long person, company;
+        try (Transaction tx = db.beginTx()) {
+            company = db.createNode(Labels.Company).getId();
+            person = db.createNode(Labels.Person).getId();
+            db.getNodeById(person).createRelationshipTo(db.getNodeById(company), Types.WORKS_FOR);
+            tx.success();
+        } finally {
+            db.shutdown();
+        }
+        inserter = ConstraintBatchInserter.open(storeDir());
+        worksFor = inserter.getConstraints().all().get(0);
+        assertEquals(1, inserter.degree(person, worksFor, Constraint.TO_SIDE));
+        assertEquals(1, inserter.degree(company, worksFor, Constraint.FROM_SIDE));
+        assertTrue(inserter.validate(10).isValid());
+        inserter.createRelationship(person, inserter.createNode(NO_PROPERTIES, Labels.Company), Types.WORKS_FOR, NO_PROPERTIES);
+        assertEquals(Constraint.Result.TO_MANY, inserter.validate(10).getViolations().get(person).get(worksFor));
+    }
+
+    @Test
+    public void testRecountsRelabeledNodes() throws Exception {
+        long person = inserter.createNode(NO_PROPERTIES);
+        long employer = inserter.createNode(NO_PROPERTIES);
+        inserter.createRelationship(person, employer, Types.WORKS_FOR, NO_PROPERTIES);
+        assertTrue(inserter.validate(10).isValid());
+        inserter.setNodeLabels(person, Labels.Person);
+        assertEquals(Constraint.Result.TO_FEW, inserter.validate(10).getViolations().get(person).get(worksFor));
+        inserter.setNodeLabels(employer, Labels.Company);
+        assertEquals(1, inserter.degree(person, worksFor, Constraint.TO_SIDE));
+        assertTrue(inserter.validate(10).isValid());
+    }
+
+    @Test
+    public void testInsertedDataIsStored() throws Exception {
+        long company = inserter.createNode(NO_PROPERTIES, Labels.Company);
+        inserter.createRelationship(inserter.createNode(NO_PROPERTIES, Labels.Person), company, Types.WORKS_FOR, NO_PROPERTIES);
+        assertTrue(inserter.validate(10).isValid());
+        inserter.shutdown();
+        inserter = null;
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newEmbeddedDatabase(storeDir());
+        try (Transaction tx = db.beginTx()) {
+            assertTrue(GlobalGraphOperations.at(db).getAllRelationships().iterator().hasNext());
+            tx.success();
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    @Test
+    public void testOffHeapMapGrows() throws Exception {
+        try (OffHeapLongIntMap map = new OffHeapLongIntMap(16)) {
+            for (long key = 0; key < 100000; key++) map.add(key * 31, (int) key);
+            map.add(31, 5);
+            assertEquals(100000, map.size());
+            assertEquals(6, map.get(31, 0));
+            assertEquals(99999, map.get(99999L * 31, 0));
+            assertEquals(-1, map.get(32, -1));
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.neo4j.constraints;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.GraphProperties;
+import org.neo4j.kernel.impl.core.NodeManager;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConstraintCodecTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ConstraintCodec codec = new ConstraintCodec(new ListTokens());
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        constraints.add(ConstraintParser.parse("(:Person)-[:REPORTS_TO]->(:Manager) to 1..3:0..1"));
+        constraints.add(ConstraintParser.parse("(:Person)<-[:MARRIED_TO]-(:Person) TO one:300"));
+
+        byte[] data = codec.encode(constraints);
+        assertTrue(ConstraintCodec.isEncoded(data));
+        assertTrue(data.length < 40);
+        assertArrayEquals(constraints.toArray(), codec.decode(data).toArray());
+    }
+
+    @Test
+    public void testRoundTripQualifier() throws Exception {
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        Constraint constraint = ConstraintParser.parse("(:Person)-[:EMPLOYED_BY {current:true, level:3, rate:0.5, role:\"CTO\"}]->(:Company) TO many:0..1");
+        constraints.add(constraint);
+        Constraint decoded = codec.decode(codec.encode(constraints)).all().get(0);
+        assertEquals(constraint.toString(), decoded.toString());
+        assertEquals(constraint.getQualifier(), decoded.getQualifier());
+    }
+
+    @Test
+    public void testRoundTripNormalizedQualifierValues() throws Exception {
+        Map<String, Object> qualifier = new HashMap<>();
+        qualifier.put("level", 3);
+        qualifier.put("grade", (short) 2);
+        qualifier.put("rate", 0.5f);
+        Constraint constraint = new Constraint("Person", "Company", "EMPLOYED_BY", Direction.OUTGOING,
+                Constraint.MANY_VALUE, Constraint.MANY_VALUE, 0, 1, qualifier);
+        assertEquals(3L, constraint.getQualifier().get("level"));
+        assertEquals(2L, constraint.getQualifier().get("grade"));
+        assertEquals(0.5d, constraint.getQualifier().get("rate"));
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(constraint);
+        assertEquals(constraint.getQualifier(), codec.decode(codec.encode(constraints)).all().get(0).getQualifier());
+    }
+
+    @Test
+    public void testEmpty() throws Exception {
+        assertTrue(codec.decode(codec.encode(Constraint.Constraints.from(null))).isEmpty());
+        assertFalse(ConstraintCodec.isEncoded(new String[0]));
+        assertFalse(ConstraintCodec.isEncoded(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDetectsCorruption() throws Exception {
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        byte[] data = codec.encode(constraints);
+        data[data.length - 1]++;
+        codec.decode(data);
+    }
+
+    @Test
+    public void testMigratesStringArrayFormat() throws Exception {
+        String storeDir = folder.getRoot().getAbsolutePath();
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newEmbeddedDatabase(storeDir);
+        try (Transaction tx = db.beginTx()) {
+            String[] data = new String[Constraint.SIZE];
+            ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1").intoArray(data, 0);
+            graphProperties(db).setProperty("CONSTRAINT", data);
+            tx.success();
+        }
+        assertEquals(1, new ConstraintPersister(db).restore().all().size());
+        db.shutdown();
+
+        db = new TestGraphDatabaseFactory().newEmbeddedDatabase(storeDir);
+        try {
+            try (Transaction tx = db.beginTx()) {
+                assertTrue(ConstraintCodec.isEncoded(graphProperties(db).getProperty("CONSTRAINT")));
+                tx.success();
+            }
+            try {
+                try (Transaction tx = db.beginTx()) {
+                    db.createNode(ConstraintTxCheckTest.Labels.Person);
+                    tx.success();
+                }
+                fail("migrated constraint should be enforced");
+            } catch (TransactionFailureException expected) {
+            }
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private GraphProperties graphProperties(GraphDatabaseService db) {
+        return ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(NodeManager.class).getGraphProperties();
+    }
+
+    private static class ListTokens implements ConstraintCodec.Tokens {
+        private final List<String> labels = new ArrayList<>(Arrays.asList("Unused"));
+        private final List<String> types = new ArrayList<>();
+
+        public int labelId(String name) {
+            return id(labels, name);
+        }
+
+        public String labelName(int id) {
+            return labels.get(id);
+        }
+
+        public int typeId(String name) {
+            return id(types, name);
+        }
+
+        public String typeName(int id) {
+            return types.get(id);
+        }
+
+        private int id(List<String> tokens, String name) {
+            if (!tokens.contains(name)) tokens.add(name);
+            return tokens.indexOf(name);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package org.neo4j.constraints;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Types.WORKS_FOR;
+
+public class ConstraintDiffTest {
+
+    private static Constraint.Constraints constraints(String... patterns) {
+        List<Constraint> result = new ArrayList<>();
+        for (String pattern : patterns) result.add(ConstraintParser.parse(pattern));
+        return new Constraint.Constraints(result);
+    }
+
+    @Test
+    public void testRemovedAndLoosenedNeedNoRevalidation() throws Exception {
+        ConstraintDiff diff = ConstraintDiff.of(
+                constraints("(:Person)-[:WORKS_FOR]->(:Company) TO many:1", "(:Person)-[:KNOWS]-(:Person) TO 0..5:0..5"),
+                constraints("(:Person)-[:WORKS_FOR]->(:Company) TO many:0..2"));
+        assertEquals(1, diff.getAdded().size());
+        assertEquals(2, diff.getRemoved().size());
+        assertTrue(diff.getRevalidations().isEmpty());
+    }
+
+    @Test
+    public void testTightenedSideIsRevalidated() throws Exception {
+        ConstraintDiff diff = ConstraintDiff.of(
+                constraints("(:Person)-[:WORKS_FOR]->(:Company) TO 0..100:0..2"),
+                constraints("(:Person)-[:WORKS_FOR]->(:Company) TO 0..100:1"));
+        assertEquals(1, diff.getRevalidations().size());
+        ConstraintDiff.Revalidation revalidation = diff.getRevalidations().get(0);
+        assertTrue(revalidation.isToSide());
+        assertEquals(Person.name(), revalidation.getLabel().name());
+    }
+
+    @Test
+    public void testNewConstraintRevalidatesBoundedSides() throws Exception {
+        ConstraintDiff diff = ConstraintDiff.of(constraints(),
+                constraints("(:Person)-[:WORKS_FOR]->(:Company) TO many:1", "(:Person)-[:REPORTS_TO]->(:Manager) TO 1..3:0..1"));
+        assertEquals(3, diff.getRevalidations().size());
+        assertEquals(Manager.name(), diff.getRevalidations().get(2).getLabel().name());
+    }
+
+    @Test
+    public void testLoadTighteningChecksOnlyTheLabel() throws Exception {
+        GraphDatabaseService db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try {
+            ConstraintExtensionFactory.ConstraintExtension extension = ConstraintExtensionFactory.extension((GraphDatabaseAPI) db);
+            new ConstraintPersister(db).persist(constraints("(:Person)-[:WORKS_FOR]->(:Company) TO many:0..2"));
+            try (Transaction tx = db.beginTx()) {
+                Node person = db.createNode(Person);
+                person.createRelationshipTo(db.createNode(Company), WORKS_FOR);
+                person.createRelationshipTo(db.createNode(Company), WORKS_FOR);
+                tx.success();
+            }
+            ConstraintLoader.Diff loosened = extension.load(new StringReader("(:Person)-[:WORKS_FOR]->(:Company) TO many:0..3"), true, ConstraintLoaderTest.IGNORE);
+            assertEquals(0, loosened.getViolations());
+            ConstraintLoader.Diff tightened = extension.load(new StringReader("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"), true, ConstraintLoaderTest.IGNORE);
+            assertEquals(1, tightened.getViolations());
+            assertEquals(Arrays.asList("(:Person)-[:WORKS_FOR]->(:Company) OF -1..-1:0..3"), toStrings(new ConstraintPersister(db).restore()));
+        } finally {
+            db.shutdown();
+        }
+    }
+
+    private static List<String> toStrings(Constraint.Constraints constraints) {
+        List<String> result = new ArrayList<>();
+        for (Constraint constraint : constraints.all()) result.add(constraint.toString());
+        return result;
+    }
+}
@@ -0,0 +1,199 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ConstraintEnforcementModeTest {
+    private GraphDatabaseService db;
+
+    private void start(EnforcementMode mode) {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder()
+                .setConfig(ConstraintSettings.enforcement, mode.name())
+                .newGraphDatabase();
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        new ConstraintPersister(db).persist(constraints);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    private ConstraintExtensionFactory.ConstraintExtension extension() {
+        return ConstraintExtensionFactory.extension((GraphDatabaseAPI) db);
+    }
+
+    private long createLonePerson() {
+        try (Transaction tx = db.beginTx()) {
+            Node person = db.createNode(ConstraintTxCheckTest.Labels.Person);
+            tx.success();
+            return person.getId();
+        }
+    }
+
+    @Test
+    public void testWarnCommitsAndLogsViolation() throws Exception {
+        start(EnforcementMode.WARN);
+        long id = createLonePerson();
+        List<ViolationLog.Violation> violations = extension().getViolationLog().recent();
+        assertEquals(1, violations.size());
+        assertEquals(id, violations.get(0).getNodeId());
+        assertEquals(Constraint.Result.TO_FEW, violations.get(0).getResult());
+    }
+
+    @Test
+    public void testAsyncValidationCommitsAndLogsViolation() throws Exception {
+        start(EnforcementMode.ASYNC_VALIDATE);
+        long id = createLonePerson();
+        assertTrue(extension().awaitValidation(10, TimeUnit.SECONDS));
+        List<ViolationLog.Violation> violations = extension().getViolationLog().recent();
+        assertEquals(1, violations.size());
+        assertEquals(id, violations.get(0).getNodeId());
+    }
+
+    @Test
+    public void testAsyncValidationWithFullQueueValidatesAll() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder()
+                .setConfig(ConstraintSettings.enforcement, EnforcementMode.ASYNC_VALIDATE.name())
+                .setConfig(ConstraintSettings.async_validation_queue_size, "1")
+                .newGraphDatabase();
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        new ConstraintPersister(db).persist(constraints);
+        for (int i = 0; i < 20; i++) createLonePerson();
+        assertTrue(extension().awaitValidation(10, TimeUnit.SECONDS));
+        assertEquals(20, extension().getViolationLog().total());
+        assertEquals(0, extension().getMetrics().getAsyncBacklog());
+        assertEquals(0, extension().getMetrics().getAsyncDropped());
+    }
+
+    @Test
+    public void testAsyncValidationOfValidData() throws Exception {
+        start(EnforcementMode.ASYNC_VALIDATE);
+        try (Transaction tx = db.beginTx()) {
+            Node company = db.createNode(ConstraintTxCheckTest.Labels.Company);
+            db.createNode(ConstraintTxCheckTest.Labels.Person).createRelationshipTo(company, ConstraintTxCheckTest.Types.WORKS_FOR);
+            tx.success();
+        }
+        assertTrue(extension().awaitValidation(10, TimeUnit.SECONDS));
+        assertEquals(0, extension().getViolationLog().total());
+    }
+
+    private long createExpensiveProduct() {
+        assertEquals(0, extension().addPropertyConstraint(ConstraintParser.parseProperty("(:Product).price IN 0..100")));
+        try (Transaction tx = db.beginTx()) {
+            Node product = db.createNode(ConstraintTxCheckTest.Labels.Product);
+            product.setProperty("price", 1000);
+            tx.success();
+            return product.getId();
+        }
+    }
+
+    @Test
+    public void testWarnLogsPropertyViolation() throws Exception {
+        start(EnforcementMode.WARN);
+        final List<ConstraintViolation> received = new ArrayList<>();
+        extension().addViolationListener(new ViolationListener() {
+            public void violation(ConstraintViolation violation, boolean rejected) {
+                assertFalse(rejected);
+                received.add(violation);
+            }
+        });
+        long id = createExpensiveProduct();
+        assertEquals(1, received.size());
+        assertTrue(received.get(0) instanceof PropertyConstraint.Violation);
+        assertEquals(id, received.get(0).getId());
+        List<ViolationLog.Violation> violations = extension().getViolationLog().recent();
+        assertEquals(1, violations.size());
+        assertEquals(id, violations.get(0).getNodeId());
+        assertEquals("(:Product).price IN 0..100", violations.get(0).getConstraint());
+    }
+
+    @Test
+    public void testAsyncValidationChecksPropertiesAfterCommit() throws Exception {
+        start(EnforcementMode.ASYNC_VALIDATE);
+        long id = createExpensiveProduct();
+        assertTrue(extension().awaitValidation(10, TimeUnit.SECONDS));
+        List<ViolationLog.Violation> violations = extension().getViolationLog().recent();
+        assertEquals(1, violations.size());
+        assertEquals(id, violations.get(0).getNodeId());
+        assertNull(violations.get(0).getResult());
+    }
+
+    @Test
+    public void testViolationLogIsBounded() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder()
+                .setConfig(ConstraintSettings.enforcement, EnforcementMode.WARN.name())
+                .setConfig(ConstraintSettings.violation_log_size, "2")
+                .newGraphDatabase();
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        new ConstraintPersister(db).persist(constraints);
+        for (int i = 0; i < 3; i++) createLonePerson();
+        long last = createLonePerson();
+        assertEquals(4, extension().getViolationLog().total());
+        List<ViolationLog.Violation> recent = extension().getViolationLog().recent();
+        assertEquals(2, recent.size());
+        assertEquals(last, recent.get(1).getNodeId());
+    }
+
+    @Test
+    public void testShutdownDropsBatchWaitingForRoom() throws Exception {
+        start(EnforcementMode.ASYNC_VALIDATE);
+        final CountDownLatch release = new CountDownLatch(1);
+        ViolationListener blocking = new ViolationListener() {
+            public void violation(ConstraintViolation violation, boolean rejected) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        final AsyncValidator validator = new AsyncValidator(db, null, null, new ViolationLog(10, null),
+                Collections.singletonList(blocking), 1, 1);
+        final AsyncValidator.Deferred deferred = new AsyncValidator.Deferred();
+        deferred.counts.add(new CountConstraint.Violation(ConstraintParser.parseCount("(:Config) TO 0..1"), 2));
+        validator.submit(deferred); // blocks the only thread
+        validator.submit(deferred); // fills the queue
+        Thread committer = new Thread() {
+            public void run() {
+                validator.submit(deferred);
+            }
+        };
+        committer.start();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (validator.getWaits() == 0 && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertEquals(1, validator.getWaits());
+        Thread shutdown = new Thread() {
+            public void run() {
+                try {
+                    validator.shutdown();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        shutdown.start();
+        committer.join(10000);
+        assertFalse("the waiting commit should give up on shutdown", committer.isAlive());
+        assertEquals(1, validator.getDropped());
+        release.countDown();
+        shutdown.join(10000);
+        assertTrue(validator.awaitIdle(10, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,101 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ConstraintLoaderTest {
+    private static final String FILE = "// schema\n" +
+            "(:Person)-[:WORKS_FOR]->(:Company) TO many:1\n" +
+            "\n" +
+            "(:Employee)-[:REPORTS_TO]->(:Manager) TO 1..3:1\n" +
+            "(:Person) - [:WORKS_FOR] -> (:Company) to many:one\n";
+
+    static final GraphValidator.Listener IGNORE = new GraphValidator.Listener() {
+        public boolean violation(Node node, Map<Constraint, Constraint.Result> results) {
+            return true;
+        }
+
+        public void progress(long checkedIds, long totalIds) {
+        }
+    };
+
+    private GraphDatabaseService db;
+    private ConstraintPersister persister;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        persister = new ConstraintPersister(db);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    private ConstraintExtensionFactory.ConstraintExtension extension() {
+        return ConstraintExtensionFactory.extension((GraphDatabaseAPI) db);
+    }
+
+    @Test
+    public void testReadSkipsCommentsAndDuplicates() throws Exception {
+        List<Constraint> constraints = ConstraintLoader.read(new StringReader(FILE));
+        assertEquals(2, constraints.size());
+        assertEquals("(:Person)-[:WORKS_FOR]->(:Company) OF -1..-1:1..1", constraints.get(0).toString());
+    }
+
+    @Test
+    public void testReadReportsLine() throws Exception {
+        try {
+            ConstraintLoader.read(new StringReader(FILE + "(:Person)-[:KNOWS]-(:Person) TO 1\n"));
+            fail("Expected parse error");
+        } catch (ConstraintParser.ParseException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Line 6: "));
+            assertEquals(33, e.getPosition());
+        }
+    }
+
+    @Test
+    public void testLoadAppliesDiff() throws Exception {
+        Constraint.Constraints stored = Constraint.Constraints.from(null);
+        stored.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        stored.add(ConstraintParser.parse("(:Person)-[:KNOWS]-(:Person) TO 0..10:0..10"));
+        persister.persist(stored);
+
+        ConstraintLoader.Diff diff = extension().load(new StringReader(FILE), false, IGNORE);
+        assertEquals(1, diff.getAdded().size());
+        assertEquals(0, diff.getRemoved().size());
+        assertEquals(2, diff.getUnchanged().size());
+        assertEquals(3, persister.restore().all().size());
+
+        diff = extension().load(new StringReader(FILE), true, IGNORE);
+        assertEquals(0, diff.getAdded().size());
+        assertEquals("(:Person)-[:KNOWS]-(:Person) OF 0..10:0..10", diff.getRemoved().get(0).toString());
+        assertEquals(2, persister.restore().all().size());
+
+        assertFalse(extension().load(new StringReader(FILE), true, IGNORE).isChanged());
+    }
+
+    @Test
+    public void testLoadRejectsViolatedConstraints() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(ConstraintTxCheckTest.Labels.Person);
+            tx.success();
+        }
+        ConstraintLoader.Diff diff = extension().load(new StringReader(FILE), false, IGNORE);
+        assertEquals(1, diff.getViolations());
+        assertTrue(persister.restore().isEmpty());
+    }
+}
@@ -0,0 +1,89 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels.Company;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels.Person;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Types.WORKS_FOR;
+
+public class ConstraintMetricsTest {
+    private GraphDatabaseService db;
+    private ConstraintMetrics metrics;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        constraints.add(ConstraintParser.parse("(:Person)-[:REPORTS_TO]->(:Manager) TO 1..3:0..1"));
+        new ConstraintPersister(db).persist(constraints);
+        metrics = ConstraintExtensionFactory.extension((GraphDatabaseAPI) db).getMetrics();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testRecordsCommitsAndViolationsPerConstraint() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            Node company = db.createNode(Company);
+            db.createNode(Person).createRelationshipTo(company, WORKS_FOR);
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(Person);
+            tx.success();
+        } catch (TransactionFailureException expected) {
+        }
+        assertEquals(2, metrics.getTransactions());
+        assertEquals(3, metrics.getNodesChecked()); // person and company, then the lone person
+        assertEquals(1, metrics.getViolations());
+        assertTrue(metrics.getRelationshipsScanned() > 0);
+        String[] constraints = metrics.getConstraints();
+        assertEquals(2, constraints.length);
+        for (String constraint : constraints) {
+            assertEquals(constraint, constraint.contains("WORKS_FOR"), constraint.contains("violations 1"));
+        }
+
+        metrics.reset();
+        assertEquals(0, metrics.getTransactions());
+        assertEquals(0, metrics.getConstraints().length);
+    }
+
+    @Test
+    public void testRegisteredOverJmx() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = server.queryNames(new ObjectName("org.neo4j.constraints:type=ConstraintMetrics,*"), null);
+        assertFalse(names.isEmpty());
+        for (ObjectName name : names) {
+            assertNotNull(server.getAttribute(name, "CommitCheckTime"));
+        }
+    }
+
+    @Test
+    public void testHistogramPercentiles() throws Exception {
+        ConstraintMetrics.Histogram histogram = new ConstraintMetrics.Histogram();
+        for (int i = 0; i < 99; i++) histogram.record(10);
+        histogram.record(1000);
+        assertEquals(100, histogram.count());
+        assertEquals(15, histogram.percentile(50));
+        assertEquals(15, histogram.percentile(99));
+        assertEquals(1023, histogram.percentile(100));
+    }
+}
@@ -8,28 +8,20 @@ public class ConstraintParserTest {
 
     @Test
     public void testParseParts() throws Exception {
-        assertTrue("label", "(:Person)".matches(ConstraintParser.LABEL));
-        assertTrue("label space", "( : Person )".matches(ConstraintParser.LABEL));
-        assertTrue("type", "[:KNOWS]".matches(ConstraintParser.TYPE));
-        assertTrue("type space", "[ : KNOWS ]".matches(ConstraintParser.TYPE));
-        assertTrue("pattern", "(:Person)-[:KNOWS]-(:Person)".matches(ConstraintParser.PATTERN));
-        assertTrue("pattern both", "(:Person)<-[:KNOWS]->(:Person)".matches(ConstraintParser.PATTERN));
-        assertTrue("pattern in", "(:Person)<-[:KNOWS]-(:Person)".matches(ConstraintParser.PATTERN));
-        assertTrue("pattern out", "(:Person)<-[:KNOWS]->(:Person)".matches(ConstraintParser.PATTERN));
-        assertTrue("pattern space", "( : Person ) < - [ : KNOWS ] - > ( : Person )".matches(ConstraintParser.PATTERN));
-        assertTrue("card 0", "0".matches(ConstraintParser.COUNT));
-        assertTrue("card 1", "1".matches(ConstraintParser.COUNT));
-        assertTrue("card 10", "10".matches(ConstraintParser.COUNT));
-        assertTrue("card one", "one".matches(ConstraintParser.COUNT));
-        assertTrue("card many", "many".matches(ConstraintParser.COUNT));
-        assertTrue("card 1..1", "1..1".matches(ConstraintParser.MIN_MAX));
-        assertTrue("card 1..many", "1..many".matches(ConstraintParser.MIN_MAX));
-        assertTrue("card 1:", "1".matches(ConstraintParser.MIN_MAX));
-        assertTrue("card many:", "many".matches(ConstraintParser.MIN_MAX));
-        assertTrue("card many:many", "many:many".matches(ConstraintParser.CARD));
-        assertTrue("card 1:many", "1:many".matches(ConstraintParser.CARD));
-        assertTrue("card 1:1", "1:1".matches(ConstraintParser.CARD));
-        assertTrue("card 1..many:1..1", "1..many:1..1".matches(ConstraintParser.CARD));
+        assertConstraint("(:Person)-[:KNOWS]-(:Person) OF 1..1:1..1", "( : Person )-[ : KNOWS ]-( : Person ) TO 1:1");
+        assertConstraint("(:Person)-[:KNOWS]-(:Person) OF 1..1:1..1", "(:Person)<-[:KNOWS]->(:Person) TO 1:1");
+        assertConstraint("(:Person)<-[:KNOWS]-(:Person) OF 1..1:1..1", "(:Person)<-[:KNOWS]-(:Person) TO 1:1");
+        assertConstraint("(:Person)-[:KNOWS]->(:Person) OF 1..1:1..1", "( : Person ) - [ : KNOWS ] - > ( : Person ) TO 1:1");
+        assertConstraint("(:Person)-[:KNOWS]-(:Person) OF 0..0:10..10", "(:Person)-[:KNOWS]-(:Person) TO 0:10");
+        assertConstraint("(:Person)-[:KNOWS]-(:Person) OF 1..-1:-1..-1", "(:Person)-[:KNOWS]-(:Person) TO 1..many:many");
+        assertConstraint("(:Person)-[:KNOWS]-(:Person) OF 1..-1:1..1", "(:Person)-[:KNOWS]-(:Person) TO 1..many:1..1");
+    }
+
+    @Test
+    public void testCountOutOfRange() throws Exception {
+        assertParseError(32, "(:Person)-[:KNOWS]-(:Person) TO 2147483648:1");
+        assertParseError(37, "(:Person)-[:KNOWS]-(:Person) TO 1..1:99999999999");
+        assertConstraint("(:Person)-[:KNOWS]-(:Person) OF 2147483647..2147483647:1..1", "(:Person)-[:KNOWS]-(:Person) TO 2147483647:1");
     }
 
     @Test
@@ -39,6 +31,30 @@ public class ConstraintParserTest {
         assertConstraint("(:Employee)-[:REPORTS_TO]->(:Manager) OF 1..3:1..1", "(:Employee)-[:REPORTS_TO]->(:Manager) TO 1..3:1..1");
     }
 
+    @Test
+    public void testParseSpacesAndCase() throws Exception {
+        assertConstraint("(:Person)<-[:KNOWS]-(:Person) OF 0..-1:2..2", " ( : Person ) < - [ : KNOWS ] - ( : Person )  to  0 .. many : 2 ");
+        assertConstraint("(:Person)-[:KNOWS]-(:Person) OF 1..1:1..1", "(:Person)<-[:KNOWS]->(:Person) TO one:one");
+    }
+
+    @Test
+    public void testParseErrorPositions() throws Exception {
+        assertParseError(9, "(:Person)[:KNOWS]-(:Person) TO 1:1");
+        assertParseError(34, "(:Person)-[:KNOWS]-(:Person TO 1:1");
+        assertParseError(29, "(:Person)-[:KNOWS]-(:Person) INTO 1:1");
+        assertParseError(32, "(:Person)-[:KNOWS]-(:Person) TO few:1");
+        assertParseError(36, "(:Person)-[:KNOWS]-(:Person) TO 1:1 extra");
+    }
+
+    private void assertParseError(int position, String pattern) {
+        try {
+            ConstraintParser.parse(pattern);
+            fail("Expected parse error for " + pattern);
+        } catch (ConstraintParser.ParseException e) {
+            assertEquals(e.getMessage(), position, e.getPosition());
+        }
+    }
+
     private void assertConstraint(String expected, String pattern) {
         assertEquals(expected, ConstraintParser.parse(pattern).toString());
     }
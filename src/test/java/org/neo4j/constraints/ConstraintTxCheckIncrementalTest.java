@@ -0,0 +1,15 @@
+package org.neo4j.constraints;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.helpers.Settings;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class ConstraintTxCheckIncrementalTest extends ConstraintTxCheckTest {
+
+    @Override
+    protected GraphDatabaseService newDatabase() {
+        return new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder()
+                .setConfig(ConstraintSettings.incremental_check, Settings.TRUE)
+                .newGraphDatabase();
+    }
+}
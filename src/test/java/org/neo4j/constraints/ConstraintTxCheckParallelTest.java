@@ -0,0 +1,40 @@
+package org.neo4j.constraints;
+
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+public class ConstraintTxCheckParallelTest extends ConstraintTxCheckTest {
+
+    @Override
+    protected GraphDatabaseService newDatabase() {
+        return new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder()
+                .setConfig(ConstraintSettings.parallel_check_threshold, "1")
+                .setConfig(ConstraintSettings.parallel_check_threads, "2")
+                .newGraphDatabase();
+    }
+
+    @Test
+    public void testCreateManyPersons() throws Exception {
+        createPersons(2000, false);
+    }
+
+    @Test(expected = TransactionFailureException.class)
+    public void testCreateManyPersonsWithOneViolation() throws Exception {
+        createPersons(2000, true);
+    }
+
+    private void createPersons(int count, boolean violate) {
+        try (Transaction tx = db.beginTx()) {
+            Node company = db.createNode(Labels.Company);
+            for (int i = 0; i < count; i++) {
+                db.createNode(Labels.Person).createRelationshipTo(company, Types.WORKS_FOR);
+            }
+            if (violate) db.createNode(Labels.Person);
+            tx.success();
+        }
+    }
+}
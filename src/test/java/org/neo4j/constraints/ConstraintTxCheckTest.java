@@ -7,11 +7,13 @@ import org.junit.Test;
 import org.neo4j.graphdb.*;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
+import static org.junit.Assert.*;
+
 public class ConstraintTxCheckTest {
 
     private Node person1;
     private Node company;
-    private GraphDatabaseService db;
+    protected GraphDatabaseService db;
     private Relationship worksFor1;
     private Relationship worksFor2;
     private Relationship worksForM;
@@ -31,10 +33,14 @@ public class ConstraintTxCheckTest {
 
     @Before
     public void setUp() throws Exception {
-        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        db = newDatabase();
         installConstraints();
     }
 
+    protected GraphDatabaseService newDatabase() {
+        return new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
     private void installConstraints() {
         persister = new ConstraintPersister(db);
         worksForConstraint = ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1");
@@ -156,4 +162,66 @@ public class ConstraintTxCheckTest {
             tx.success();
         }
     }
+
+    @Test
+    public void testCurrentConstraintsAreCachedUntilPersisted() throws Exception {
+        Constraint.Constraints current;
+        try (Transaction tx = db.beginTx()) {
+            current = persister.current();
+            assertSame(current, persister.current());
+            tx.success();
+        }
+        Constraint.Constraints constraints = new ConstraintPersister(db).restore();
+        constraints.add(ConstraintParser.parse("(:Product)-[:MADE_BY]->(:Company) TO many:1"));
+        new ConstraintPersister(db).persist(constraints);
+        try (Transaction tx = db.beginTx()) {
+            assertNotSame(current, persister.current());
+            assertEquals(3, persister.current().toArray().length / Constraint.SIZE);
+            tx.success();
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testCurrentConstraintsAreUnmodifiable() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            persister.current().add(worksForConstraint);
+        }
+    }
+
+    @Test(expected = TransactionFailureException.class)
+    public void testConstraintAddedLaterIsEnforced() throws Exception {
+        testCreateCompany();
+        Constraint.Constraints constraints = persister.restore();
+        constraints.add(ConstraintParser.parse("(:Product)-[:MADE_BY]->(:Company) TO many:1"));
+        persister.persist(constraints);
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(Labels.Product);
+            tx.success();
+        }
+    }
+
+    @Test(expected = TransactionFailureException.class)
+    public void testAddSecondCompany() throws Exception {
+        testCreatePerson();
+        try (Transaction tx = db.beginTx()) {
+            company2 = db.createNode(Labels.Company);
+            person1.createRelationshipTo(company2, Types.WORKS_FOR);
+            tx.success();
+        }
+    }
+
+    @Test(expected = TransactionFailureException.class)
+    public void testLabelingSecondEmployerAsCompany() throws Exception {
+        testCreatePerson();
+        Node employer;
+        try (Transaction tx = db.beginTx()) {
+            employer = db.createNode();
+            person1.createRelationshipTo(employer, Types.WORKS_FOR);
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            employer.addLabel(Labels.Company);
+            tx.success();
+        }
+    }
 }
@@ -6,8 +6,15 @@ import org.junit.Test;
 import org.neo4j.graphdb.*;
 import org.neo4j.test.TestGraphDatabaseFactory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class ConstraintsTest {
@@ -94,4 +101,68 @@ public class ConstraintsTest {
         assertEquals("check manager", Constraint.Result.OK, reportsToConstraint.check(manager));
         assertEquals("check company", Constraint.Result.OK, reportsToConstraint.check(company));
     }
+
+    @Test
+    public void testConstraintsDispatchByLabel() throws Exception {
+        Constraint.Constraints constraints = new Constraint.Constraints(Arrays.asList(worksForConstraint, reportsToConstraint));
+        assertNull("person1", constraints.check(person1));
+        assertNull("manager", constraints.check(manager));
+        assertNull("product", constraints.check(product));
+        Map<Constraint, Constraint.Result> errors = constraints.check(person2);
+        assertEquals(1, errors.size());
+        assertEquals(Constraint.Result.TO_MANY, errors.get(worksForConstraint));
+    }
+
+    @Test
+    public void testConstraintsDispatchByTypeAndDirection() throws Exception {
+        Constraint.Constraints constraints = new Constraint.Constraints(Arrays.asList(worksForConstraint, reportsToConstraint));
+        assertTrue("works for", constraints.matches(worksFor1));
+        assertTrue("person outgoing", constraints.matches(person1, Types.WORKS_FOR, Direction.OUTGOING));
+        assertTrue("company incoming", constraints.matches(company, Types.WORKS_FOR, Direction.INCOMING));
+        assertFalse("company outgoing", constraints.matches(company, Types.WORKS_FOR, Direction.OUTGOING));
+        assertFalse("person incoming", constraints.matches(person1, Types.WORKS_FOR, Direction.INCOMING));
+        assertTrue("manager incoming", constraints.matches(manager, Types.REPORTS_TO, Direction.INCOMING));
+        assertFalse("product", constraints.matches(product, Types.WORKS_FOR, Direction.OUTGOING));
+        assertFalse("knows", constraints.matches(person1, Types.KNOWS, Direction.OUTGOING));
+    }
+
+    @Test
+    public void testCheckOnlyBoundsTheDeltaCanCross() throws Exception {
+        assertEquals("unchanged", Constraint.Result.OK, worksForConstraint.check(person2, new int[]{0, 0}));
+        assertEquals("gained one", Constraint.Result.TO_MANY, worksForConstraint.check(person2, new int[]{1, 0}));
+        assertEquals("company gained one", Constraint.Result.OK, worksForConstraint.check(company, new int[]{0, 1}));
+        assertEquals("company lost one", Constraint.Result.OK, worksForConstraint.check(company, new int[]{0, -1}));
+    }
+
+    @Test
+    public void testSnapshotChecksCheapConstraintsFirst() throws Exception {
+        Constraint typed = new Constraint(null, null, "KNOWS", Direction.OUTGOING, 0, -1, 0, 5);
+        Constraint plain = new Constraint(null, null, null, Direction.OUTGOING, 0, -1, 0, 10);
+        assertEquals(Constraint.Cost.TYPED_DEGREE, typed.getCost());
+        assertEquals(Constraint.Cost.DEGREE, plain.getCost());
+        assertEquals(Constraint.Cost.LABEL_SCAN, worksForConstraint.getCost());
+        Constraint.Constraints snapshot = new Constraint.Constraints(Arrays.asList(typed, plain)).unmodifiable();
+        assertEquals(Arrays.asList(plain, typed), new ArrayList<>(snapshot.candidates(Collections.singleton(Constraint.NO_TYPE))));
+    }
+
+    @Test
+    public void testSnapshotChecksFailingConstraintsFirst() throws Exception {
+        Constraint.Constraints snapshot = new Constraint.Constraints(Arrays.asList(reportsToConstraint, worksForConstraint)).unmodifiable();
+        Set<String> person = Collections.singleton(Labels.Person.name());
+        assertEquals(Arrays.asList(reportsToConstraint, worksForConstraint), new ArrayList<>(snapshot.candidates(person)));
+        for (int i = 0; i < 10; i++) {
+            reportsToConstraint.recordCheck(false);
+            worksForConstraint.recordCheck(true);
+        }
+        snapshot.order();
+        assertEquals(Arrays.asList(worksForConstraint, reportsToConstraint), new ArrayList<>(snapshot.candidates(person)));
+    }
+
+    @Test
+    public void testFailFastStopsAtFirstViolation() throws Exception {
+        Constraint tooFewReports = ConstraintParser.parse("(:Person)-[:REPORTS_TO]->(:Manager) to many:2");
+        Constraint.Constraints constraints = new Constraint.Constraints(Arrays.asList(worksForConstraint, tooFewReports));
+        assertEquals(2, constraints.check(person2, DegreeCounter.DEFAULT, false).size());
+        assertEquals(1, constraints.check(person2, DegreeCounter.DEFAULT, true).size());
+    }
 }
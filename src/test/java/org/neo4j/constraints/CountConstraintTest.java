@@ -0,0 +1,236 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.*;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+
+public class CountConstraintTest {
+    enum Labels implements Label { Config, Tenant, Other }
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+    private GraphDatabaseService db;
+
+    @Before
+    public void setUp() throws Exception {
+        db = newDatabase();
+        assertEquals(0, extension().addCountConstraint(ConstraintParser.parseCount("(:Config) TO 0..1")));
+    }
+
+    private GraphDatabaseService newDatabase() {
+        return new TestGraphDatabaseFactory().newEmbeddedDatabase(folder.getRoot().getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    private ConstraintExtensionFactory.ConstraintExtension extension() {
+        return ConstraintExtensionFactory.extension((GraphDatabaseAPI) db);
+    }
+
+    private long count(String label) {
+        return extension().getLabelCounts().count(label);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        assertEquals("(:Tenant) TO 0..10000", ConstraintParser.parseCount(" ( :Tenant ) to 0 .. 10000").toString());
+        assertEquals("(:Config) TO 1..1", ConstraintParser.parseCount("(:Config) TO one").toString());
+        assertTrue(ConstraintParser.isCountConstraint("(:Config) TO 0..1"));
+        assertFalse(ConstraintParser.isCountConstraint("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        assertFalse(ConstraintParser.isCountConstraint("(:Person).age IN 0..1"));
+    }
+
+    private boolean commit(Runnable work) {
+        try (Transaction tx = db.beginTx()) {
+            work.run();
+            tx.success();
+        } catch (TransactionFailureException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private final Runnable createConfig = new Runnable() {
+        public void run() {
+            db.createNode(Labels.Config);
+        }
+    };
+
+    @Test
+    public void testAtMostOneConfig() throws Exception {
+        assertTrue(commit(createConfig));
+        assertEquals(1, count("Config"));
+        assertFalse(commit(createConfig));
+        assertEquals(1, count("Config"));
+    }
+
+    @Test
+    public void testDeletesAndLabelChangesAreCounted() throws Exception {
+        final Node[] config = new Node[1];
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                config[0] = db.createNode(Labels.Config, Labels.Other);
+            }
+        }));
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                config[0].delete();
+            }
+        }));
+        assertEquals(0, count("Config"));
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                config[0] = db.createNode(Labels.Other);
+                config[0].addLabel(Labels.Config);
+            }
+        }));
+        assertEquals(1, count("Config"));
+        // moving the label to another node keeps the count
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                config[0].removeLabel(Labels.Config);
+                db.createNode(Labels.Config);
+            }
+        }));
+        assertEquals(1, count("Config"));
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                db.createNode(Labels.Config).delete();
+            }
+        }));
+        assertEquals(1, count("Config"));
+    }
+
+    @Test
+    public void testRollbackReleasesReservation() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(Labels.Config);
+            tx.failure();
+        }
+        assertTrue(commit(createConfig));
+    }
+
+    @Test
+    public void testRejectsViolatedData() throws Exception {
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                db.createNode(Labels.Tenant);
+                db.createNode(Labels.Tenant);
+            }
+        }));
+        assertEquals(2, extension().addCountConstraint(ConstraintParser.parseCount("(:Tenant) TO 0..1")));
+        assertEquals(-1, count("Tenant"));
+        assertEquals(2, extension().addCountConstraint(ConstraintParser.parseCount("(:Tenant) TO 0..3")));
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                db.createNode(Labels.Tenant);
+            }
+        }));
+        assertEquals(3, count("Tenant"));
+    }
+
+    @Test
+    public void testUncountedConstrainedLabelIsRejected() throws Exception {
+        // stored without counting, as if the count on startup had failed
+        ConstraintPersister persister = new ConstraintPersister(db);
+        persister.persistCounts(persister.restoreCounts().with(ConstraintParser.parseCount("(:Tenant) TO 0..1")));
+        assertFalse(commit(new Runnable() {
+            public void run() {
+                db.createNode(Labels.Tenant);
+            }
+        }));
+        assertTrue(commit(createConfig));
+    }
+
+    @Test
+    public void testConcurrentCommitsDontOvershoot() throws Exception {
+        int threads = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        barrier.await();
+                        return commit(createConfig);
+                    }
+                }));
+            }
+            int committed = 0;
+            for (Future<Boolean> result : results) if (result.get()) committed++;
+            assertEquals(1, committed);
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, count("Config"));
+    }
+
+    @Test(timeout = 10000)
+    public void testReservationCanBeReleasedByAnotherThread() throws Exception {
+        LabelCounts counts = new LabelCounts();
+        final LabelCounts.Reservation reservation = counts.reserve(CountConstraint.Constraints.from(null),
+                Collections.singletonMap("Config", 1L), false, new ArrayList<CountConstraint.Violation>());
+        Thread other = new Thread() {
+            public void run() {
+                reservation.apply();
+            }
+        };
+        other.start();
+        other.join();
+        counts.initialize(db, Collections.singleton("Config"), 1);
+        assertEquals(0, counts.count("Config"));
+    }
+
+    @Test(timeout = 10000)
+    public void testCountingALabelOnlyBlocksCommitsChangingIt() throws Exception {
+        final LabelCounts counts = extension().getLabelCounts();
+        LabelCounts.Reservation reservation = counts.reserve(CountConstraint.Constraints.from(null),
+                Collections.singletonMap("Tenant", 1L), false, new ArrayList<CountConstraint.Violation>());
+        Thread counting = new Thread() {
+            public void run() {
+                try {
+                    counts.initialize(db, new HashSet<>(Arrays.asList("Config", "Tenant")), 1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        counting.start();
+        while (counting.getState() != Thread.State.WAITING) Thread.sleep(10); // draining the reservation
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                db.createNode(Labels.Other);
+            }
+        }));
+        reservation.discard();
+        counting.join();
+        assertEquals(0, count("Tenant"));
+    }
+
+    @Test
+    public void testCountsAreScannedOnStart() throws Exception {
+        assertTrue(commit(createConfig));
+        db.shutdown();
+        db = newDatabase();
+        assertEquals(1, count("Config"));
+        assertFalse(commit(createConfig));
+    }
+}
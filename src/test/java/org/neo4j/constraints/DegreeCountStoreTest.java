@@ -0,0 +1,175 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.neo4j.graphdb.*;
+import org.neo4j.helpers.Settings;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DegreeCountStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private GraphDatabaseAPI db;
+    private Node company;
+    private Node person;
+
+    enum Labels implements Label { Person, Company }
+    enum Types implements RelationshipType { WORKS_FOR }
+
+    @Before
+    public void setUp() throws Exception {
+        db = startDatabase();
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        new ConstraintPersister(db).persist(constraints);
+        try (Transaction tx = db.beginTx()) {
+            company = db.createNode(Labels.Company);
+            person = db.createNode(Labels.Person);
+            person.createRelationshipTo(company, Types.WORKS_FOR);
+            tx.success();
+        }
+        assertTrue(extension().rebuildDegreeCounts());
+    }
+
+    private GraphDatabaseAPI startDatabase() {
+        return (GraphDatabaseAPI) new TestGraphDatabaseFactory().newEmbeddedDatabaseBuilder(folder.getRoot().getAbsolutePath())
+                .setConfig(ConstraintSettings.degree_counters, Settings.TRUE)
+                .newGraphDatabase();
+    }
+
+    private ConstraintExtensionFactory.ConstraintExtension extension() {
+        return ConstraintExtensionFactory.extension(db);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testSeededCounts() throws Exception {
+        assertEquals(1, count(person, Constraint.TO_SIDE));
+        assertEquals(1, count(company, Constraint.FROM_SIDE));
+        assertEquals(0, count(company, Constraint.TO_SIDE));
+    }
+
+    @Test(expected = TransactionFailureException.class)
+    public void testViolationDetectedFromCounts() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            person.createRelationshipTo(db.createNode(Labels.Company), Types.WORKS_FOR);
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testCountsFollowRelationshipAndLabelChanges() throws Exception {
+        Node other;
+        try (Transaction tx = db.beginTx()) {
+            other = db.createNode();
+            person.createRelationshipTo(other, Types.WORKS_FOR);
+            tx.success();
+        }
+        assertEquals(1, count(person, Constraint.TO_SIDE));
+        // the person would work for two companies if the old employment was kept
+        try (Transaction tx = db.beginTx()) {
+            other.addLabel(Labels.Company);
+            for (Relationship rel : company.getRelationships()) rel.delete();
+            tx.success();
+        }
+        assertEquals(1, count(person, Constraint.TO_SIDE));
+        try (Transaction tx = db.beginTx()) {
+            for (Relationship rel : other.getRelationships()) rel.delete();
+            other.delete();
+            person.createRelationshipTo(company, Types.WORKS_FOR);
+            tx.success();
+        }
+        assertEquals(1, count(person, Constraint.TO_SIDE));
+    }
+
+    @Test
+    public void testCountsSurviveRestart() throws Exception {
+        db.shutdown();
+        db = startDatabase();
+        assertEquals(1, count(person, Constraint.TO_SIDE));
+        assertEquals(1, count(company, Constraint.FROM_SIDE));
+    }
+
+    @Test
+    public void testConcurrentCommitsSeeAppliedCounts() throws Exception {
+        int threads = 4;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        barrier.await();
+                        try (Transaction tx = db.beginTx()) {
+                            person.createRelationshipTo(db.createNode(Labels.Company), Types.WORKS_FOR);
+                            tx.success();
+                        } catch (TransactionFailureException e) {
+                            return false;
+                        }
+                        return true;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) assertFalse(result.get());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, count(person, Constraint.TO_SIDE));
+    }
+
+    @Test
+    public void testRebuildCatchesUpWithConcurrentCommits() throws Exception {
+        final List<Relationship> employments = new ArrayList<>();
+        try (Transaction tx = db.beginTx()) {
+            Node other = db.createNode(Labels.Company);
+            for (int i = 0; i < 200; i++) employments.add(db.createNode(Labels.Person).createRelationshipTo(other, Types.WORKS_FOR));
+            tx.success();
+        }
+        // changes no labels, which the test database's label scan store can't take during the scan
+        Thread writer = new Thread() {
+            public void run() {
+                for (Relationship employment : employments) {
+                    try (Transaction tx = db.beginTx()) {
+                        employment.getStartNode().createRelationshipTo(company, Types.WORKS_FOR);
+                        employment.delete();
+                        tx.success();
+                    }
+                }
+            }
+        };
+        writer.start();
+        while (writer.isAlive()) assertTrue(extension().rebuildDegreeCounts());
+        writer.join();
+        assertEquals(employments.size() + 1, count(company, Constraint.FROM_SIDE));
+    }
+
+    private int count(Node node, int side) {
+        DegreeCountStore store = extension().getDegreeCountStore();
+        try (Transaction tx = db.beginTx()) {
+            Constraint.Constraints constraints = new ConstraintPersister(db).current();
+            assertTrue("valid", store.isValidFor(constraints));
+            int slot = store.layout().slot(constraints.all().get(0), side);
+            tx.success();
+            return store.get(node.getId(), slot);
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.*;
+import static org.neo4j.constraints.Constraint.MANY_VALUE;
+import static org.neo4j.constraints.Constraint.Result;
+
+public class DegreeCounterTest {
+
+    private GraphDatabaseService db;
+    private Transaction tx;
+    private Node company;
+    private DegreeCounter counter = new DegreeCounter(50);
+
+    enum Labels implements Label { Person, Company }
+    enum Types implements RelationshipType { WORKS_FOR }
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try (Transaction tx = db.beginTx()) {
+            company = db.createNode(Labels.Company);
+            for (int i = 0; i < 120; i++) {
+                db.createNode(Labels.Person).createRelationshipTo(company, Types.WORKS_FOR);
+            }
+            for (int i = 0; i < 10; i++) {
+                db.createNode().createRelationshipTo(company, Types.WORKS_FOR);
+            }
+            tx.success();
+        }
+        tx = db.beginTx();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        tx.failure();
+        tx.close();
+        db.shutdown();
+    }
+
+    @Test
+    public void testUnboundedSideIsNotCounted() throws Exception {
+        assertEquals(0, count(Labels.Person, MANY_VALUE, MANY_VALUE));
+        assertEquals(0, count(Labels.Person, 0, MANY_VALUE));
+    }
+
+    @Test
+    public void testStopsAfterMax() throws Exception {
+        assertEquals(6, count(Labels.Person, MANY_VALUE, 5));
+        assertEquals(Result.TO_MANY, check(Labels.Person, 0, 5));
+    }
+
+    @Test
+    public void testStopsAtMinWithoutMax() throws Exception {
+        assertEquals(3, count(Labels.Person, 3, MANY_VALUE));
+        assertEquals(Result.OK, check(Labels.Person, 3, MANY_VALUE));
+    }
+
+    @Test
+    public void testDenseNodeDecidedByTypedDegree() throws Exception {
+        assertEquals(Result.OK, check(Labels.Person, MANY_VALUE, 200));
+        assertEquals(Result.TO_FEW, check(Labels.Person, 200, MANY_VALUE));
+    }
+
+    @Test
+    public void testDenseNodeScansWhenTypedDegreeIsNotEnough() throws Exception {
+        assertEquals(Result.TO_FEW, check(Labels.Person, 125, MANY_VALUE));
+        assertEquals(Result.OK, check(Labels.Person, 120, 120));
+        assertEquals(Result.TO_MANY, check(Labels.Person, 0, 119));
+    }
+
+    @Test
+    public void testUnfilteredDegree() throws Exception {
+        assertEquals(130, count(null, 0, 200));
+    }
+
+    @Test
+    public void testCountsWithResolvedTokenIds() throws Exception {
+        DegreeCounter kernelCounter = new DegreeCounter(50, null, ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(ThreadToStatementContextBridge.class));
+        Constraint constraint = ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO 0..200:1");
+        assertEquals(count(Labels.Person, 0, 200), kernelCounter.count(constraint, Constraint.FROM_SIDE, company));
+        assertTrue(constraint.isResolved());
+        assertEquals(Result.TO_FEW, ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO 125..200:1").check(company, kernelCounter));
+        assertEquals(Result.TO_MANY, ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO 0..119:1").check(company, kernelCounter));
+        assertEquals(0, kernelCounter.count(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO 0..3:1"), Constraint.FROM_SIDE, db.createNode()));
+
+        Constraint unknown = ConstraintParser.parse("(:Robot)-[:WORKS_FOR]->(:Company) TO 1..200:1");
+        assertEquals(Result.TO_FEW, unknown.check(company, kernelCounter));
+        assertFalse(unknown.isResolved());
+        db.createNode(DynamicLabel.label("Robot")).createRelationshipTo(company, Types.WORKS_FOR);
+        assertEquals(Result.OK, unknown.check(company, kernelCounter));
+        assertTrue(unknown.isResolved());
+    }
+
+    private int count(Label label, int min, int max) {
+        return counter.count(company, Types.WORKS_FOR, Direction.INCOMING, label, min, max);
+    }
+
+    private Result check(Label label, int min, int max) {
+        return Result.check(count(label, min, max), min, max);
+    }
+}
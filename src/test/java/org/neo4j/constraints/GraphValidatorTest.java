@@ -0,0 +1,153 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.constraints.Constraint.Result;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+import org.neo4j.tooling.GlobalGraphOperations;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels.Company;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels.Person;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Types.WORKS_FOR;
+
+public class GraphValidatorTest {
+    private static final String WORKS_FOR_CONSTRAINT = "(:Person)-[:WORKS_FOR]->(:Company) TO many:1";
+
+    private GraphDatabaseService db;
+    private ConstraintExtensionFactory.ConstraintExtension extension;
+    private Node lonePerson;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        extension = ConstraintExtensionFactory.extension((GraphDatabaseAPI) db);
+        try (Transaction tx = db.beginTx()) {
+            Node company = db.createNode(Company);
+            for (int i = 0; i < 12000; i++) {
+                db.createNode(Person).createRelationshipTo(company, WORKS_FOR);
+            }
+            lonePerson = db.createNode(Person);
+            tx.success();
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testStreamsViolationsAndProgress() throws Exception {
+        Collecting listener = new Collecting(true);
+        long violations = new GraphValidator(db, DegreeCounter.DEFAULT, 4).validate(constraints(), listener);
+        assertEquals(1, violations);
+        assertEquals(Collections.singleton(lonePerson.getId()), listener.nodes.keySet());
+        assertEquals(Result.TO_FEW, listener.nodes.get(lonePerson.getId()).values().iterator().next());
+        assertEquals(listener.total.get(), listener.checked.get());
+    }
+
+    @Test
+    public void testStopsWhenListenerAsks() throws Exception {
+        Collecting listener = new Collecting(false);
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < 100; i++) db.createNode(Person);
+            tx.success();
+        }
+        long violations = new GraphValidator(db, DegreeCounter.DEFAULT, 1).validate(constraints(), listener);
+        assertEquals(1, violations);
+    }
+
+    @Test
+    public void testRevalidatesLabelledSidesFromTheLabelIndexInOnePass() throws Exception {
+        ConstraintDiff diff = ConstraintDiff.of(Constraint.Constraints.from(null), new Constraint.Constraints(Arrays.asList(
+                ConstraintParser.parse(WORKS_FOR_CONSTRAINT), ConstraintParser.parse("(:Person)-[:KNOWS]-(:Person) TO 0..5:0..5"))));
+        Collecting listener = new Collecting(true);
+        long violations = new GraphValidator(db, DegreeCounter.DEFAULT, 4).validate(diff.getRevalidations(), listener);
+        assertEquals(1, violations);
+        assertEquals(Collections.singleton(lonePerson.getId()), listener.nodes.keySet());
+        assertEquals(listener.total.get(), listener.checked.get());
+    }
+
+    @Test
+    public void testRejectsConstraintViolatedByExistingData() throws Exception {
+        assertFalse(extension.addConstraint(ConstraintParser.parse(WORKS_FOR_CONSTRAINT), false, new Collecting(true)));
+        assertTrue(new ConstraintPersister(db).restore().isEmpty());
+        assertTrue(new ConstraintPersister(db).restorePending().isEmpty());
+        createLonePerson(); // not enforced
+    }
+
+    @Test
+    public void testActivatesPendingConstraintOnceDataIsFixed() throws Exception {
+        assertFalse(extension.addConstraint(ConstraintParser.parse(WORKS_FOR_CONSTRAINT), true, new Collecting(true)));
+        assertEquals(1, new ConstraintPersister(db).restorePending().all().size());
+        createLonePerson(); // pending constraints are not enforced
+        assertEquals(1, extension.validatePending(new Collecting(true)));
+
+        try (Transaction tx = db.beginTx()) {
+            for (Node person : GlobalGraphOperations.at(db).getAllNodesWithLabel(Person)) {
+                if (!person.hasRelationship()) person.delete();
+            }
+            tx.success();
+        }
+        assertEquals(0, extension.validatePending(new Collecting(true)));
+        assertEquals(1, new ConstraintPersister(db).restore().all().size());
+        assertTrue(new ConstraintPersister(db).restorePending().isEmpty());
+        try {
+            createLonePerson();
+            fail("constraint should be enforced");
+        } catch (TransactionFailureException expected) {
+        }
+    }
+
+    @Test
+    public void testAddsConstraintSatisfiedByExistingData() throws Exception {
+        assertTrue(extension.addConstraint(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:0..1"), false, new Collecting(true)));
+        assertEquals(1, new ConstraintPersister(db).restore().all().size());
+    }
+
+    private void createLonePerson() {
+        try (Transaction tx = db.beginTx()) {
+            db.createNode(Person);
+            tx.success();
+        }
+    }
+
+    private Constraint.Constraints constraints() {
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse(WORKS_FOR_CONSTRAINT));
+        return constraints;
+    }
+
+    private static class Collecting implements GraphValidator.Listener {
+        private final boolean proceed;
+        private final Map<Long, Map<Constraint, Result>> nodes = new ConcurrentHashMap<>();
+        private final AtomicLong checked = new AtomicLong(), total = new AtomicLong();
+
+        private Collecting(boolean proceed) {
+            this.proceed = proceed;
+        }
+
+        public boolean violation(Node node, Map<Constraint, Result> results) {
+            nodes.put(node.getId(), results);
+            return proceed;
+        }
+
+        public synchronized void progress(long checkedIds, long totalIds) {
+            if (checkedIds > checked.get()) checked.set(checkedIds);
+            total.set(totalIds);
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.kernel.api.ReadOperations;
+import org.neo4j.kernel.api.Statement;
+import org.neo4j.kernel.impl.core.ThreadToStatementContextBridge;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels;
+
+public class LabelCacheTest {
+    private GraphDatabaseService db;
+    private ThreadToStatementContextBridge statements;
+    private Constraint.Constraints constraints;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        statements = ((GraphDatabaseAPI) db).getDependencyResolver().resolveDependency(ThreadToStatementContextBridge.class);
+        constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testRemembersLabels() throws Exception {
+        try (Transaction tx = db.beginTx(); Statement statement = statements.instance()) {
+            Node company = db.createNode(Labels.Company);
+            ReadOperations read = statement.readOperations();
+            int companyId = read.labelGetForName(Labels.Company.name());
+            LabelCache cache = new LabelCache();
+            assertTrue(cache.hasLabel(read, company.getId(), companyId));
+            company.removeLabel(Labels.Company);
+            assertTrue(cache.hasLabel(read, company.getId(), companyId));
+            assertEquals(1, cache.size());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testSeededFromTransaction() throws Exception {
+        final Node company;
+        try (Transaction tx = db.beginTx()) {
+            company = db.createNode(Labels.Company);
+            tx.success();
+        }
+        final LabelCache[] seeded = new LabelCache[1];
+        db.registerTransactionEventHandler(new TransactionEventHandler.Adapter<Object>() {
+            public Object beforeCommit(TransactionData data) throws Exception {
+                try (Statement statement = statements.instance()) {
+                    seeded[0] = LabelCache.seed(constraints, data, statement.readOperations());
+                }
+                return null;
+            }
+        });
+        try (Transaction tx = db.beginTx()) {
+            company.removeLabel(Labels.Company);
+            db.createNode().addLabel(Labels.Manager); // not constrained
+            tx.success();
+        }
+        assertEquals(1, seeded[0].size());
+        try (Transaction tx = db.beginTx(); Statement statement = statements.instance()) {
+            // the cached removal answers without a read, although the label is gone in the store as well
+            ReadOperations read = statement.readOperations();
+            assertFalse(seeded[0].hasLabel(read, company.getId(), read.labelGetForName(Labels.Company.name())));
+            assertEquals(1, seeded[0].size());
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testSharedCompanyIsCheckedWithCache() throws Exception {
+        new ConstraintPersister(db).persist(constraints);
+        try (Transaction tx = db.beginTx()) {
+            Node company = db.createNode(Labels.Company);
+            for (int i = 0; i < 200; i++) {
+                db.createNode(Labels.Person).createRelationshipTo(company, ConstraintTxCheckTest.Types.WORKS_FOR);
+            }
+            tx.success();
+        }
+        try (Transaction tx = db.beginTx()) {
+            Node company = db.createNode(Labels.Company), other = db.createNode(Labels.Company);
+            Node person = db.createNode(Labels.Person);
+            person.createRelationshipTo(company, ConstraintTxCheckTest.Types.WORKS_FOR);
+            person.createRelationshipTo(other, ConstraintTxCheckTest.Types.WORKS_FOR);
+            tx.success();
+        } catch (TransactionFailureException e) {
+            return; // the second company is counted
+        }
+        fail("should have been rejected");
+    }
+}
@@ -0,0 +1,104 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.kernel.DeadlockDetectedException;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.concurrent.*;
+
+import static org.junit.Assert.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Types;
+
+public class NodeLocksTest {
+    private GraphDatabaseService db;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:0..1"));
+        new ConstraintPersister(db).persist(constraints);
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+        db.shutdown();
+    }
+
+    @Test
+    public void testStripesAreExclusiveUntilReleased() throws Exception {
+        NodeLocks locks = new NodeLocks(1000, 10);
+        NodeLocks.Lock lock = locks.lock(ids(1, 2, 3));
+        assertEquals(3, lock.stripes());
+        try {
+            locks.lock(ids(3));
+            fail("Expected the stripe of node 3 to be locked");
+        } catch (DeadlockDetectedException expected) {
+        }
+        lock.release();
+        locks.lock(ids(3)).release();
+    }
+
+    @Test
+    public void testConcurrentTransactionsSeeEachOther() throws Exception {
+        final Node person, employer;
+        try (Transaction tx = db.beginTx()) {
+            person = db.createNode(Labels.Person);
+            employer = db.createNode();
+            person.createRelationshipTo(employer, Types.WORKS_FOR);
+            tx.success();
+        }
+        // each transaction on its own is valid and they lock different nodes in the kernel
+        final CountDownLatch changed = new CountDownLatch(2);
+        Future<Boolean> addCompany = executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try (Transaction tx = db.beginTx()) {
+                    person.createRelationshipTo(db.createNode(Labels.Company), Types.WORKS_FOR);
+                    changed.countDown();
+                    changed.await(5, TimeUnit.SECONDS);
+                    tx.success();
+                }
+                return true;
+            }
+        });
+        Future<Boolean> labelEmployer = executor.submit(new Callable<Boolean>() {
+            public Boolean call() throws Exception {
+                try (Transaction tx = db.beginTx()) {
+                    employer.addLabel(Labels.Company);
+                    changed.countDown();
+                    changed.await(5, TimeUnit.SECONDS);
+                    tx.success();
+                }
+                return true;
+            }
+        });
+        assertEquals("exactly one transaction commits", 1, succeeded(addCompany) + succeeded(labelEmployer));
+    }
+
+    private int succeeded(Future<Boolean> future) throws InterruptedException {
+        try {
+            return future.get() ? 1 : 0;
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().toString(), e.getCause() instanceof TransactionFailureException);
+            return 0;
+        }
+    }
+
+    private static org.neo4j.collection.primitive.PrimitiveLongIterator ids(long... ids) {
+        PrimitiveLongSet set = Primitive.longSet();
+        for (long id : ids) set.add(id);
+        return set.iterator();
+    }
+}
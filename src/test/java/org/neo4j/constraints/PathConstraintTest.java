@@ -0,0 +1,154 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class PathConstraintTest {
+    private static final String PATH = "(:Order)-[:CONTAINS]->(:Item)-[:SUPPLIED_BY]->(:Supplier) TO many..many:1..1";
+
+    enum Labels implements Label { Order, Item, Supplier }
+    enum Types implements RelationshipType { CONTAINS, SUPPLIED_BY }
+
+    private GraphDatabaseService db;
+    private Node supplier, item;
+
+    @Before
+    public void setUp() throws Exception {
+        start(new TestGraphDatabaseFactory().newImpermanentDatabase());
+    }
+
+    private void start(GraphDatabaseService db) {
+        this.db = db;
+        try (Transaction tx = db.beginTx()) {
+            supplier = db.createNode(Labels.Supplier);
+            item = db.createNode(Labels.Item);
+            item.createRelationshipTo(supplier, Types.SUPPLIED_BY);
+            tx.success();
+        }
+        assertEquals(0, extension().addPathConstraint(ConstraintParser.parsePath(PATH)));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    private ConstraintExtensionFactory.ConstraintExtension extension() {
+        return ConstraintExtensionFactory.extension((GraphDatabaseAPI) db);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        assertEquals(PATH, ConstraintParser.parsePath("(:Order)-[:CONTAINS]->(:Item) - [:SUPPLIED_BY] -> (:Supplier) to many:1").toString());
+        assertEquals(2, ConstraintParser.parsePath(PATH).length());
+        assertTrue(ConstraintParser.isPathConstraint(PATH));
+        assertFalse(ConstraintParser.isPathConstraint("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        assertFalse(ConstraintParser.isPathConstraint("(:Person).age IN 0..1"));
+    }
+
+    private boolean commit(Runnable work) {
+        try (Transaction tx = db.beginTx()) {
+            work.run();
+            tx.success();
+        } catch (TransactionFailureException e) {
+            return false;
+        }
+        return true;
+    }
+
+    private Node createOrder(final Node... items) {
+        final Node[] order = new Node[1];
+        boolean committed = commit(new Runnable() {
+            public void run() {
+                order[0] = db.createNode(Labels.Order);
+                for (Node item : items) order[0].createRelationshipTo(item, Types.CONTAINS);
+            }
+        });
+        return committed ? order[0] : null;
+    }
+
+    @Test
+    public void testOrderNeedsExactlyOneSupplier() throws Exception {
+        assertNotNull(createOrder(item));
+        assertNull(createOrder());
+        final Node[] other = new Node[1];
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                other[0] = db.createNode(Labels.Item);
+                other[0].createRelationshipTo(db.createNode(Labels.Supplier), Types.SUPPLIED_BY);
+            }
+        }));
+        assertNull(createOrder(item, other[0]));
+    }
+
+    @Test
+    public void testChangeDownstreamChecksOrders() throws Exception {
+        assertNotNull(createOrder(item));
+        // the item gains a second supplier, which the order reaches two hops away
+        assertFalse(commit(new Runnable() {
+            public void run() {
+                item.createRelationshipTo(db.createNode(Labels.Supplier), Types.SUPPLIED_BY);
+            }
+        }));
+        assertFalse(commit(new Runnable() {
+            public void run() {
+                supplier.removeLabel(Labels.Supplier);
+            }
+        }));
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                item.createRelationshipTo(db.createNode(Labels.Item), Types.SUPPLIED_BY);
+            }
+        }));
+    }
+
+    @Test
+    public void testDeletedHopWithRemovedLabelChecksOrder() throws Exception {
+        final Node order = createOrder(item);
+        assertNotNull(order);
+        assertFalse(commit(new Runnable() {
+            public void run() {
+                for (Relationship contains : order.getRelationships(Types.CONTAINS)) contains.delete();
+                item.removeLabel(Labels.Item);
+            }
+        }));
+    }
+
+    @Test
+    public void testAsyncValidationFollowsRemovedMiddleLabel() throws Exception {
+        db.shutdown();
+        start(new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder()
+                .setConfig(ConstraintSettings.enforcement, EnforcementMode.ASYNC_VALIDATE.name())
+                .newGraphDatabase());
+        Node order = createOrder(item);
+        assertNotNull(order);
+        assertTrue(extension().awaitValidation(10, TimeUnit.SECONDS));
+        // the order loses its supplier, but the item no longer has the label that leads back to it
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                item.removeLabel(Labels.Item);
+            }
+        }));
+        assertTrue(extension().awaitValidation(10, TimeUnit.SECONDS));
+        List<ViolationLog.Violation> violations = extension().getViolationLog().recent();
+        assertEquals(1, violations.size());
+        assertEquals(order.getId(), violations.get(0).getNodeId());
+    }
+
+    @Test
+    public void testRejectViolatedByExistingData() throws Exception {
+        assertNotNull(createOrder(item));
+        assertEquals(1, extension().addPathConstraint(ConstraintParser.parsePath(
+                "(:Order)-[:CONTAINS]->(:Item)-[:SUPPLIED_BY]->(:Supplier) TO 2..many:1")));
+        assertEquals(1, new ConstraintPersister(db).restorePaths().all().size());
+    }
+}
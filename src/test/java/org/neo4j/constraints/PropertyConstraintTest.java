@@ -0,0 +1,154 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Types.WORKS_FOR;
+
+public class PropertyConstraintTest {
+    private GraphDatabaseService db;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        assertRoundTrip("(:Person).age IN 0..150", "(:Person).age in 0 .. 150");
+        assertRoundTrip("(:Person).score IN -1.5..many", "(:Person).score IN -1.5..many");
+        assertRoundTrip("(:Person).name LENGTH 1..many", "( :Person ).name LENGTH 1..many");
+        assertRoundTrip("[:WORKS_FOR].since IS integer", "[:WORKS_FOR].since is integer");
+        assertRoundTrip("(:Person).email MATCHES \"[^@]+@[^\\\"]+\"", "(:Person).email MATCHES '[^@]+@[^\"]+'");
+        assertTrue(ConstraintParser.isPropertyConstraint("(:Person).age IN 0..1"));
+        assertFalse(ConstraintParser.isPropertyConstraint("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+    }
+
+    private void assertRoundTrip(String expected, String pattern) {
+        PropertyConstraint constraint = ConstraintParser.parseProperty(pattern);
+        assertEquals(expected, constraint.toString());
+        assertEquals(constraint, ConstraintParser.parseProperty(constraint.toString()));
+    }
+
+    @Test
+    public void testParseErrors() throws Exception {
+        assertParseError(18, "(:Person).name IS text");
+        assertParseError(23, "(:Person).name MATCHES \"[\"");
+        assertParseError(15, "(:Person).name HAS 1");
+    }
+
+    private void assertParseError(int position, String pattern) {
+        try {
+            ConstraintParser.parseProperty(pattern);
+            fail("should not parse " + pattern);
+        } catch (ConstraintParser.ParseException e) {
+            assertEquals(e.getMessage(), position, e.getPosition());
+        }
+    }
+
+    @Test
+    public void testValidators() throws Exception {
+        PropertyConstraint range = ConstraintParser.parseProperty("(:Person).age IN 0..150");
+        assertTrue(range.accepts(42));
+        assertTrue(range.accepts(150L));
+        assertTrue(range.accepts(0.5d));
+        assertFalse(range.accepts(151));
+        assertFalse(range.accepts(-0.5f));
+        assertFalse(range.accepts("42"));
+        PropertyConstraint length = ConstraintParser.parseProperty("(:Person).tags LENGTH 1..2");
+        assertTrue(length.accepts("ab"));
+        assertTrue(length.accepts(new String[]{"a"}));
+        assertFalse(length.accepts(new long[0]));
+        assertFalse(length.accepts(12));
+        PropertyConstraint type = ConstraintParser.parseProperty("(:Person).name IS string");
+        assertTrue(type.accepts("Joe"));
+        assertFalse(type.accepts(1));
+        PropertyConstraint pattern = ConstraintParser.parseProperty("(:Person).email MATCHES \"[^@]+@[^@]+\"");
+        assertTrue(pattern.accepts("joe@example.com"));
+        assertFalse(pattern.accepts("joe"));
+    }
+
+    private ConstraintExtensionFactory.ConstraintExtension extension() {
+        return ConstraintExtensionFactory.extension((GraphDatabaseAPI) db);
+    }
+
+    private boolean commit(Runnable work) {
+        try (Transaction tx = db.beginTx()) {
+            work.run();
+            tx.success();
+        } catch (TransactionFailureException e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Test
+    public void testEnforceNodeProperties() throws Exception {
+        assertEquals(0, extension().addPropertyConstraint(ConstraintParser.parseProperty("(:Person).age IN 0..150")));
+        final Node[] person = new Node[1];
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                person[0] = db.createNode(Person);
+                person[0].setProperty("age", 42);
+                db.createNode(Company).setProperty("age", 1000);
+            }
+        }));
+        assertFalse(commit(new Runnable() {
+            public void run() {
+                person[0].setProperty("age", 200);
+            }
+        }));
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                person[0].setProperty("name", "Joe");
+            }
+        }));
+        // a node gaining the label is checked for its existing properties
+        assertFalse(commit(new Runnable() {
+            public void run() {
+                Node node = db.createNode();
+                node.setProperty("age", -1);
+                node.addLabel(Person);
+            }
+        }));
+    }
+
+    @Test
+    public void testEnforceRelationshipProperties() throws Exception {
+        assertEquals(0, extension().addPropertyConstraint(ConstraintParser.parseProperty("[:WORKS_FOR].since IS integer")));
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                db.createNode().createRelationshipTo(db.createNode(), WORKS_FOR).setProperty("since", 2010);
+            }
+        }));
+        assertFalse(commit(new Runnable() {
+            public void run() {
+                db.createNode().createRelationshipTo(db.createNode(), WORKS_FOR).setProperty("since", "2010");
+            }
+        }));
+    }
+
+    @Test
+    public void testRejectConstraintViolatedByExistingData() throws Exception {
+        commit(new Runnable() {
+            public void run() {
+                db.createNode(Person).setProperty("name", "");
+                db.createNode(Person).setProperty("name", "Joe");
+            }
+        });
+        PropertyConstraint constraint = ConstraintParser.parseProperty("(:Person).name LENGTH 1..many");
+        assertEquals(1, extension().addPropertyConstraint(constraint));
+        assertTrue(new ConstraintPersister(db).restoreProperties().isEmpty());
+    }
+}
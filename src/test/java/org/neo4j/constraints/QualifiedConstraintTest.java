@@ -0,0 +1,137 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.graphdb.*;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.*;
+
+public class QualifiedConstraintTest {
+    private static final String CURRENT = "(:Person)-[:EMPLOYED_BY {current:true}]->(:Company) OF -1..-1:0..1";
+
+    enum Labels implements Label { Person, Company }
+    enum Types implements RelationshipType { EMPLOYED_BY }
+
+    private GraphDatabaseService db;
+    private Node person, company;
+    private Relationship former;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try (Transaction tx = db.beginTx()) {
+            person = db.createNode(Labels.Person);
+            company = db.createNode(Labels.Company);
+            person.createRelationshipTo(company, Types.EMPLOYED_BY).setProperty("current", true);
+            former = person.createRelationshipTo(db.createNode(Labels.Company), Types.EMPLOYED_BY);
+            former.setProperty("current", false);
+            tx.success();
+        }
+        Constraint constraint = ConstraintParser.parse("(:Person)-[:EMPLOYED_BY {current: true}]->(:Company) TO many:0..1");
+        assertTrue(extension().addConstraint(constraint, false, ConstraintLoaderTest.IGNORE));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    private ConstraintExtensionFactory.ConstraintExtension extension() {
+        return ConstraintExtensionFactory.extension((GraphDatabaseAPI) db);
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        assertEquals(CURRENT, ConstraintParser.parse("(:Person)-[:EMPLOYED_BY{ current : true }]->(:Company) TO many:0..1").toString());
+        Constraint constraint = ConstraintParser.parse("(:Person)-[:EMPLOYED_BY {since: 2014, role: 'CTO', rate: 1.5}]->(:Company) TO many:1");
+        assertEquals(3, constraint.getQualifier().size());
+        assertEquals(2014L, constraint.getQualifier().get("since"));
+        assertEquals(constraint.toString(), ConstraintParser.parse(constraint.pattern() + " TO many:1").toString());
+        assertFalse(ConstraintParser.parse("(:Person)-[:EMPLOYED_BY]->(:Company) TO many:1").isQualified());
+    }
+
+    @Test
+    public void testParseErrors() throws Exception {
+        assertParseError("(:Person)-[:EMPLOYED_BY {current}]->(:Company) TO many:1");
+        assertParseError("(:Person)-[:EMPLOYED_BY {a:1, a:2}]->(:Company) TO many:1");
+        try {
+            ConstraintParser.parsePath("(:A)-[:X {current:true}]->(:B)-[:Y]->(:C) TO many:1");
+            fail("Qualified hops are not supported");
+        } catch (ConstraintParser.ParseException e) {
+            assertEquals(9, e.getPosition());
+        }
+    }
+
+    private void assertParseError(String pattern) {
+        try {
+            ConstraintParser.parse(pattern);
+            fail("Expected parse error for " + pattern);
+        } catch (ConstraintParser.ParseException expected) {
+        }
+    }
+
+    @Test
+    public void testAccepts() throws Exception {
+        Constraint constraint = ConstraintParser.parse("(:Person)-[:EMPLOYED_BY {level: 2}]->(:Company) TO many:1");
+        try (Transaction tx = db.beginTx()) {
+            former.setProperty("level", 2);
+            assertTrue(constraint.accepts(former));
+            former.setProperty("level", "2");
+            assertFalse(constraint.accepts(former));
+            tx.success();
+        }
+    }
+
+    private boolean commit(Runnable work) {
+        try (Transaction tx = db.beginTx()) {
+            work.run();
+            tx.success();
+        } catch (TransactionFailureException e) {
+            return false;
+        }
+        return true;
+    }
+
+    @Test
+    public void testOnlyQualifiedRelationshipsAreCounted() throws Exception {
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                person.createRelationshipTo(db.createNode(Labels.Company), Types.EMPLOYED_BY);
+            }
+        }));
+        assertFalse(commit(new Runnable() {
+            public void run() {
+                person.createRelationshipTo(db.createNode(Labels.Company), Types.EMPLOYED_BY).setProperty("current", true);
+            }
+        }));
+    }
+
+    @Test
+    public void testPropertyChangeIsChecked() throws Exception {
+        assertFalse(commit(new Runnable() {
+            public void run() {
+                former.setProperty("current", true);
+            }
+        }));
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                for (Relationship relationship : person.getRelationships(Types.EMPLOYED_BY)) relationship.removeProperty("current");
+                former.setProperty("current", true);
+            }
+        }));
+    }
+
+    @Test
+    public void testRejectsViolatedData() throws Exception {
+        assertTrue(commit(new Runnable() {
+            public void run() {
+                person.createRelationshipTo(company, Types.EMPLOYED_BY).setProperty("current", "yes");
+            }
+        }));
+        Constraint constraint = ConstraintParser.parse("(:Person)-[:EMPLOYED_BY {current:'yes'}]->(:Company) TO many:2..many");
+        assertFalse(extension().addConstraint(constraint, false, ConstraintLoaderTest.IGNORE));
+    }
+}
@@ -0,0 +1,105 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.neo4j.collection.primitive.Primitive;
+import org.neo4j.collection.primitive.PrimitiveLongSet;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.event.TransactionData;
+import org.neo4j.graphdb.event.TransactionEventHandler;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import static org.junit.Assert.*;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Labels;
+import static org.neo4j.constraints.ConstraintTxCheckTest.Types;
+
+public class TransactionClassifierTest {
+    private GraphDatabaseService db;
+    private Classification classification;
+    private Node person, company;
+
+    @Before
+    public void setUp() throws Exception {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabase();
+        try (Transaction tx = db.beginTx()) {
+            person = db.createNode(Labels.Person);
+            company = db.createNode(Labels.Company);
+            person.createRelationshipTo(company, Types.WORKS_FOR);
+            tx.success();
+        }
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        classification = new Classification(constraints);
+        db.registerTransactionEventHandler(classification);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    @Test
+    public void testPropertyChangesHaveNoStructuralChanges() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            person.setProperty("name", "John");
+            tx.success();
+        }
+        assertFalse(classification.structural);
+    }
+
+    @Test
+    public void testUnconstrainedTypeIsNotRelevant() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            person.createRelationshipTo(company, Types.KNOWS);
+            tx.success();
+        }
+        assertTrue(classification.structural);
+        assertFalse(classification.relevant);
+        assertEquals(0, classification.nodes);
+    }
+
+    @Test
+    public void testDeletedNodesAreSkipped() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            for (Relationship rel : person.getRelationships()) rel.delete();
+            person.delete();
+            tx.success();
+        }
+        assertTrue(classification.relevant);
+        assertEquals("only the company", 1, classification.nodes);
+    }
+
+    @Test
+    public void testRelabeledEmployerChecksEmployee() throws Exception {
+        try (Transaction tx = db.beginTx()) {
+            company.removeLabel(Labels.Company);
+            tx.success();
+        }
+        assertTrue(classification.relevant);
+        assertEquals("the person depends on the label", 1, classification.nodes);
+    }
+
+    private static class Classification extends TransactionEventHandler.Adapter<Object> {
+        private final Constraint.Constraints constraints;
+        private boolean structural, relevant;
+        private int nodes;
+
+        private Classification(Constraint.Constraints constraints) {
+            this.constraints = constraints;
+        }
+
+        @Override
+        public Object beforeCommit(TransactionData data) throws Exception {
+            structural = TransactionClassifier.hasStructuralChanges(data);
+            try (PrimitiveLongSet nodeIds = Primitive.longSet()) {
+                relevant = TransactionClassifier.classify(constraints, data, nodeIds);
+                nodes = nodeIds.size();
+            }
+            return null;
+        }
+    }
+}
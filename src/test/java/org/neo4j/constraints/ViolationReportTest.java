@@ -0,0 +1,118 @@
+package org.neo4j.constraints;
+
+import org.junit.After;
+import org.junit.Test;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.TransactionFailureException;
+import org.neo4j.kernel.GraphDatabaseAPI;
+import org.neo4j.test.TestGraphDatabaseFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ViolationReportTest {
+    private GraphDatabaseService db;
+
+    private void start(EnforcementMode mode) {
+        db = new TestGraphDatabaseFactory().newImpermanentDatabaseBuilder()
+                .setConfig(ConstraintSettings.enforcement, mode.name())
+                .setConfig(ConstraintSettings.max_reported_violations, "2")
+                .newGraphDatabase();
+        Constraint.Constraints constraints = Constraint.Constraints.from(null);
+        constraints.add(ConstraintParser.parse("(:Person)-[:WORKS_FOR]->(:Company) TO many:1"));
+        new ConstraintPersister(db).persist(constraints);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        db.shutdown();
+    }
+
+    private void createPeople(int count, int companies) {
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < count; i++) {
+                Node person = db.createNode(ConstraintTxCheckTest.Labels.Person);
+                for (int c = 0; c < companies; c++) {
+                    person.createRelationshipTo(db.createNode(ConstraintTxCheckTest.Labels.Company), ConstraintTxCheckTest.Types.WORKS_FOR);
+                }
+            }
+            tx.success();
+        }
+    }
+
+    @Test
+    public void testRejectedTransactionReportsCappedStructuredViolations() throws Exception {
+        start(EnforcementMode.ENFORCE);
+        try {
+            createPeople(5, 2);
+            fail("should have been rejected");
+        } catch (TransactionFailureException e) {
+            CardinalityViolationException violations = cause(e);
+            ViolationReport report = violations.getReport();
+            assertEquals(5, report.getTotal());
+            assertEquals(5, report.getNodes());
+            assertEquals(3, report.getOmitted());
+            assertEquals(2, report.getViolations().size());
+            CardinalityViolation violation = (CardinalityViolation) report.getViolations().get(0);
+            assertEquals(Constraint.Result.TO_MANY, violation.getResult());
+            assertTrue(violation.isToSide());
+            assertEquals(1, violation.getBound());
+            assertEquals(2, violation.getDegree());
+            assertTrue(violations.getMessage().endsWith("... 3 more"));
+        }
+    }
+
+    private static CardinalityViolationException cause(Throwable e) {
+        return cause(e, CardinalityViolationException.class);
+    }
+
+    private static <T extends Throwable> T cause(Throwable e, Class<T> type) {
+        // the kernel wraps the exception of the handler
+        while (e != null && !type.isInstance(e)) e = e.getCause();
+        assertNotNull(e);
+        return type.cast(e);
+    }
+
+    @Test
+    public void testRejectedPropertyViolationsAreReportedTyped() throws Exception {
+        start(EnforcementMode.ENFORCE);
+        GraphDatabaseAPI api = (GraphDatabaseAPI) db;
+        assertEquals(0, ConstraintExtensionFactory.extension(api).addPropertyConstraint(ConstraintParser.parseProperty("(:Product).price IN 0..100")));
+        try (Transaction tx = db.beginTx()) {
+            for (int i = 0; i < 3; i++) db.createNode(ConstraintTxCheckTest.Labels.Product).setProperty("price", 1000 + i);
+            tx.success();
+        } catch (TransactionFailureException e) {
+            ViolationReport report = cause(e, ViolationReportException.class).getReport();
+            assertEquals(3, report.getTotal());
+            assertEquals(1, report.getOmitted());
+            assertTrue(report.getSummary().startsWith("3 property constraint violations"));
+            PropertyConstraint.Violation violation = (PropertyConstraint.Violation) report.getViolations().get(0);
+            assertEquals("(:Product).price IN 0..100", violation.getConstraint().toString());
+            return;
+        }
+        fail("should have been rejected");
+    }
+
+    @Test
+    public void testListenerReceivesAllViolations() throws Exception {
+        start(EnforcementMode.WARN);
+        final List<CardinalityViolation> received = new ArrayList<>();
+        ConstraintExtensionFactory.extension((GraphDatabaseAPI) db).addViolationListener(new ViolationListener() {
+            public void violation(ConstraintViolation violation, boolean rejected) {
+                assertFalse(rejected);
+                received.add((CardinalityViolation) violation);
+            }
+        });
+        createPeople(4, 0);
+        assertEquals(4, received.size());
+        for (CardinalityViolation violation : received) {
+            assertEquals(Constraint.Result.TO_FEW, violation.getResult());
+            assertEquals(0, violation.getDegree());
+            assertEquals(1, violation.getBound());
+        }
+    }
+}